@@ -0,0 +1,242 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Merkle-style reconciliation that skips key ranges whose checksums agree.
+ *
+ * Rows are placed into buckets by the first word of their key digest and
+ * into sub-buckets by the second (see {@link RowDigest#word}). The database
+ * returns COUNT and SUM of the row digest per bucket; the same aggregates
+ * are computed over the CSV. Sub-bucket aggregates are requested only for
+ * buckets that differ, and full rows only for sub-buckets that differ.
+ * Those leaves are reconciled like compareRecords, so dbOnly rows are found
+ * too. CSV records in agreeing leaves are reported as matched without a
+ * db_record and with an empty differences map.
+ */
+public class ChecksumBucketMatcher {
+
+    public static final int DEFAULT_BUCKETS = 1024;
+    public static final int DEFAULT_SUB_BUCKETS = 64;
+
+    /** Most leaf ids selected with an IN list before switching to a single filtered scan */
+    private static final int LEAF_LIST_SIZE = 1000;
+    private static final int LEAF_SCAN_FETCH_SIZE = 10_000;
+
+    /**
+     * Compare CSV records with database records by bucket checksums
+     * @param csvRecords List of CSV records as Map; the first record's columns are compared
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
+     */
+    public static DatabaseCSVMatcher.MatchResult compareRecordsByBuckets(List<Map<String, Object>> csvRecords,
+                                                                       Connection connection,
+                                                                       String tableName,
+                                                                       String... primaryKeys) throws SQLException {
+        return compareRecordsByBuckets(csvRecords, connection, tableName, RowDigest.Dialect.detect(connection),
+            DEFAULT_BUCKETS, DEFAULT_SUB_BUCKETS, primaryKeys);
+    }
+
+    public static DatabaseCSVMatcher.MatchResult compareRecordsByBuckets(List<Map<String, Object>> csvRecords,
+                                                                       Connection connection,
+                                                                       String tableName,
+                                                                       RowDigest.Dialect dialect,
+                                                                       int buckets,
+                                                                       int subBuckets,
+                                                                       String... primaryKeys) throws SQLException {
+        DatabaseCSVMatcher.MatchResult result = new DatabaseCSVMatcher.MatchResult();
+        compareRecordsByBuckets(csvRecords, connection, tableName, dialect, buckets, subBuckets, result, primaryKeys);
+        return result;
+    }
+
+    /**
+     * Compare by bucket checksums, reporting each outcome to the sink
+     */
+    public static void compareRecordsByBuckets(List<Map<String, Object>> csvRecords,
+                                               Connection connection,
+                                               String tableName,
+                                               RowDigest.Dialect dialect,
+                                               int buckets,
+                                               int subBuckets,
+                                               MatchSink sink,
+                                               String... primaryKeys) throws SQLException {
+
+        if (csvRecords.isEmpty()) {
+            return;
+        }
+
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.of(primaryKeys);
+        List<String> keyColumns = new ArrayList<>();
+        for (String primaryKey : primaryKeys) {
+            keyColumns.add(primaryKey.toLowerCase());
+        }
+        List<String> columns = RowDigest.columnsOf(csvRecords.get(0));
+        ComparisonPlan.Compiled comparison = ComparisonPlan.DEFAULT.compile(columns);
+
+        // Step 1: Place CSV records into leaves and aggregate their checksums
+        Map<Long, List<Map<String, Object>>> csvLeaves = new HashMap<>();
+        Map<Integer, long[]> csvBuckets = new HashMap<>();
+        Map<Long, long[]> csvSubBuckets = new HashMap<>();
+        Set<CompositeKey> seenKeys = new HashSet<>();
+
+        for (Map<String, Object> csvRecord : csvRecords) {
+            if (!seenKeys.add(keyLayout.keyOf(csvRecord))) {
+                // Only the first record of a key takes part, as in compareRecords
+                sink.unmatched(csvRecord);
+                continue;
+            }
+
+            byte[] keyDigest = RowDigest.md5(csvRecord, keyColumns);
+            int bucket = (int) (RowDigest.word(keyDigest, 0) % buckets);
+            long leaf = leafOf(bucket, (int) (RowDigest.word(keyDigest, 1) % subBuckets), subBuckets);
+            long checksum = RowDigest.word(csvRecord, columns, 0);
+
+            csvLeaves.computeIfAbsent(leaf, k -> new ArrayList<>()).add(csvRecord);
+            accumulate(csvBuckets.computeIfAbsent(bucket, k -> new long[2]), checksum);
+            accumulate(csvSubBuckets.computeIfAbsent(leaf, k -> new long[2]), checksum);
+        }
+
+        String bucketExpression = "mod(" + dialect.wordExpression(keyColumns, 0) + ", " + buckets + ")";
+        String subBucketExpression = "mod(" + dialect.wordExpression(keyColumns, 1) + ", " + subBuckets + ")";
+        String checksumExpression = dialect.wordExpression(columns, 0);
+
+        // Step 2: Compare bucket aggregates
+        Map<Long, long[]> dbBuckets = fetchAggregates(connection,
+            "SELECT bucket, COUNT(*), SUM(checksum) FROM (SELECT " + bucketExpression + " AS bucket, "
+                + checksumExpression + " AS checksum FROM " + tableName + ") q GROUP BY bucket");
+
+        Set<Long> differingBuckets = new TreeSet<>();
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            if (!Arrays.equals(csvBuckets.get(bucket), dbBuckets.get((long) bucket))) {
+                differingBuckets.add((long) bucket);
+            }
+        }
+
+        // Step 3: Drill into sub-buckets of the differing buckets
+        Set<Long> differingLeaves = new TreeSet<>();
+        if (!differingBuckets.isEmpty()) {
+            StringJoiner bucketList = new StringJoiner(", ");
+            differingBuckets.forEach(bucket -> bucketList.add(bucket.toString()));
+
+            Map<Long, long[]> dbSubBuckets = fetchAggregates(connection,
+                "SELECT bucket * " + subBuckets + " + sub_bucket, COUNT(*), SUM(checksum) FROM (SELECT "
+                    + bucketExpression + " AS bucket, " + subBucketExpression + " AS sub_bucket, "
+                    + checksumExpression + " AS checksum FROM " + tableName + ") q WHERE bucket IN ("
+                    + bucketList + ") GROUP BY bucket, sub_bucket");
+
+            for (long bucket : differingBuckets) {
+                for (int sub = 0; sub < subBuckets; sub++) {
+                    long leaf = leafOf((int) bucket, sub, subBuckets);
+                    if (!Arrays.equals(csvSubBuckets.get(leaf), dbSubBuckets.get(leaf))) {
+                        differingLeaves.add(leaf);
+                    }
+                }
+            }
+        }
+
+        // Step 4: Agreeing leaves are settled without fetching rows
+        for (Map.Entry<Long, List<Map<String, Object>>> leaf : csvLeaves.entrySet()) {
+            if (differingLeaves.contains(leaf.getKey())) {
+                continue;
+            }
+            for (Map<String, Object> csvRecord : leaf.getValue()) {
+                sink.matched(csvRecord, null, Collections.emptyMap());
+            }
+        }
+
+        // Step 5: Fetch the differing leaves in one query and reconcile them
+        String leafExpression = bucketExpression + " * " + subBuckets + " + " + subBucketExpression;
+        Map<CompositeKey, Map<String, Object>> dbRecordsMap = differingLeaves.isEmpty()
+            ? new HashMap<>()
+            : fetchLeaves(connection, tableName, leafExpression, differingLeaves, keyLayout);
+
+        for (Long leaf : differingLeaves) {
+            for (Map<String, Object> csvRecord : csvLeaves.getOrDefault(leaf, Collections.emptyList())) {
+                Map<String, Object> dbRecord = dbRecordsMap.remove(keyLayout.keyOf(csvRecord));
+
+                if (dbRecord != null) {
+                    sink.matched(csvRecord, dbRecord, comparison.differences(csvRecord, dbRecord));
+                } else {
+                    sink.unmatched(csvRecord);
+                }
+            }
+        }
+
+        dbRecordsMap.values().forEach(sink::dbOnly);
+    }
+
+    /**
+     * Fetch the rows of the given leaves. Up to LEAF_LIST_SIZE leaves are selected with
+     * an IN list; beyond that the table is scanned once with the leaf id computed by
+     * the database and rows of other leaves are dropped as they arrive.
+     */
+    private static Map<CompositeKey, Map<String, Object>> fetchLeaves(Connection connection, String tableName,
+                                                                     String leafExpression, Set<Long> leaves,
+                                                                     CompositeKey.Layout keyLayout) throws SQLException {
+        if (leaves.size() <= LEAF_LIST_SIZE) {
+            String whereClause = leafExpression + " IN (" + String.join(",", Collections.nCopies(leaves.size(), "?")) + ")";
+            return DatabaseCSVMatcher.fetchDatabaseRecords(
+                connection, tableName, whereClause, new ArrayList<>(leaves), keyLayout);
+        }
+
+        Map<CompositeKey, Map<String, Object>> dbRecords = new HashMap<>();
+        String sql = "SELECT q.*, " + leafExpression + " AS leaf_id FROM " + tableName + " q";
+
+        try (PreparedStatement stmt = connection.prepareStatement(
+                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            stmt.setFetchSize(LEAF_SCAN_FETCH_SIZE);
+
+            try (ResultSet rs = ReconciliationMetrics.executePrepared(stmt, sql);
+                 ReconciliationMetrics.Timer fetch = ReconciliationMetrics.start(
+                     ReconciliationMetrics.Phase.FETCH, tableName)) {
+
+                // The row schema leaves out the trailing leaf id
+                ResultSetMetaData metaData = rs.getMetaData();
+                int leafIndex = metaData.getColumnCount();
+                String[] names = new String[leafIndex - 1];
+                int[] types = new int[leafIndex - 1];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = metaData.getColumnName(i + 1);
+                    types[i] = metaData.getColumnType(i + 1);
+                }
+                Row.Schema schema = Row.Schema.of(names, types);
+
+                while (rs.next()) {
+                    if (!leaves.contains(rs.getLong(leafIndex))) {
+                        continue;
+                    }
+                    Row record = Row.read(rs, schema);
+                    fetch.row(record);
+                    dbRecords.put(keyLayout.keyOf(record), record);
+                }
+            }
+        }
+        return dbRecords;
+    }
+
+    private static long leafOf(int bucket, int subBucket, int subBuckets) {
+        return (long) bucket * subBuckets + subBucket;
+    }
+
+    private static void accumulate(long[] aggregate, long checksum) {
+        aggregate[0]++;
+        aggregate[1] += checksum;
+    }
+
+    /**
+     * Run an aggregate query returning (id, count, sum) rows
+     */
+    private static Map<Long, long[]> fetchAggregates(Connection connection, String sql) throws SQLException {
+        Map<Long, long[]> aggregates = new HashMap<>();
+
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                aggregates.put(rs.getLong(1), new long[] {rs.getLong(2), rs.getLong(3)});
+            }
+        }
+        return aggregates;
+    }
+}
@@ -0,0 +1,260 @@
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.*;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.ArrowReader;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.util.Text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Reads an exported table from an Arrow IPC file or stream.
+ *
+ * Record batches are decoded one at a time, and only the projected columns
+ * are turned into {@link Row}s. Values get the same Java types the JDBC
+ * driver returns: strings, boxed numbers, BigDecimal, java.sql.Date and
+ * java.sql.Timestamp. Keys and comparison plans therefore treat a file row
+ * exactly like the live table row it was exported from. Parquet exports are
+ * read by {@link ParquetFileSource}, which decodes its batches here too but
+ * needs the native Arrow dataset library; this class only needs arrow-vector.
+ */
+public class ColumnarFileSource implements RecordSource {
+
+    private static final byte[] ARROW_FILE_MAGIC = {'A', 'R', 'R', 'O', 'W', '1'};
+
+    private final Path path;
+
+    public ColumnarFileSource(Path path) {
+        this.path = path;
+    }
+
+    public static ColumnarFileSource arrow(Path path) {
+        return new ColumnarFileSource(path);
+    }
+
+    @Override
+    public void scan(String[] columns, Consumer<? super Row> handler) throws IOException {
+        try (BufferAllocator allocator = new RootAllocator();
+             ArrowReader reader = openArrow(allocator)) {
+            readBatches(reader, columns, handler);
+        }
+    }
+
+    /**
+     * Arrow IPC comes as a random-access file (magic ARROW1) or a plain stream
+     */
+    private ArrowReader openArrow(BufferAllocator allocator) throws IOException {
+        byte[] magic = new byte[ARROW_FILE_MAGIC.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            if (in.readNBytes(magic, 0, magic.length) == magic.length && Arrays.equals(magic, ARROW_FILE_MAGIC)) {
+                return new ArrowFileReader(FileChannel.open(path, StandardOpenOption.READ), allocator);
+            }
+        }
+        return new ArrowStreamReader(Files.newInputStream(path), allocator);
+    }
+
+    /**
+     * Decode every batch into rows
+     * @param columns Columns to keep, resolved against the file's names; null keeps all
+     */
+    static void readBatches(ArrowReader reader, String[] columns,
+                                    Consumer<? super Row> handler) throws IOException {
+        ValueReader[] readers = null;
+        Row.Schema schema = null;
+
+        while (reader.loadNextBatch()) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+
+            // The reader refills the same vectors for every batch, so accessors are built once
+            if (readers == null) {
+                List<Field> fields = root.getSchema().getFields();
+                String[] names = columns == null ? names(fields) : resolve(fields, columns);
+                readers = new ValueReader[names.length];
+                int[] types = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    FieldVector vector = root.getVector(names[i]);
+                    readers[i] = valueReader(vector);
+                    types[i] = sqlType(vector.getField().getType());
+                }
+                schema = Row.Schema.of(names, types);
+            }
+
+            int rowCount = root.getRowCount();
+            for (int row = 0; row < rowCount; row++) {
+                Object[] values = new Object[readers.length];
+                for (int column = 0; column < readers.length; column++) {
+                    values[column] = readers[column].get(row);
+                }
+                handler.accept(new Row(schema, values));
+            }
+        }
+    }
+
+    private static String[] names(List<Field> fields) {
+        String[] names = new String[fields.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = fields.get(i).getName();
+        }
+        return names;
+    }
+
+    /**
+     * Map requested column names onto the file's names, ignoring case and
+     * skipping columns the file does not have
+     */
+    static String[] resolve(List<Field> fields, String[] columns) {
+        Map<String, String> byLowerName = new HashMap<>();
+        for (Field field : fields) {
+            byLowerName.putIfAbsent(field.getName().toLowerCase(), field.getName());
+        }
+        List<String> resolved = new ArrayList<>(columns.length);
+        for (String column : columns) {
+            String name = byLowerName.get(column.toLowerCase());
+            if (name != null) {
+                resolved.add(name);
+            }
+        }
+        if (resolved.isEmpty()) {
+            throw new IllegalArgumentException("None of " + Arrays.toString(columns) + " is in the file; found " + byLowerName.values());
+        }
+        return resolved.toArray(new String[0]);
+    }
+
+    private interface ValueReader {
+        Object get(int row);
+    }
+
+    /**
+     * Accessor returning the value the JDBC driver would have returned for the column
+     */
+    private static ValueReader valueReader(FieldVector vector) {
+        if (vector instanceof TimeStampVector) {
+            TimeStampVector timestamps = (TimeStampVector) vector;
+            ArrowType.Timestamp type = (ArrowType.Timestamp) vector.getField().getType();
+            long unitsPerSecond = unitsPerSecond(type.getUnit());
+            long nanosPerUnit = 1_000_000_000L / unitsPerSecond;
+            boolean zoned = type.getTimezone() != null;
+            return row -> {
+                if (timestamps.isNull(row)) {
+                    return null;
+                }
+                long raw = timestamps.get(row);
+                long seconds = Math.floorDiv(raw, unitsPerSecond);
+                long nanos = Math.floorMod(raw, unitsPerSecond) * nanosPerUnit;
+                // Zoned values are instants; naive ones are wall-clock times, as TIMESTAMP_NTZ in JDBC
+                return zoned
+                        ? Timestamp.from(Instant.ofEpochSecond(seconds, nanos))
+                        : Timestamp.valueOf(LocalDateTime.ofEpochSecond(seconds, (int) nanos, ZoneOffset.UTC));
+            };
+        }
+        if (vector instanceof DateDayVector) {
+            DateDayVector days = (DateDayVector) vector;
+            return row -> days.isNull(row) ? null : Date.valueOf(LocalDate.ofEpochDay(days.get(row)));
+        }
+        if (vector instanceof DateMilliVector) {
+            DateMilliVector millis = (DateMilliVector) vector;
+            return row -> millis.isNull(row) ? null
+                    : Date.valueOf(LocalDate.ofEpochDay(Math.floorDiv(millis.get(row), 86_400_000L)));
+        }
+        return row -> {
+            Object value = vector.getObject(row);
+            return value instanceof Text ? value.toString() : value;
+        };
+    }
+
+    private static long unitsPerSecond(org.apache.arrow.vector.types.TimeUnit unit) {
+        switch (unit) {
+            case SECOND:
+                return 1L;
+            case MILLISECOND:
+                return 1_000L;
+            case MICROSECOND:
+                return 1_000_000L;
+            default:
+                return 1_000_000_000L;
+        }
+    }
+
+    /**
+     * java.sql.Types code for an Arrow type, so comparison plans pick the same comparators as for JDBC rows
+     */
+    private static int sqlType(ArrowType type) {
+        switch (type.getTypeID()) {
+            case Int:
+                switch (((ArrowType.Int) type).getBitWidth()) {
+                    case 8:
+                        return Types.TINYINT;
+                    case 16:
+                        return Types.SMALLINT;
+                    case 32:
+                        return Types.INTEGER;
+                    default:
+                        return Types.BIGINT;
+                }
+            case FloatingPoint:
+                return ((ArrowType.FloatingPoint) type).getPrecision() == FloatingPointPrecision.DOUBLE
+                        ? Types.DOUBLE : Types.REAL;
+            case Decimal:
+                return Types.DECIMAL;
+            case Utf8:
+            case LargeUtf8:
+                return Types.VARCHAR;
+            case Bool:
+                return Types.BOOLEAN;
+            case Date:
+                return Types.DATE;
+            case Timestamp:
+                return ((ArrowType.Timestamp) type).getTimezone() == null
+                        ? Types.TIMESTAMP : Types.TIMESTAMP_WITH_TIMEZONE;
+            case Binary:
+            case LargeBinary:
+            case FixedSizeBinary:
+                return Types.VARBINARY;
+            default:
+                return Types.OTHER;
+        }
+    }
+}
+
+/*
+Maven Dependencies (add to pom.xml; ParquetFileSource also needs arrow-dataset):
+<dependencies>
+    <dependency>
+        <groupId>org.apache.arrow</groupId>
+        <artifactId>arrow-vector</artifactId>
+        <version>15.0.2</version>
+    </dependency>
+    <dependency>
+        <groupId>org.apache.arrow</groupId>
+        <artifactId>arrow-memory-netty</artifactId>
+        <version>15.0.2</version>
+    </dependency>
+</dependencies>
+
+Gradle Dependencies (add to build.gradle):
+dependencies {
+    implementation 'org.apache.arrow:arrow-vector:15.0.2'
+    implementation 'org.apache.arrow:arrow-memory-netty:15.0.2'
+}
+
+JVM option required by Arrow on Java 17+:
+   --add-opens=java.base/java.nio=ALL-UNNAMED
+*/
@@ -0,0 +1,574 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Types;
+import java.text.ParsePosition;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-column comparison rules for CSV text against JDBC-typed values.
+ *
+ * A plan is configured once, compiled for a CSV header with
+ * {@link #compile}, and the compiled form binds one comparator per column
+ * to each distinct {@link Row.Schema} it sees. Comparators default by SQL
+ * type: numbers compare by value ("1.50" matches BigDecimal 1.5), REAL
+ * columns at float precision ("0.1" matches 0.1f), dates and
+ * timestamps are parsed with the {@link DateFormatConverter} patterns, CHAR
+ * columns ignore blank padding and booleans accept 1/0, y/n and true/false.
+ * Columns can be overridden through the {@link Builder}.
+ */
+public final class ComparisonPlan {
+
+    /**
+     * Compares one CSV value against one database value
+     */
+    public interface ColumnComparator {
+        boolean matches(Object csvValue, Object dbValue);
+    }
+
+    public static final ComparisonPlan DEFAULT = builder().build();
+
+    private final Map<String, ColumnComparator> overrides;
+    private final Set<String> ignored;
+
+    private ComparisonPlan(Map<String, ColumnComparator> overrides, Set<String> ignored) {
+        this.overrides = overrides;
+        this.ignored = ignored;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Compile the plan for CSV records with the given columns
+     * @param csvColumns CSV header, usually {@link RowDigest#columnsOf} of the first record
+     */
+    public Compiled compile(List<String> csvColumns) {
+        List<String> compared = new ArrayList<>();
+        for (String column : csvColumns) {
+            if (!ignored.contains(column.toLowerCase())) {
+                compared.add(column);
+            }
+        }
+        return new Compiled(compared.toArray(new String[0]));
+    }
+
+    /**
+     * A plan bound to a CSV header. Thread-safe; bindings to database
+     * schemas are built once and cached.
+     */
+    public final class Compiled {
+        private final String[] columns;
+        private final String[] lowerColumns;
+        private final Map<Row.Schema, Binding> bindings = new ConcurrentHashMap<>();
+        private final Binding mapBinding;
+        private volatile Binding lastBinding;
+
+        private Compiled(String[] columns) {
+            this.columns = columns;
+            this.lowerColumns = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                lowerColumns[i] = columns[i].toLowerCase();
+            }
+            this.mapBinding = bind(null);
+        }
+
+        /**
+         * @return the key columns followed by the compared columns, each once
+         *         ignoring case; the columns a source needs to read for this plan
+         */
+        public String[] projection(CompositeKey.Layout keyLayout) {
+            Set<String> seen = new HashSet<>();
+            List<String> projection = new ArrayList<>();
+            for (String column : keyLayout.columns()) {
+                if (seen.add(column.toLowerCase())) {
+                    projection.add(column);
+                }
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (seen.add(lowerColumns[i])) {
+                    projection.add(columns[i]);
+                }
+            }
+            return projection.toArray(new String[0]);
+        }
+
+        /**
+         * @return true when every compared column matches
+         */
+        public boolean matches(Map<String, Object> csvRecord, Map<String, Object> dbRecord) {
+            Binding binding = bindingFor(dbRecord);
+            for (int i = 0; i < columns.length; i++) {
+                if (!binding.comparators[i].matches(csvRecord.get(columns[i]), binding.value(dbRecord, i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return csv_value/db_value pairs by lowercase column name for the columns that
+         *         differ; an immutable empty map when the records agree
+         */
+        public Map<String, Object> differences(Map<String, Object> csvRecord, Map<String, Object> dbRecord) {
+            Map<String, Object> differences = null;
+            Binding binding = bindingFor(dbRecord);
+
+            for (int i = 0; i < columns.length; i++) {
+                Object csvValue = csvRecord.get(columns[i]);
+                Object dbValue = binding.value(dbRecord, i);
+
+                if (!binding.comparators[i].matches(csvValue, dbValue)) {
+                    Map<String, Object> diff = new HashMap<>();
+                    diff.put("csv_value", csvValue);
+                    diff.put("db_value", dbValue);
+                    if (differences == null) {
+                        differences = new HashMap<>();
+                    }
+                    differences.put(lowerColumns[i], diff);
+                }
+            }
+            return differences == null ? Collections.emptyMap() : differences;
+        }
+
+        private Binding bindingFor(Map<String, Object> dbRecord) {
+            if (!(dbRecord instanceof Row)) {
+                return mapBinding;
+            }
+            Row.Schema schema = ((Row) dbRecord).schema();
+            Binding binding = lastBinding;
+            if (binding == null || binding.schema != schema) {
+                binding = bindings.computeIfAbsent(schema, this::bind);
+                lastBinding = binding;
+            }
+            return binding;
+        }
+
+        private Binding bind(Row.Schema schema) {
+            int[] indexes = new int[columns.length];
+            ColumnComparator[] comparators = new ColumnComparator[columns.length];
+
+            for (int i = 0; i < columns.length; i++) {
+                indexes[i] = schema == null ? -1 : schema.indexOf(columns[i]);
+                ColumnComparator comparator = overrides.get(lowerColumns[i]);
+                if (comparator == null) {
+                    comparator = indexes[i] < 0 ? LENIENT : forType(schema.type(indexes[i]));
+                }
+                comparators[i] = comparator;
+            }
+            return new Binding(schema, indexes, comparators, lowerColumns);
+        }
+    }
+
+    /**
+     * Column positions and comparators of a compiled plan for one database schema
+     */
+    private static final class Binding {
+        private final Row.Schema schema;
+        private final int[] indexes;
+        private final ColumnComparator[] comparators;
+        private final String[] lowerColumns;
+
+        Binding(Row.Schema schema, int[] indexes, ColumnComparator[] comparators, String[] lowerColumns) {
+            this.schema = schema;
+            this.indexes = indexes;
+            this.comparators = comparators;
+            this.lowerColumns = lowerColumns;
+        }
+
+        Object value(Map<String, Object> dbRecord, int column) {
+            return schema == null ? dbRecord.get(lowerColumns[column]) : ((Row) dbRecord).get(indexes[column]);
+        }
+    }
+
+    /**
+     * Per-column overrides; column names are case-insensitive
+     */
+    public static final class Builder {
+        private final Map<String, ColumnComparator> overrides = new HashMap<>();
+        private final Set<String> ignored = new HashSet<>();
+
+        /**
+         * Numeric comparison after rounding both sides half-up to the given scale
+         */
+        public Builder numeric(String column, int scale) {
+            return column(column, new NumericComparator(scale));
+        }
+
+        /**
+         * Date/time comparison parsing the CSV text with the given patterns
+         */
+        public Builder timestamp(String column, String... patterns) {
+            return column(column, new TemporalComparator(patterns));
+        }
+
+        public Builder trimmed(String column) {
+            return column(column, TRIMMED);
+        }
+
+        public Builder ignoreCase(String column) {
+            return column(column, IGNORE_CASE);
+        }
+
+        public Builder exact(String column) {
+            return column(column, EXACT);
+        }
+
+        public Builder ignore(String column) {
+            ignored.add(column.toLowerCase());
+            return this;
+        }
+
+        public Builder column(String column, ColumnComparator comparator) {
+            overrides.put(column.toLowerCase(), comparator);
+            return this;
+        }
+
+        public ComparisonPlan build() {
+            return new ComparisonPlan(new HashMap<>(overrides), new HashSet<>(ignored));
+        }
+    }
+
+    // ---- Comparators ----
+
+    static final ColumnComparator EXACT = Objects::equals;
+
+    static final ColumnComparator STRING = (csv, db) ->
+        csv == null || db == null ? csv == db : csv.toString().equals(db.toString());
+
+    static final ColumnComparator TRIMMED = (csv, db) ->
+        csv == null || db == null ? csv == db : trimmedEquals(csv.toString(), db.toString(), false);
+
+    static final ColumnComparator IGNORE_CASE = (csv, db) ->
+        csv == null || db == null ? csv == db : trimmedEquals(csv.toString(), db.toString(), true);
+
+    static final ColumnComparator NUMERIC = new NumericComparator(-1);
+
+    /**
+     * Single-precision equality: both sides are rounded to the nearest float,
+     * so CSV text matches the REAL value it would be stored as
+     */
+    static final ColumnComparator REAL = (csv, db) -> {
+        if (csv == null || db == null) {
+            return csv == db;
+        }
+        float a = NumericComparator.toFloat(csv);
+        float b = NumericComparator.toFloat(db);
+        if (Float.isNaN(a) || Float.isNaN(b)) {
+            return NUMERIC.matches(csv, db);
+        }
+        return a == b;
+    };
+
+    static final ColumnComparator TEMPORAL = new TemporalComparator(DateFormatConverter.KNOWN_INPUT_PATTERNS);
+
+    static final ColumnComparator BOOLEAN = (csv, db) -> {
+        if (csv == null || db == null) {
+            return csv == db;
+        }
+        int a = booleanValue(csv);
+        int b = booleanValue(db);
+        return a >= 0 && b >= 0 ? a == b : csv.toString().equals(db.toString());
+    };
+
+    /**
+     * Used when the column type is unknown: picks the rule from the database value
+     */
+    static final ColumnComparator LENIENT = (csv, db) -> {
+        if (Objects.equals(csv, db)) {
+            return true;
+        }
+        if (csv == null || db == null) {
+            return false;
+        }
+        if (db instanceof Float) {
+            return REAL.matches(csv, db);
+        }
+        if (db instanceof Number) {
+            return NUMERIC.matches(csv, db);
+        }
+        if (db instanceof java.util.Date || db instanceof java.time.temporal.Temporal) {
+            return TEMPORAL.matches(csv, db);
+        }
+        if (db instanceof Boolean) {
+            return BOOLEAN.matches(csv, db);
+        }
+        return csv.toString().equals(db.toString());
+    };
+
+    static ColumnComparator forType(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return NUMERIC;
+            case Types.REAL:
+                return REAL;
+            case Types.DATE:
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return TEMPORAL;
+            case Types.CHAR:
+            case Types.NCHAR:
+                return TRIMMED;
+            case Types.VARCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.CLOB:
+                return STRING;
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return BOOLEAN;
+            default:
+                return LENIENT;
+        }
+    }
+
+    /**
+     * Numeric equality. Integer database values are checked against the CSV
+     * digits directly; other values go through BigDecimal.
+     */
+    static final class NumericComparator implements ColumnComparator {
+        private final int scale;
+
+        NumericComparator(int scale) {
+            this.scale = scale;
+        }
+
+        @Override
+        public boolean matches(Object csv, Object db) {
+            if (csv == null || db == null) {
+                return csv == db;
+            }
+            if (scale < 0 && csv instanceof CharSequence && isIntegral(db)) {
+                int result = compareLong((CharSequence) csv, ((Number) db).longValue());
+                if (result >= 0) {
+                    return result == 1;
+                }
+            }
+
+            BigDecimal a = toBigDecimal(csv);
+            BigDecimal b = toBigDecimal(db);
+            if (a == null || b == null) {
+                return csv.toString().equals(db.toString());
+            }
+            if (scale >= 0) {
+                return a.setScale(scale, RoundingMode.HALF_UP).compareTo(b.setScale(scale, RoundingMode.HALF_UP)) == 0;
+            }
+            return a.compareTo(b) == 0;
+        }
+
+        private static boolean isIntegral(Object value) {
+            return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+        }
+
+        /**
+         * @return 1 if the text is the integer, 0 if it is another integer, -1 if it is not a plain integer
+         */
+        static int compareLong(CharSequence text, long expected) {
+            int length = text.length();
+            int i = 0;
+            while (i < length && text.charAt(i) == ' ') {
+                i++;
+            }
+            while (length > i && text.charAt(length - 1) == ' ') {
+                length--;
+            }
+            boolean negative = i < length && text.charAt(i) == '-';
+            if (negative || (i < length && text.charAt(i) == '+')) {
+                i++;
+            }
+            if (i == length || length - i > 18) {
+                return -1;
+            }
+
+            long value = 0;
+            for (; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return (negative ? -value : value) == expected ? 1 : 0;
+        }
+
+        /**
+         * @return the value rounded to a float, or NaN if it is not a finite number
+         */
+        static float toFloat(Object value) {
+            if (value instanceof Number && !(value instanceof BigDecimal)) {
+                float f = ((Number) value).floatValue();
+                return Float.isFinite(f) ? f : Float.NaN;
+            }
+            BigDecimal decimal = toBigDecimal(value);
+            if (decimal == null) {
+                return Float.NaN;
+            }
+            float f = decimal.floatValue();
+            return Float.isFinite(f) ? f : Float.NaN;
+        }
+
+        private static BigDecimal toBigDecimal(Object value) {
+            if (value instanceof BigDecimal) {
+                return (BigDecimal) value;
+            }
+            if (value instanceof Float) {
+                // Float.toString keeps the float's shortest decimal form; widening to double does not
+                float f = (Float) value;
+                return Float.isFinite(f) ? new BigDecimal(Float.toString(f)) : null;
+            }
+            if (value instanceof Double) {
+                double d = (Double) value;
+                return Double.isFinite(d) ? BigDecimal.valueOf(d) : null;
+            }
+            if (value instanceof Number) {
+                return BigDecimal.valueOf(((Number) value).longValue());
+            }
+            try {
+                return new BigDecimal(value.toString().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Date/time equality after parsing the CSV text with a list of patterns.
+     * The pattern that matched last is tried first, so a column in one format
+     * is parsed with a single attempt per value.
+     */
+    static final class TemporalComparator implements ColumnComparator {
+        private final DateTimeFormatter[] formatters;
+        private final boolean[] dateOnly;
+        private volatile int lastMatched;
+
+        TemporalComparator(String... patterns) {
+            this.formatters = new DateTimeFormatter[patterns.length];
+            this.dateOnly = new boolean[patterns.length];
+            for (int i = 0; i < patterns.length; i++) {
+                formatters[i] = DateTimeFormatter.ofPattern(patterns[i]);
+                dateOnly[i] = !(patterns[i].contains("H") || patterns[i].contains("m") || patterns[i].contains("s"));
+            }
+        }
+
+        @Override
+        public boolean matches(Object csv, Object db) {
+            if (csv == null || db == null) {
+                return csv == db;
+            }
+            LocalDateTime dbTime = toLocalDateTime(db);
+            LocalDateTime csvTime = toLocalDateTime(csv);
+            if (dbTime == null || csvTime == null) {
+                return csv.toString().equals(db.toString());
+            }
+            return dbTime.equals(csvTime);
+        }
+
+        private LocalDateTime toLocalDateTime(Object value) {
+            if (value instanceof java.sql.Timestamp) {
+                return ((java.sql.Timestamp) value).toLocalDateTime();
+            }
+            if (value instanceof java.sql.Date) {
+                return ((java.sql.Date) value).toLocalDate().atStartOfDay();
+            }
+            if (value instanceof LocalDateTime) {
+                return (LocalDateTime) value;
+            }
+            if (value instanceof LocalDate) {
+                return ((LocalDate) value).atStartOfDay();
+            }
+            if (value instanceof OffsetDateTime) {
+                return ((OffsetDateTime) value).toLocalDateTime();
+            }
+            if (value instanceof ZonedDateTime) {
+                return ((ZonedDateTime) value).toLocalDateTime();
+            }
+            return value instanceof CharSequence ? parse(value.toString().trim()) : null;
+        }
+
+        private LocalDateTime parse(String text) {
+            int first = lastMatched;
+            LocalDateTime parsed = tryParse(text, first);
+            if (parsed != null) {
+                return parsed;
+            }
+            for (int i = 0; i < formatters.length; i++) {
+                if (i != first && (parsed = tryParse(text, i)) != null) {
+                    lastMatched = i;
+                    return parsed;
+                }
+            }
+            return null;
+        }
+
+        private LocalDateTime tryParse(String text, int index) {
+            // parseUnresolved reports failure through the position instead of an exception
+            ParsePosition position = new ParsePosition(0);
+            if (formatters[index].parseUnresolved(text, position) == null
+                    || position.getErrorIndex() >= 0 || position.getIndex() != text.length()) {
+                return null;
+            }
+            try {
+                return dateOnly[index]
+                    ? LocalDate.parse(text, formatters[index]).atStartOfDay()
+                    : LocalDateTime.parse(text, formatters[index]);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Compare two strings ignoring surrounding whitespace, without trimming copies
+     */
+    static boolean trimmedEquals(String a, String b, boolean ignoreCase) {
+        int aStart = 0;
+        int aEnd = a.length();
+        while (aStart < aEnd && Character.isWhitespace(a.charAt(aStart))) {
+            aStart++;
+        }
+        while (aEnd > aStart && Character.isWhitespace(a.charAt(aEnd - 1))) {
+            aEnd--;
+        }
+        int bStart = 0;
+        int bEnd = b.length();
+        while (bStart < bEnd && Character.isWhitespace(b.charAt(bStart))) {
+            bStart++;
+        }
+        while (bEnd > bStart && Character.isWhitespace(b.charAt(bEnd - 1))) {
+            bEnd--;
+        }
+        return aEnd - aStart == bEnd - bStart && a.regionMatches(ignoreCase, aStart, b, bStart, aEnd - aStart);
+    }
+
+    /**
+     * @return 1 for true, 0 for false, -1 if the value is not a recognised boolean
+     */
+    private static int booleanValue(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        if (value instanceof Number) {
+            long n = ((Number) value).longValue();
+            return n == 1 ? 1 : n == 0 ? 0 : -1;
+        }
+        String text = value.toString().trim();
+        if (text.equalsIgnoreCase("true") || text.equals("1") || text.equalsIgnoreCase("y") || text.equalsIgnoreCase("yes")) {
+            return 1;
+        }
+        if (text.equalsIgnoreCase("false") || text.equals("0") || text.equalsIgnoreCase("n") || text.equalsIgnoreCase("no")) {
+            return 0;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,460 @@
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Primary key value of a record, used in place of "||"-joined key strings.
+ *
+ * Key parts are normalized once: integral numbers and canonical integer
+ * strings become a long, every other value its string form. Two keys are
+ * therefore equal exactly when their parts print the same, whether the
+ * value came from CSV text or a typed JDBC column. Single-column keys use
+ * the specialized {@link LongKey} and {@link StringKey}; all keys cache
+ * their hash code.
+ *
+ * The natural order puts integer parts before string parts. Code that has
+ * to agree with the database's ORDER BY or range predicates should use
+ * {@link Layout#comparator()} instead, which orders each part by its
+ * column type.
+ */
+public abstract class CompositeKey implements Comparable<CompositeKey> {
+
+    private final int hash;
+
+    CompositeKey(int hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * @return number of key columns
+     */
+    public abstract int size();
+
+    /**
+     * @return normalized part: a Long, a String, or null
+     */
+    public abstract Object part(int index);
+
+    @Override
+    public final int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int compareTo(CompositeKey other) {
+        int length = Math.min(size(), other.size());
+        for (int i = 0; i < length; i++) {
+            int cmp = compareValues(part(i), other.part(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(size(), other.size());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size(); i++) {
+            if (i > 0) {
+                sb.append("||");
+            }
+            sb.append(part(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Single integer key, kept as a primitive
+     */
+    public static final class LongKey extends CompositeKey {
+        private final long value;
+
+        LongKey(long value) {
+            super(Long.hashCode(value));
+            this.value = value;
+        }
+
+        public long value() {
+            return value;
+        }
+
+        @Override
+        public int size() {
+            return 1;
+        }
+
+        @Override
+        public Object part(int index) {
+            return value;
+        }
+
+        @Override
+        public int compareTo(CompositeKey other) {
+            if (other instanceof LongKey) {
+                return Long.compare(value, ((LongKey) other).value);
+            }
+            return super.compareTo(other);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LongKey && ((LongKey) o).value == value;
+        }
+    }
+
+    /**
+     * Single non-integer key
+     */
+    public static final class StringKey extends CompositeKey {
+        private final String value;
+
+        StringKey(String value) {
+            super(Objects.hashCode(value));
+            this.value = value;
+        }
+
+        public String value() {
+            return value;
+        }
+
+        @Override
+        public int size() {
+            return 1;
+        }
+
+        @Override
+        public Object part(int index) {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StringKey && Objects.equals(((StringKey) o).value, value);
+        }
+    }
+
+    /**
+     * Key over two or more columns
+     */
+    public static final class MultiKey extends CompositeKey {
+        private final Object[] parts;
+
+        MultiKey(Object[] parts) {
+            super(Arrays.hashCode(parts));
+            this.parts = parts;
+        }
+
+        @Override
+        public int size() {
+            return parts.length;
+        }
+
+        @Override
+        public Object part(int index) {
+            return parts[index];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MultiKey && o.hashCode() == hashCode() && Arrays.equals(((MultiKey) o).parts, parts);
+        }
+    }
+
+    /**
+     * Key columns of a table, with their JDBC types when known. Builds keys from
+     * records and binds them to statements.
+     */
+    public static final class Layout {
+        private final String[] columns;
+        private final String[] names;
+        private final int[] sqlTypes;
+        private final Comparator<CompositeKey> comparator;
+
+        private Layout(String[] columns, int[] sqlTypes) {
+            this.columns = columns.clone();
+            this.sqlTypes = sqlTypes;
+            this.names = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                names[i] = columns[i].toLowerCase();
+            }
+            this.comparator = this::compare;
+        }
+
+        /**
+         * Layout without type information; parts are bound with setObject
+         */
+        public static Layout of(String... primaryKeys) {
+            int[] sqlTypes = new int[primaryKeys.length];
+            Arrays.fill(sqlTypes, Types.OTHER);
+            return new Layout(primaryKeys, sqlTypes);
+        }
+
+        /**
+         * Layout with the key column types read from the table's metadata
+         */
+        public static Layout resolve(Connection connection, String tableName, String... primaryKeys) throws SQLException {
+            String sql = "SELECT " + String.join(", ", primaryKeys) + " FROM " + tableName + " WHERE 1 = 0";
+
+            try (PreparedStatement stmt = connection.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                int[] sqlTypes = new int[primaryKeys.length];
+                for (int i = 0; i < primaryKeys.length; i++) {
+                    sqlTypes[i] = metaData.getColumnType(i + 1);
+                }
+                return new Layout(primaryKeys, sqlTypes);
+            }
+        }
+
+        public String[] columns() {
+            return columns.clone();
+        }
+
+        public int size() {
+            return columns.length;
+        }
+
+        /**
+         * @return JDBC type of a key column, Types.OTHER when not resolved
+         */
+        int sqlType(int index) {
+            return sqlTypes[index];
+        }
+
+        /**
+         * Order of keys as the database sorts them: numeric columns by value,
+         * character columns by String.compareTo (a binary collation), other
+         * columns in the natural key order. Without type information this is
+         * the natural order.
+         */
+        public Comparator<CompositeKey> comparator() {
+            return comparator;
+        }
+
+        private int compare(CompositeKey a, CompositeKey b) {
+            if (a instanceof LongKey && b instanceof LongKey && !isCharacterType(sqlTypes[0])) {
+                return Long.compare(((LongKey) a).value(), ((LongKey) b).value());
+            }
+            int length = Math.min(a.size(), b.size());
+            for (int i = 0; i < length; i++) {
+                int cmp = compareValues(a.part(i), b.part(i), i < sqlTypes.length ? sqlTypes[i] : Types.OTHER);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return Integer.compare(a.size(), b.size());
+        }
+
+        /**
+         * Build the key of a record whose column names are lowercase
+         */
+        public CompositeKey keyOf(Map<String, Object> record) {
+            if (names.length == 1) {
+                return single(record.get(names[0]));
+            }
+
+            Object[] parts = new Object[names.length];
+            for (int i = 0; i < names.length; i++) {
+                parts[i] = normalize(record.get(names[i]));
+            }
+            return new MultiKey(parts);
+        }
+
+        /**
+         * Build the key from the current row of a result set whose first
+         * columns are the key columns, selected in layout order
+         */
+        public CompositeKey keyOf(ResultSet rs) throws SQLException {
+            if (columns.length == 1) {
+                if (isIntegerType(sqlTypes[0])) {
+                    long value = rs.getLong(1);
+                    return rs.wasNull() ? single(null) : new LongKey(value);
+                }
+                return single(rs.getObject(1));
+            }
+
+            Object[] parts = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                parts[i] = normalize(rs.getObject(i + 1));
+            }
+            return new MultiKey(parts);
+        }
+
+        /**
+         * Bind the key parts starting at the given parameter index
+         * @return the next free parameter index
+         */
+        public int bind(PreparedStatement stmt, int index, CompositeKey key) throws SQLException {
+            if (key instanceof LongKey && isIntegerType(sqlTypes[0])) {
+                stmt.setLong(index, ((LongKey) key).value());
+                return index + 1;
+            }
+
+            for (int i = 0; i < sqlTypes.length; i++) {
+                Object part = key.part(i);
+                int sqlType = sqlTypes[i];
+
+                if (part == null) {
+                    stmt.setNull(index, sqlType == Types.OTHER ? Types.VARCHAR : sqlType);
+                } else if (part instanceof Long && isIntegerType(sqlType)) {
+                    stmt.setLong(index, (Long) part);
+                } else if (isCharacterType(sqlType)) {
+                    stmt.setString(index, part.toString());
+                } else if (sqlType == Types.OTHER) {
+                    stmt.setObject(index, part);
+                } else {
+                    stmt.setObject(index, part, sqlType);
+                }
+                index++;
+            }
+            return index;
+        }
+    }
+
+    private static CompositeKey single(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return new LongKey(((Number) value).longValue());
+        }
+        if (value == null) {
+            return new StringKey(null);
+        }
+
+        String text = value.toString();
+        return isCanonicalLong(text) ? new LongKey(Long.parseLong(text)) : new StringKey(text);
+    }
+
+    /**
+     * Normalize a key value to a Long or its string form
+     */
+    static Object normalize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Long) {
+            return value;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+
+        String text = value.toString();
+        return isCanonicalLong(text) ? (Object) Long.parseLong(text) : text;
+    }
+
+    /**
+     * Whether the text is exactly what Long.toString would print for some long
+     */
+    static boolean isCanonicalLong(String text) {
+        int length = text.length();
+        int start = length > 1 && text.charAt(0) == '-' ? 1 : 0;
+        int digits = length - start;
+        if (digits == 0 || digits > 19) {
+            return false;
+        }
+        if (text.charAt(start) == '0') {
+            return length == 1;
+        }
+        for (int i = start; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        if (digits < 19) {
+            return true;
+        }
+        try {
+            Long.parseLong(text);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Natural order of normalized parts: nulls first, then integers by value,
+     * then strings by String.compareTo. Values compare equal exactly when
+     * their string forms are equal.
+     */
+    static int compareValues(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b ? 0 : a == null ? -1 : 1;
+        }
+        boolean leftLong = a instanceof Long;
+        boolean rightLong = b instanceof Long;
+        if (leftLong && rightLong) {
+            return Long.compare((Long) a, (Long) b);
+        }
+        if (leftLong != rightLong) {
+            return leftLong ? -1 : 1;
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    /**
+     * Order of normalized parts of a column of the given JDBC type; nulls first.
+     * Character columns compare the string forms. Numeric columns compare by
+     * value, ties broken by the string form so "1.5" and "1.50" stay distinct
+     * like they are for equals; text that is not a number sorts after all
+     * numbers. Other types use the natural order.
+     */
+    static int compareValues(Object a, Object b, int sqlType) {
+        if (a == null || b == null) {
+            return a == b ? 0 : a == null ? -1 : 1;
+        }
+        if (isCharacterType(sqlType)) {
+            return a.toString().compareTo(b.toString());
+        }
+        if (!isNumericType(sqlType)) {
+            return compareValues(a, b);
+        }
+        if (a instanceof Long && b instanceof Long) {
+            return Long.compare((Long) a, (Long) b);
+        }
+
+        String left = a.toString();
+        String right = b.toString();
+        BigDecimal leftNumber = toDecimal(left);
+        BigDecimal rightNumber = toDecimal(right);
+        if (leftNumber != null && rightNumber != null) {
+            int cmp = leftNumber.compareTo(rightNumber);
+            if (cmp != 0) {
+                return cmp;
+            }
+        } else if (leftNumber != null || rightNumber != null) {
+            return leftNumber != null ? -1 : 1;
+        }
+        return left.compareTo(right);
+    }
+
+    private static BigDecimal toDecimal(String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        char first = value.charAt(0);
+        if (!(first >= '0' && first <= '9') && first != '-' && first != '+' && first != '.') {
+            return null;
+        }
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static boolean isIntegerType(int sqlType) {
+        return sqlType == Types.BIGINT || sqlType == Types.INTEGER
+                || sqlType == Types.SMALLINT || sqlType == Types.TINYINT;
+    }
+
+    static boolean isNumericType(int sqlType) {
+        return isIntegerType(sqlType) || sqlType == Types.DECIMAL || sqlType == Types.NUMERIC
+                || sqlType == Types.REAL || sqlType == Types.FLOAT || sqlType == Types.DOUBLE;
+    }
+
+    static boolean isCharacterType(int sqlType) {
+        return sqlType == Types.VARCHAR || sqlType == Types.CHAR || sqlType == Types.LONGVARCHAR
+                || sqlType == Types.NVARCHAR || sqlType == Types.NCHAR || sqlType == Types.LONGNVARCHAR;
+    }
+}
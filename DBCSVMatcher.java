@@ -1,10 +1,13 @@
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class DatabaseCSVMatcher {
     
-    public static class MatchResult {
+    /**
+     * Keeps every outcome in memory. Use a {@link MatchSink} overload for large runs.
+     */
+    public static class MatchResult implements MatchSink {
         private List<Map<String, Object>> matched = new ArrayList<>();
         private List<Map<String, Object>> unmatched = new ArrayList<>();
         private List<Map<String, Object>> dbOnly = new ArrayList<>();
@@ -17,6 +20,31 @@ public class DatabaseCSVMatcher {
         public void addMatched(Map<String, Object> record) { matched.add(record); }
         public void addUnmatched(Map<String, Object> record) { unmatched.add(record); }
         public void addDbOnly(Map<String, Object> record) { dbOnly.add(record); }
+        
+        public void addAll(MatchResult other) {
+            matched.addAll(other.matched);
+            unmatched.addAll(other.unmatched);
+            dbOnly.addAll(other.dbOnly);
+        }
+        
+        @Override
+        public void matched(Map<String, Object> csvRecord, Map<String, Object> dbRecord, 
+                            Map<String, Object> differences) {
+            Map<String, Object> matchedRecord = new HashMap<>();
+            matchedRecord.put("csv_record", csvRecord);
+            if (dbRecord != null) {
+                matchedRecord.put("db_record", dbRecord);
+            }
+            matchedRecord.put("matches", differences.isEmpty());
+            matchedRecord.put("differences", differences);
+            addMatched(matchedRecord);
+        }
+        
+        @Override
+        public void unmatched(Map<String, Object> csvRecord) { addUnmatched(csvRecord); }
+        
+        @Override
+        public void dbOnly(Map<String, Object> dbRecord) { addDbOnly(dbRecord); }
     }
     
     /**
@@ -31,99 +59,500 @@ public class DatabaseCSVMatcher {
                                            Connection connection, 
                                            String tableName, 
                                            String... primaryKeys) throws SQLException {
-        
+        return compareRecords(csvRecords, connection, tableName, ComparisonPlan.DEFAULT, primaryKeys);
+    }
+    
+    /**
+     * Compare CSV records with database records using per-column rules
+     * @param csvRecords List of CSV records as Map; the first record's columns are compared
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param plan Column comparison rules
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
+     */
+    public static MatchResult compareRecords(List<Map<String, Object>> csvRecords, 
+                                           Connection connection, 
+                                           String tableName, 
+                                           ComparisonPlan plan, 
+                                           String... primaryKeys) throws SQLException {
         MatchResult result = new MatchResult();
+        compareRecords(csvRecords, connection, tableName, plan, result, primaryKeys);
+        return result;
+    }
+    
+    /**
+     * Compare CSV records with database records, reporting each outcome to the sink
+     * @param csvRecords List of CSV records as Map; the first record's columns are compared
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param plan Column comparison rules
+     * @param sink Receives matched, unmatched, and db-only records
+     * @param primaryKeys Array of primary key column names
+     */
+    public static void compareRecords(List<Map<String, Object>> csvRecords, 
+                                      Connection connection, 
+                                      String tableName, 
+                                      ComparisonPlan plan, 
+                                      MatchSink sink, 
+                                      String... primaryKeys) throws SQLException {
         
         if (csvRecords.isEmpty()) {
-            return result;
+            return;
         }
         
+        ComparisonPlan.Compiled comparison = plan.compile(RowDigest.columnsOf(csvRecords.get(0)));
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.of(primaryKeys);
+        
         // Step 1: Get all DB records
-        Map<String, Map<String, Object>> dbRecordsMap = fetchDatabaseRecords(
-            connection, tableName, primaryKeys);
+        Map<CompositeKey, Map<String, Object>> dbRecordsMap = fetchDatabaseRecords(
+            connection, tableName, keyLayout);
+        
+        try (ReconciliationMetrics.Timer compare = ReconciliationMetrics.start(
+                ReconciliationMetrics.Phase.COMPARE, tableName)) {
+            matchRecords(csvRecords, dbRecordsMap, comparison, keyLayout, compare.assembling(sink));
+            compare.rows(csvRecords.size());
+        }
+    }
+    
+    /**
+     * Compare CSV records with the records of any source, such as an exported Parquet file
+     * @param csvRecords List of CSV records as Map
+     * @param source Database side of the comparison
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
+     */
+    public static MatchResult compareRecords(List<Map<String, Object>> csvRecords, 
+                                           RecordSource source, 
+                                           String... primaryKeys) throws SQLException, IOException {
+        MatchResult result = new MatchResult();
+        compareRecords(csvRecords, source, ComparisonPlan.DEFAULT, result, primaryKeys);
+        return result;
+    }
+    
+    /**
+     * Compare CSV records with the records of any source, reporting each outcome to the sink
+     * @param csvRecords List of CSV records as Map; the first record's columns are compared
+     * @param source Database side of the comparison; read once, projected to the
+     *               key and compared columns, so DB-only records carry just those
+     * @param plan Column comparison rules
+     * @param sink Receives matched, unmatched, and db-only records
+     * @param primaryKeys Array of primary key column names
+     */
+    public static void compareRecords(List<Map<String, Object>> csvRecords, 
+                                      RecordSource source, 
+                                      ComparisonPlan plan, 
+                                      MatchSink sink, 
+                                      String... primaryKeys) throws SQLException, IOException {
+        
+        if (csvRecords.isEmpty()) {
+            return;
+        }
+        
+        ComparisonPlan.Compiled comparison = plan.compile(RowDigest.columnsOf(csvRecords.get(0)));
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.of(primaryKeys);
+        
+        Map<CompositeKey, Map<String, Object>> dbRecordsMap = new HashMap<>();
+        try (ReconciliationMetrics.Timer fetch = ReconciliationMetrics.start(
+                ReconciliationMetrics.Phase.FETCH, null)) {
+            source.scan(comparison.projection(keyLayout), record -> {
+                fetch.row(record);
+                dbRecordsMap.put(keyLayout.keyOf(record), record);
+            });
+        }
+        
+        try (ReconciliationMetrics.Timer compare = ReconciliationMetrics.start(
+                ReconciliationMetrics.Phase.COMPARE, null)) {
+            matchRecords(csvRecords, dbRecordsMap, comparison, keyLayout, compare.assembling(sink));
+            compare.rows(csvRecords.size());
+        }
+    }
+    
+    /**
+     * Probe the DB records with each CSV record; whatever is left over is DB-only
+     */
+    private static void matchRecords(List<Map<String, Object>> csvRecords, 
+                                     Map<CompositeKey, Map<String, Object>> dbRecordsMap, 
+                                     ComparisonPlan.Compiled comparison, 
+                                     CompositeKey.Layout keyLayout, 
+                                     MatchSink sink) {
         
         // Step 2: Compare CSV records with DB records
         for (Map<String, Object> csvRecord : csvRecords) {
-            String compositeKey = createCompositeKey(csvRecord, primaryKeys);
+            CompositeKey compositeKey = keyLayout.keyOf(csvRecord);
+            Map<String, Object> dbRecord = dbRecordsMap.remove(compositeKey); // Remove matched record
             
-            if (dbRecordsMap.containsKey(compositeKey)) {
-                Map<String, Object> dbRecord = dbRecordsMap.get(compositeKey);
-                
-                // Add both CSV and DB record for comparison
-                Map<String, Object> matchedRecord = new HashMap<>();
-                matchedRecord.put("csv_record", csvRecord);
-                matchedRecord.put("db_record", dbRecord);
-                matchedRecord.put("matches", recordsMatch(csvRecord, dbRecord));
-                
-                result.addMatched(matchedRecord);
-                dbRecordsMap.remove(compositeKey); // Remove matched record
+            if (dbRecord != null) {
+                // Report both CSV and DB record with their differences
+                sink.matched(csvRecord, dbRecord, comparison.differences(csvRecord, dbRecord));
             } else {
-                result.addUnmatched(csvRecord);
+                sink.unmatched(csvRecord);
             }
         }
         
         // Step 3: Remaining DB records are not in CSV
-        dbRecordsMap.values().forEach(result::addDbOnly);
+        dbRecordsMap.values().forEach(sink::dbOnly);
+    }
+    
+    /**
+     * Compare CSV records with database records using a streaming sort-merge.
+     * The CSV side is sorted by primary key and the DB side is read with
+     * ORDER BY through a forward-only cursor, so DB rows are never held in
+     * memory. Produces the same matched/unmatched/dbOnly contents as
+     * {@link #compareRecords}, in primary key order.
+     * @param csvRecords List of CSV records as Map
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
+     */
+    public static MatchResult compareRecordsSortMerge(List<Map<String, Object>> csvRecords, 
+                                                    Connection connection, 
+                                                    String tableName, 
+                                                    String... primaryKeys) throws SQLException {
+        
+        if (csvRecords.isEmpty()) {
+            return new MatchResult();
+        }
         
+        // Stable sort keeps the first CSV record of a duplicate key first, like the hash path
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.resolve(connection, tableName, primaryKeys);
+        List<Map.Entry<CompositeKey, Map<String, Object>>> sortedCsv = new ArrayList<>(csvRecords.size());
+        for (Map<String, Object> csvRecord : csvRecords) {
+            sortedCsv.add(new AbstractMap.SimpleImmutableEntry<>(keyLayout.keyOf(csvRecord), csvRecord));
+        }
+        sortedCsv.sort(Map.Entry.comparingByKey(keyLayout.comparator()));
+        
+        Iterator<Map.Entry<CompositeKey, Map<String, Object>>> entries = sortedCsv.iterator();
+        Iterator<Map<String, Object>> records = new Iterator<Map<String, Object>>() {
+            @Override
+            public boolean hasNext() { return entries.hasNext(); }
+            
+            @Override
+            public Map<String, Object> next() { return entries.next().getValue(); }
+        };
+        MatchResult result = new MatchResult();
+        mergeSorted(records, connection, tableName, ComparisonPlan.DEFAULT, result, keyLayout);
         return result;
     }
     
     /**
-     * Fetch all records from database and create a map with composite keys
+     * Sort-merge CSV records that may not fit in memory. The CSV side is sorted
+     * with {@link ExternalCsvSorter}, spilling runs to the given directory.
+     * @param csvRecords CSV records in any order
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param spillDirectory Directory for temporary sort runs
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
      */
-    private static Map<String, Map<String, Object>> fetchDatabaseRecords(
-            Connection connection, String tableName, String[] primaryKeys) throws SQLException {
+    public static MatchResult compareRecordsExternalSort(Iterator<Map<String, Object>> csvRecords, 
+                                                       Connection connection, 
+                                                       String tableName, 
+                                                       java.nio.file.Path spillDirectory, 
+                                                       String... primaryKeys) throws SQLException, java.io.IOException {
         
-        Map<String, Map<String, Object>> dbRecords = new HashMap<>();
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.resolve(connection, tableName, primaryKeys);
+        ExternalCsvSorter sorter = new ExternalCsvSorter(
+            ExternalCsvSorter.DEFAULT_RUN_SIZE, spillDirectory, keyLayout);
         
-        String sql = "SELECT * FROM " + tableName;
+        try (ExternalCsvSorter.SortedRecords sorted = sorter.sort(csvRecords)) {
+            MatchResult result = new MatchResult();
+            mergeSorted(sorted, connection, tableName, ComparisonPlan.DEFAULT, result, keyLayout);
+            return result;
+        }
+    }
+
+    /**
+     * Stream a CSV file through {@link MappedCsvReader} and sort-merge it against the table,
+     * so the file never has to be held in memory as a list.
+     * @param csvFile CSV file with a header line
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param spillDirectory Directory for temporary sort runs
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
+     */
+    public static MatchResult compareCsvFile(java.nio.file.Path csvFile,
+                                           Connection connection,
+                                           String tableName,
+                                           java.nio.file.Path spillDirectory,
+                                           String... primaryKeys) throws SQLException, java.io.IOException {
+
+        try (MappedCsvReader reader = new MappedCsvReader(csvFile)) {
+            return compareRecordsExternalSort(reader.iterator(), connection, tableName, spillDirectory, primaryKeys);
+        }
+    }
+
+    /**
+     * Stream a CSV file against the table, reporting each outcome to the sink.
+     * Memory use is bounded by the sort run size plus whatever the sink keeps.
+     * @param csvFile CSV file with a header line
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param spillDirectory Directory for temporary sort runs
+     * @param plan Column comparison rules
+     * @param sink Receives matched, unmatched, and db-only records
+     * @param primaryKeys Array of primary key column names
+     */
+    public static void compareCsvFile(java.nio.file.Path csvFile,
+                                      Connection connection,
+                                      String tableName,
+                                      java.nio.file.Path spillDirectory,
+                                      ComparisonPlan plan,
+                                      MatchSink sink,
+                                      String... primaryKeys) throws SQLException, java.io.IOException {
+        compareCsvFile(csvFile, connection, tableName, spillDirectory, ExternalCsvSorter.DEFAULT_RUN_SIZE,
+            plan, sink, primaryKeys);
+    }
+
+    /**
+     * Stream a CSV file against the table with an explicit sort run size
+     * @param maxRecordsPerRun CSV records held in memory before a sorted run is spilled
+     */
+    public static void compareCsvFile(java.nio.file.Path csvFile,
+                                      Connection connection,
+                                      String tableName,
+                                      java.nio.file.Path spillDirectory,
+                                      int maxRecordsPerRun,
+                                      ComparisonPlan plan,
+                                      MatchSink sink,
+                                      String... primaryKeys) throws SQLException, java.io.IOException {
+
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.resolve(connection, tableName, primaryKeys);
+        ExternalCsvSorter sorter = new ExternalCsvSorter(maxRecordsPerRun, spillDirectory, keyLayout);
+
+        try (MappedCsvReader reader = new MappedCsvReader(csvFile);
+             ExternalCsvSorter.SortedRecords sorted = sorter.sort(reader.iterator())) {
+            mergeSorted(sorted, connection, tableName, plan, sink, keyLayout);
+        }
+    }
+
+    /**
+     * Sort-merge CSV records that are already ordered by primary key against the table.
+     * The order is the one the database uses for ORDER BY, see {@link CompositeKey.Layout#comparator()}:
+     * numeric key columns by value, character key columns by string.
+     * @param sortedCsvRecords CSV records in primary key order
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
+     */
+    public static MatchResult compareSortedRecords(Iterator<Map<String, Object>> sortedCsvRecords, 
+                                                 Connection connection, 
+                                                 String tableName, 
+                                                 String... primaryKeys) throws SQLException {
+        return compareSortedRecords(sortedCsvRecords, connection, tableName, ComparisonPlan.DEFAULT, primaryKeys);
+    }
+    
+    /**
+     * Sort-merge sorted CSV records against the table using per-column rules.
+     * The plan is compiled for the columns of the first CSV record.
+     */
+    public static MatchResult compareSortedRecords(Iterator<Map<String, Object>> sortedCsvRecords, 
+                                                 Connection connection, 
+                                                 String tableName, 
+                                                 ComparisonPlan plan, 
+                                                 String... primaryKeys) throws SQLException {
+        MatchResult result = new MatchResult();
+        compareSortedRecords(sortedCsvRecords, connection, tableName, plan, result, primaryKeys);
+        return result;
+    }
+    
+    /**
+     * Sort-merge sorted CSV records against the table, reporting each outcome to the sink
+     * as soon as it is known. Nothing but the current CSV and DB rows is kept in memory.
+     */
+    public static void compareSortedRecords(Iterator<Map<String, Object>> sortedCsvRecords, 
+                                            Connection connection, 
+                                            String tableName, 
+                                            ComparisonPlan plan, 
+                                            MatchSink sink, 
+                                            String... primaryKeys) throws SQLException {
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql);
-             ResultSet rs = stmt.executeQuery()) {
+        if (!sortedCsvRecords.hasNext()) {
+            return;
+        }
+        mergeSorted(sortedCsvRecords, connection, tableName, plan, sink,
+            CompositeKey.Layout.resolve(connection, tableName, primaryKeys));
+    }
+    
+    private static void mergeSorted(Iterator<Map<String, Object>> sortedCsvRecords, 
+                                    Connection connection, 
+                                    String tableName, 
+                                    ComparisonPlan plan, 
+                                    MatchSink sink, 
+                                    CompositeKey.Layout keyLayout) throws SQLException {
+        
+        if (!sortedCsvRecords.hasNext()) {
+            return;
+        }
+        
+        String[] primaryKeys = keyLayout.columns();
+        Comparator<CompositeKey> keyOrder = keyLayout.comparator();
+        String sql = "SELECT * FROM " + tableName + " ORDER BY " + String.join(", ", primaryKeys);
+        
+        try (PreparedStatement stmt = connection.prepareStatement(
+                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
             
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
+            stmt.setFetchSize(SORT_MERGE_FETCH_SIZE);
             
-            while (rs.next()) {
-                Map<String, Object> record = new HashMap<>();
+            try (ResultSet rs = ReconciliationMetrics.executePrepared(stmt, sql)) {
+                SortedCursor dbCursor = new SortedCursor(rs, tableName, keyLayout);
+                Map<String, Object> dbRecord = dbCursor.next();
+                Map<String, Object> csvRecord = sortedCsvRecords.next();
+                ComparisonPlan.Compiled comparison = plan.compile(RowDigest.columnsOf(csvRecord));
+                CompositeKey previousCsvKey = null;
                 
-                // Get all columns
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = metaData.getColumnName(i);
-                    Object value = rs.getObject(i);
-                    record.put(columnName.toLowerCase(), value);
+                while (csvRecord != null) {
+                    CompositeKey csvKey = keyLayout.keyOf(csvRecord);
+                    if (previousCsvKey != null && keyOrder.compare(previousCsvKey, csvKey) > 0) {
+                        throw new IllegalArgumentException("CSV records are not ordered by " 
+                                + String.join(", ", primaryKeys));
+                    }
+                    
+                    int cmp = dbRecord == null ? -1 : keyOrder.compare(csvKey, dbCursor.currentKey());
+                    
+                    if (cmp > 0) {
+                        // DB key is behind the CSV side, so it has no CSV counterpart
+                        sink.dbOnly(dbRecord);
+                        dbRecord = dbCursor.next();
+                        continue;
+                    }
+                    
+                    if (cmp == 0) {
+                        sink.matched(csvRecord, dbRecord, comparison.differences(csvRecord, dbRecord));
+                        dbRecord = dbCursor.next(); // Later CSV duplicates of this key stay unmatched
+                    } else {
+                        sink.unmatched(csvRecord);
+                    }
+                    
+                    previousCsvKey = csvKey;
+                    csvRecord = sortedCsvRecords.hasNext() ? sortedCsvRecords.next() : null;
                 }
                 
-                String compositeKey = createCompositeKey(record, primaryKeys);
-                dbRecords.put(compositeKey, record);
+                // Remaining DB records are not in CSV
+                while (dbRecord != null) {
+                    sink.dbOnly(dbRecord);
+                    dbRecord = dbCursor.next();
+                }
             }
         }
+    }
+    
+    private static final int SORT_MERGE_FETCH_SIZE = 10_000;
+    
+    /**
+     * Forward-only reader over an ordered ResultSet that yields one record per key.
+     * Like the hash path, the last row wins when the table has duplicate keys.
+     */
+    private static class SortedCursor {
+        private final ResultSet rs;
+        private final String tableName;
+        private final CompositeKey.Layout keyLayout;
+        private final Row.Schema schema;
+        private Map<String, Object> lookahead;
+        private CompositeKey lookaheadKey;
+        private CompositeKey currentKey;
+        
+        SortedCursor(ResultSet rs, String tableName, CompositeKey.Layout keyLayout) throws SQLException {
+            this.rs = rs;
+            this.tableName = tableName;
+            this.keyLayout = keyLayout;
+            
+            schema = Row.Schema.of(rs.getMetaData());
+            lookahead = readRow();
+        }
         
-        return dbRecords;
+        Map<String, Object> next() throws SQLException {
+            Map<String, Object> record = lookahead;
+            if (record == null) {
+                return null;
+            }
+            CompositeKey key = lookaheadKey;
+            
+            lookahead = readRow();
+            while (lookahead != null && key.equals(lookaheadKey)) {
+                record = lookahead;
+                lookahead = readRow();
+            }
+            
+            if (currentKey != null && keyLayout.comparator().compare(currentKey, key) > 0) {
+                throw new SQLException("Rows from " + tableName + " are not in primary key order; "
+                        + "the column collation must match Java string ordering for sort-merge");
+            }
+            currentKey = key;
+            return record;
+        }
+        
+        /**
+         * @return key of the record last returned by {@link #next()}
+         */
+        CompositeKey currentKey() {
+            return currentKey;
+        }
+        
+        private Map<String, Object> readRow() throws SQLException {
+            if (!rs.next()) {
+                lookaheadKey = null;
+                return null;
+            }
+            Row record = Row.read(rs, schema);
+            lookaheadKey = keyLayout.keyOf(record);
+            return record;
+        }
     }
     
     /**
-     * Create composite key from primary key values
+     * Fetch all records from database and create a map with composite keys
      */
-    private static String createCompositeKey(Map<String, Object> record, String[] primaryKeys) {
-        return Arrays.stream(primaryKeys)
-                .map(key -> String.valueOf(record.get(key.toLowerCase())))
-                .collect(Collectors.joining("||"));
+    private static Map<CompositeKey, Map<String, Object>> fetchDatabaseRecords(
+            Connection connection, String tableName, CompositeKey.Layout keyLayout) throws SQLException {
+        return fetchDatabaseRecords(connection, tableName, null, Collections.emptyList(), keyLayout);
     }
     
     /**
-     * Check if two records match (excluding primary keys)
+     * Fetch the records matching an optional WHERE clause and create a map with composite keys
      */
-    private static boolean recordsMatch(Map<String, Object> csvRecord, Map<String, Object> dbRecord) {
-        for (Map.Entry<String, Object> entry : csvRecord.entrySet()) {
-            String key = entry.getKey().toLowerCase();
-            Object csvValue = entry.getValue();
-            Object dbValue = dbRecord.get(key);
+    static Map<CompositeKey, Map<String, Object>> fetchDatabaseRecords(
+            Connection connection, String tableName, String whereClause, List<Object> parameters, 
+            CompositeKey.Layout keyLayout) throws SQLException {
+        
+        Map<CompositeKey, Map<String, Object>> dbRecords = new HashMap<>();
+        
+        String sql = "SELECT * FROM " + tableName;
+        if (whereClause != null) {
+            sql += " WHERE " + whereClause;
+        }
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                stmt.setObject(i + 1, parameters.get(i));
+            }
+            readRecords(stmt, sql, tableName, keyLayout, dbRecords);
+        }
+        
+        return dbRecords;
+    }
+    
+    private static void readRecords(PreparedStatement stmt, String sql, String tableName, 
+                                    CompositeKey.Layout keyLayout, 
+                                    Map<CompositeKey, Map<String, Object>> dbRecords) throws SQLException {
+        
+        try (ResultSet rs = ReconciliationMetrics.executePrepared(stmt, sql)) {
             
-            if (!Objects.equals(csvValue, dbValue)) {
-                return false;
+            try (ReconciliationMetrics.Timer fetch = ReconciliationMetrics.start(
+                    ReconciliationMetrics.Phase.FETCH, tableName)) {
+                
+                // Column names are resolved once and shared by every row
+                Row.Schema schema = Row.Schema.of(rs.getMetaData());
+                
+                while (rs.next()) {
+                    Row record = Row.read(rs, schema);
+                    fetch.row(record);
+                    dbRecords.put(keyLayout.keyOf(record), record);
+                }
             }
         }
-        return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,562 @@
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Fixed-size pool of pre-warmed JDBC connections for a Databricks warehouse.
+ *
+ * All connections are opened when the pool is built, so the warehouse is
+ * started and the driver handshake paid before the first query. A
+ * keepalive task validates, one at a time, the connections that sat idle
+ * for a whole interval, which keeps the warehouse from auto-suspending
+ * mid-job and replaces connections that went stale. A connection whose
+ * replacement could not be opened keeps its slot and is retried on the
+ * next borrow or keepalive. With a {@link DatabricksTokenProvider} each
+ * new physical connection takes the provider's cached token as PWD, so
+ * replacements never trigger a fresh token request of their own. A
+ * connection keeps the token it was opened with, so it is replaced, on
+ * borrow or by the keepalive, shortly before that token expires; busy
+ * connections are renewed on borrow, as they are never idle long enough
+ * for the keepalive to reach them.
+ * Connections handed out are proxies whose close() returns them to the pool.
+ */
+public class DatabricksConnectionPool implements DataSource, Closeable {
+
+    public static final int DEFAULT_SIZE = 4;
+    public static final Duration DEFAULT_KEEPALIVE_INTERVAL = Duration.ofMinutes(4);
+    public static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30);
+    public static final Duration DEFAULT_TOKEN_RENEWAL_MARGIN = Duration.ofMinutes(2);
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 10;
+    private static final int TOKEN_WAIT_SECONDS = 60;
+
+    private final String jdbcUrl;
+    private final Properties properties;
+    private final DatabricksTokenProvider tokenProvider;
+    private final String validationQuery;
+    private final Duration keepAliveInterval;
+    private final Duration maxWait;
+    private final Duration tokenRenewalMargin;
+    private final Clock clock;
+
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> all = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService keepAlive;
+    private final Metrics metrics = new Metrics();
+    private volatile boolean closed;
+
+    /**
+     * Pool settings; {@link #build()} opens every connection
+     */
+    public static final class Builder {
+        private final String jdbcUrl;
+        private Properties properties = new Properties();
+        private DatabricksTokenProvider tokenProvider;
+        private int size = DEFAULT_SIZE;
+        private String validationQuery = "SELECT 1";
+        private Duration keepAliveInterval = DEFAULT_KEEPALIVE_INTERVAL;
+        private Duration maxWait = DEFAULT_MAX_WAIT;
+        private Duration tokenRenewalMargin = DEFAULT_TOKEN_RENEWAL_MARGIN;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder(String jdbcUrl) {
+            this.jdbcUrl = jdbcUrl;
+        }
+
+        public Builder properties(Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        /**
+         * Authenticate with a shared OAuth token (AuthMech=3, UID=token, PWD=&lt;token&gt;)
+         */
+        public Builder tokenProvider(DatabricksTokenProvider tokenProvider) {
+            this.tokenProvider = tokenProvider;
+            return this;
+        }
+
+        public Builder size(int size) {
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Query run on idle connections; null uses Connection.isValid instead
+         */
+        public Builder validationQuery(String validationQuery) {
+            this.validationQuery = validationQuery;
+            return this;
+        }
+
+        public Builder keepAliveInterval(Duration keepAliveInterval) {
+            this.keepAliveInterval = keepAliveInterval;
+            return this;
+        }
+
+        public Builder maxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * How long before its token expires a connection is replaced; keep it below the
+         * provider's refresh margin so the provider already holds the next token
+         */
+        public Builder tokenRenewalMargin(Duration tokenRenewalMargin) {
+            this.tokenRenewalMargin = tokenRenewalMargin;
+            return this;
+        }
+
+        /**
+         * Clock that token expiry times are compared against
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public DatabricksConnectionPool build() throws SQLException {
+            return new DatabricksConnectionPool(this);
+        }
+    }
+
+    public static Builder builder(String jdbcUrl) {
+        return new Builder(jdbcUrl);
+    }
+
+    private DatabricksConnectionPool(Builder builder) throws SQLException {
+        if (builder.size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.jdbcUrl = builder.jdbcUrl;
+        this.properties = (Properties) builder.properties.clone();
+        this.tokenProvider = builder.tokenProvider;
+        this.validationQuery = builder.validationQuery;
+        this.keepAliveInterval = builder.keepAliveInterval;
+        this.maxWait = builder.maxWait;
+        this.tokenRenewalMargin = builder.tokenRenewalMargin;
+        this.clock = builder.clock;
+
+        // Pre-warm: open every connection in parallel so the warehouse starts once
+        ExecutorService opener = Executors.newFixedThreadPool(Math.min(builder.size, 8));
+        try {
+            List<Future<PooledConnection>> opened = new ArrayList<>();
+            for (int i = 0; i < builder.size; i++) {
+                opened.add(opener.submit(() -> open(null)));
+            }
+            for (Future<PooledConnection> future : opened) {
+                idle.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeAll();
+            throw new SQLException("Interrupted while opening pool connections", e);
+        } catch (ExecutionException e) {
+            closeAll();
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Failed to open pool connection", e.getCause());
+        } finally {
+            opener.shutdownNow();
+        }
+
+        this.keepAlive = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "databricks-pool-keepalive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = keepAliveInterval.toMillis();
+        keepAlive.scheduleWithFixedDelay(this::keepIdleConnectionsAlive, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection, waiting up to the configured maximum for one to be returned
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        PooledConnection pooled;
+        try {
+            pooled = idle.pollFirst(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection", e);
+        }
+        long waited = System.nanoTime() - start;
+
+        if (pooled == null) {
+            metrics.timeouts.incrementAndGet();
+            throw new SQLTimeoutException("No pooled connection available within " + maxWait.toMillis() + " ms");
+        }
+        metrics.recordWait(waited);
+
+        // A connection idle past the keepalive interval may have been dropped server-side
+        if (pooled.broken || isTokenDue(pooled) || (isIdleForInterval(pooled) && !validate(pooled))) {
+            try {
+                pooled = replace(pooled);
+            } catch (SQLException e) {
+                keepBrokenSlot(pooled);
+                throw e;
+            }
+        }
+        return pooled.lease();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Credentials are fixed when the pool is built");
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return connections currently available without waiting
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (keepAlive != null) {
+            keepAlive.shutdownNow();
+        }
+        closeAll();
+    }
+
+    private void closeAll() {
+        for (PooledConnection pooled : all) {
+            pooled.closePhysical();
+        }
+        all.clear();
+        idle.clear();
+    }
+
+    /**
+     * @param expiringToken expiry of the token a connection is being renewed for, or null
+     */
+    private PooledConnection open(Instant expiringToken) throws SQLException {
+        Properties connectionProperties = (Properties) properties.clone();
+        Instant tokenExpiresAt = null;
+        if (tokenProvider != null) {
+            DatabricksTokenProvider.AccessToken token = accessToken(expiringToken);
+            connectionProperties.setProperty("AuthMech", "3");
+            connectionProperties.putIfAbsent("UID", "token");
+            connectionProperties.setProperty("PWD", token.getValue());
+            tokenExpiresAt = token.getExpiresAt();
+        }
+
+        PooledConnection pooled = new PooledConnection(
+            DriverManager.getConnection(jdbcUrl, connectionProperties), tokenExpiresAt);
+        all.add(pooled);
+        metrics.created.incrementAndGet();
+        return pooled;
+    }
+
+    /**
+     * The provider's cached token. The provider hands that out until it expires, so
+     * when it is no newer than the token being renewed, wait for a fresh one instead.
+     */
+    private DatabricksTokenProvider.AccessToken accessToken(Instant expiringToken) throws SQLException {
+        try {
+            DatabricksTokenProvider.AccessToken token = tokenProvider.getAccessToken();
+            if (expiringToken != null && !token.getExpiresAt().isAfter(expiringToken)) {
+                token = tokenProvider.refresh().get(TOKEN_WAIT_SECONDS, TimeUnit.SECONDS);
+            }
+            return token;
+        } catch (IOException e) {
+            throw new SQLException("Failed to get Databricks token", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a Databricks token", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Failed to get Databricks token", e.getCause());
+        } catch (TimeoutException e) {
+            throw new SQLException("Timed out waiting for a Databricks token", e);
+        }
+    }
+
+    /**
+     * Close a broken connection, or one whose token is about to expire, and open a new one in its place
+     */
+    private PooledConnection replace(PooledConnection old) throws SQLException {
+        boolean renewal = isTokenDue(old);
+        all.remove(old);
+        old.closePhysical();
+        PooledConnection replacement = open(renewal ? old.tokenExpiresAt : null);
+        metrics.replaced.incrementAndGet();
+        if (renewal) {
+            metrics.tokenRenewals.incrementAndGet();
+        }
+        return replacement;
+    }
+
+    /**
+     * Return a connection whose replacement failed to the back of the idle
+     * queue, so the slot survives and the replacement is retried
+     */
+    private void keepBrokenSlot(PooledConnection pooled) {
+        pooled.broken = true;
+        metrics.failedReplacements.incrementAndGet();
+        if (closed) {
+            return;
+        }
+        idle.addLast(pooled);
+    }
+
+    private boolean isTokenDue(PooledConnection pooled) {
+        return pooled.tokenRenewAt != null && !clock.instant().isBefore(pooled.tokenRenewAt);
+    }
+
+    private boolean isIdleForInterval(PooledConnection pooled) {
+        return System.nanoTime() - pooled.lastUsed > keepAliveInterval.toNanos();
+    }
+
+    private boolean validate(PooledConnection pooled) {
+        try {
+            if (validationQuery == null) {
+                return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+            }
+            try (Statement statement = pooled.physical.createStatement()) {
+                statement.setQueryTimeout(VALIDATION_TIMEOUT_SECONDS);
+                statement.execute(validationQuery);
+            }
+            pooled.lastUsed = System.nanoTime();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Validate the connections left idle for a whole interval, one at a time,
+     * and renew those whose token is due. The idle queue runs from most to
+     * least recently used, so checking from the back stops at the first
+     * connection used since the last check; connections in front of it are
+     * renewed on borrow. Only the connection being checked is out of the
+     * queue; validated ones go to the front, as they were just used.
+     */
+    private void keepIdleConnectionsAlive() {
+        for (int remaining = idle.size(); remaining > 0 && !closed; remaining--) {
+            PooledConnection pooled = idle.pollLast();
+            if (pooled == null) {
+                return;
+            }
+            boolean tokenDue = isTokenDue(pooled);
+            if (!pooled.broken && !tokenDue && !isIdleForInterval(pooled)) {
+                idle.addLast(pooled);
+                return;
+            }
+
+            metrics.keepAlives.incrementAndGet();
+            if (!pooled.broken && !tokenDue && validate(pooled)) {
+                idle.addFirst(pooled);
+                continue;
+            }
+            try {
+                idle.addFirst(replace(pooled));
+            } catch (SQLException e) {
+                keepBrokenSlot(pooled);
+                return;
+            }
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        pooled.lastUsed = System.nanoTime();
+        if (closed) {
+            pooled.closePhysical();
+            return;
+        }
+        try {
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.physical.clearWarnings();
+            idle.addFirst(pooled); // Most recently used first keeps the warmest connections busy
+        } catch (SQLException e) {
+            try {
+                idle.addFirst(replace(pooled));
+            } catch (SQLException replacementFailure) {
+                keepBrokenSlot(pooled);
+            }
+        }
+    }
+
+    /**
+     * Physical connection plus the logical handle currently lent out
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        /** Expiry of the token the connection authenticated with; null without a token provider */
+        private final Instant tokenExpiresAt;
+        /** Renewal margin before expiry, or half the token's remaining life if that is shorter */
+        private final Instant tokenRenewAt;
+        private volatile long lastUsed = System.nanoTime();
+        /** Closed after a failed validation, with no replacement opened yet */
+        private volatile boolean broken;
+
+        PooledConnection(Connection physical, Instant tokenExpiresAt) {
+            this.physical = physical;
+            this.tokenExpiresAt = tokenExpiresAt;
+            if (tokenExpiresAt == null) {
+                this.tokenRenewAt = null;
+            } else {
+                Instant now = clock.instant();
+                Instant halfLife = now.plus(Duration.between(now, tokenExpiresAt).dividedBy(2));
+                Instant beforeMargin = tokenExpiresAt.minus(tokenRenewalMargin);
+                this.tokenRenewAt = beforeMargin.isAfter(halfLife) ? beforeMargin : halfLife;
+            }
+        }
+
+        Connection lease() {
+            boolean[] returned = new boolean[1];
+            return (Connection) Proxy.newProxyInstance(
+                DatabricksConnectionPool.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    synchronized (returned) {
+                        if (name.equals("close")) {
+                            if (!returned[0]) {
+                                returned[0] = true;
+                                release(this);
+                            }
+                            return null;
+                        }
+                        if (name.equals("isClosed")) {
+                            return returned[0] || physical.isClosed();
+                        }
+                        if (returned[0]) {
+                            throw new SQLException("Connection has been returned to the pool");
+                        }
+                    }
+                    if (name.equals("unwrap") && args[0] == Connection.class) {
+                        return proxy;
+                    }
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                // Already broken; nothing else to release
+            }
+        }
+    }
+
+    /**
+     * Pool counters; wait times cover successful borrows only
+     */
+    public static final class Metrics {
+        private final AtomicLong borrows = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong replaced = new AtomicLong();
+        private final AtomicLong keepAlives = new AtomicLong();
+        private final AtomicLong failedReplacements = new AtomicLong();
+        private final AtomicLong tokenRenewals = new AtomicLong();
+
+        void recordWait(long nanos) {
+            borrows.incrementAndGet();
+            totalWaitNanos.addAndGet(nanos);
+            maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getBorrows() { return borrows.get(); }
+        public long getTimeouts() { return timeouts.get(); }
+        public long getCreated() { return created.get(); }
+        public long getReplaced() { return replaced.get(); }
+        public long getKeepAlives() { return keepAlives.get(); }
+        /** Replacements that could not be opened; each slot is kept and retried */
+        public long getFailedReplacements() { return failedReplacements.get(); }
+        /** Replacements made because the connection's token was about to expire */
+        public long getTokenRenewals() { return tokenRenewals.get(); }
+
+        public Duration getTotalWait() { return Duration.ofNanos(totalWaitNanos.get()); }
+        public Duration getMaxWait() { return Duration.ofNanos(maxWaitNanos.get()); }
+
+        public Duration getAverageWait() {
+            long count = borrows.get();
+            return count == 0 ? Duration.ZERO : Duration.ofNanos(totalWaitNanos.get() / count);
+        }
+
+        @Override
+        public String toString() {
+            return "borrows=" + getBorrows() + ", avgWait=" + getAverageWait().toMillis() + "ms"
+                + ", maxWait=" + getMaxWait().toMillis() + "ms, timeouts=" + getTimeouts()
+                + ", created=" + getCreated() + ", replaced=" + getReplaced()
+                + ", keepAlives=" + getKeepAlives() + ", failedReplacements=" + getFailedReplacements()
+                + ", tokenRenewals=" + getTokenRenewals();
+        }
+    }
+
+    // ---- DataSource boilerplate ----
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
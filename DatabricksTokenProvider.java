@@ -0,0 +1,443 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Azure AD client-credentials token source for Databricks, shared across connections.
+ *
+ * The token is cached until shortly before it expires and refreshed in the
+ * background ahead of expiry, so callers normally never wait on Azure AD.
+ * A token is renewed once it is within the refresh margin of expiry, but
+ * never before half its lifetime; a token issued for no longer than the
+ * margin is not renewed early and is replaced on first use after expiry.
+ * Concurrent callers that find no usable token share one in-flight request.
+ * All providers share one HttpClient, so connections and TLS sessions to
+ * the token endpoint are reused. The endpoint is injectable for tests.
+ */
+public class DatabricksTokenProvider implements Closeable {
+
+    /** Resource id of Azure Databricks for the v1 token endpoint */
+    public static final String DATABRICKS_RESOURCE = "https://databricks.azure.net";
+
+    public static final Duration DEFAULT_REFRESH_MARGIN = Duration.ofMinutes(5);
+
+    private static final Duration DEFAULT_LIFETIME = Duration.ofHours(1);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final HttpClient SHARED_CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final URI tokenEndpoint;
+    private final String formBody;
+    private final HttpClient client;
+    private final Clock clock;
+    private final Duration refreshMargin;
+
+    private final Object lock = new Object();
+    private volatile AccessToken current;
+    private CompletableFuture<AccessToken> inFlight;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledRefresh;
+    private boolean closed;
+
+    /**
+     * Bearer token with its expiry and, if it is renewed early, when to renew it
+     */
+    public static final class AccessToken {
+        private final String value;
+        private final Instant expiresAt;
+        private final Instant refreshAt;
+
+        AccessToken(String value, Instant expiresAt, Instant refreshAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+
+        public String getValue() { return value; }
+        public Instant getExpiresAt() { return expiresAt; }
+    }
+
+    /**
+     * Provider for a service principal against the tenant's v1 token endpoint
+     */
+    public static DatabricksTokenProvider forAzureTenant(String tenantId, String clientId, String clientSecret) {
+        return new DatabricksTokenProvider(
+            URI.create("https://login.microsoftonline.com/" + tenantId + "/oauth2/token"),
+            clientId, clientSecret, DATABRICKS_RESOURCE);
+    }
+
+    public DatabricksTokenProvider(URI tokenEndpoint, String clientId, String clientSecret, String resource) {
+        this(tokenEndpoint, clientId, clientSecret, resource, SHARED_CLIENT, Clock.systemUTC(), DEFAULT_REFRESH_MARGIN);
+    }
+
+    public DatabricksTokenProvider(URI tokenEndpoint, String clientId, String clientSecret, String resource,
+                                   HttpClient client, Clock clock, Duration refreshMargin) {
+        Map<String, String> data = new LinkedHashMap<>();
+        data.put("grant_type", "client_credentials");
+        data.put("client_id", clientId);
+        data.put("client_secret", clientSecret);
+        data.put("resource", resource);
+
+        this.tokenEndpoint = tokenEndpoint;
+        this.formBody = formData(data);
+        this.client = client;
+        this.clock = clock;
+        this.refreshMargin = refreshMargin;
+    }
+
+    /**
+     * @return a valid access token, fetching one only if none is cached
+     */
+    public String getToken() throws IOException {
+        return getAccessToken().getValue();
+    }
+
+    public AccessToken getAccessToken() throws IOException {
+        AccessToken token = current;
+        Instant now = clock.instant();
+
+        if (token != null && now.isBefore(token.expiresAt)) {
+            if (token.refreshAt != null && now.isAfter(token.refreshAt)) {
+                refresh(); // Still valid; renew in the background
+            }
+            return token;
+        }
+
+        try {
+            return refresh().get(REQUEST_TIMEOUT.toMillis() * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching token", e);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out fetching token from " + tokenEndpoint, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to get token: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Start a token request, or join the one already in flight
+     */
+    public CompletableFuture<AccessToken> refresh() {
+        CompletableFuture<AccessToken> result;
+        synchronized (lock) {
+            if (inFlight != null) {
+                return inFlight;
+            }
+            result = new CompletableFuture<>();
+            inFlight = result;
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(tokenEndpoint)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(formBody))
+                .build();
+
+        CompletableFuture<HttpResponse<String>> response;
+        try {
+            response = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                inFlight = null;
+            }
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        response.whenComplete((httpResponse, error) -> {
+            AccessToken token = null;
+            Throwable failure = error;
+            if (failure == null) {
+                try {
+                    token = parseResponse(httpResponse.statusCode(), httpResponse.body());
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                }
+            }
+
+            synchronized (lock) {
+                inFlight = null;
+                if (token != null) {
+                    current = token;
+                    scheduleRefresh(token);
+                }
+            }
+            if (token != null) {
+                result.complete(token);
+            } else {
+                result.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Stop background refreshes. Cached tokens stay usable until they expire.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+    }
+
+    private void scheduleRefresh(AccessToken token) {
+        if (closed) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "databricks-token-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+        if (token.refreshAt == null) {
+            return;
+        }
+        long delay = Math.max(0, Duration.between(clock.instant(), token.refreshAt).toMillis());
+        scheduledRefresh = scheduler.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private AccessToken parseResponse(int statusCode, String body) throws IOException {
+        Map<String, Object> json;
+        try {
+            json = Json.parseObject(body);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Failed to get token: HTTP " + statusCode + " " + body, e);
+        }
+
+        if (statusCode != 200 || !(json.get("access_token") instanceof String)) {
+            Object description = json.getOrDefault("error_description", json.get("error"));
+            throw new IOException("Failed to get token: HTTP " + statusCode
+                + (description != null ? " " + description : " " + body));
+        }
+
+        // v1 endpoints send numbers as strings; v2 sends JSON numbers
+        Instant now = clock.instant();
+        Instant expiresAt = now.plus(DEFAULT_LIFETIME);
+        if (json.get("expires_in") != null) {
+            expiresAt = now.plusSeconds(Long.parseLong(json.get("expires_in").toString()));
+        } else if (json.get("expires_on") != null) {
+            expiresAt = Instant.ofEpochSecond(Long.parseLong(json.get("expires_on").toString()));
+        }
+        return new AccessToken((String) json.get("access_token"), expiresAt, refreshTime(now, expiresAt));
+    }
+
+    /**
+     * @return when to renew a token issued now, or null if its lifetime is within the margin
+     */
+    private Instant refreshTime(Instant now, Instant expiresAt) {
+        Duration lifetime = Duration.between(now, expiresAt);
+        if (lifetime.compareTo(refreshMargin) <= 0) {
+            return null;
+        }
+        Duration untilRefresh = lifetime.minus(refreshMargin);
+        Duration halfLife = lifetime.dividedBy(2);
+        return now.plus(untilRefresh.compareTo(halfLife) > 0 ? untilRefresh : halfLife);
+    }
+
+    static String formData(Map<String, String> data) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append("&");
+            }
+            builder.append(entry.getKey()).append("=")
+                    .append(URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Minimal JSON reader for token responses: objects, arrays, strings, numbers, booleans and null
+     */
+    static final class Json {
+        private final String text;
+        private int pos;
+
+        private Json(String text) {
+            this.text = text;
+        }
+
+        @SuppressWarnings("unchecked")
+        static Map<String, Object> parseObject(String text) {
+            Json json = new Json(text);
+            Object value = json.value();
+            json.skipWhitespace();
+            if (!(value instanceof Map) || json.pos != text.length()) {
+                throw new IllegalArgumentException("Expected a single JSON object");
+            }
+            return (Map<String, Object>) value;
+        }
+
+        private Object value() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{': return object();
+                case '[': return array();
+                case '"': return string();
+                case 't': return literal("true", Boolean.TRUE);
+                case 'f': return literal("false", Boolean.FALSE);
+                case 'n': return literal("null", null);
+                default: return number();
+            }
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a member name");
+                }
+                String name = string();
+                skipWhitespace();
+                expect(':');
+                object.put(name, value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return array;
+                }
+            }
+        }
+
+        private String string() {
+            StringBuilder value = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    break;
+                }
+                char escape = text.charAt(pos++);
+                switch (escape) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Bad unicode escape");
+                        }
+                        value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: value.append(escape);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private Object number() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("Unexpected character '" + text.charAt(pos) + "'");
+            }
+            String number = text.substring(start, pos);
+            try {
+                return number.contains(".") || number.contains("e") || number.contains("E")
+                    ? (Object) Double.parseDouble(number) : (Object) Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                throw error("Bad number " + number);
+            }
+        }
+
+        private Object literal(String word, Object value) {
+            if (!text.startsWith(word, pos)) {
+                throw error("Unexpected token");
+            }
+            pos += word.length();
+            return value;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + pos);
+        }
+    }
+}
@@ -1,5 +1,4 @@
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.Statement;
 
@@ -28,13 +27,17 @@ public class DatabricksSPNConnect {
             hostname, clientId, clientSecret, httpPath, clientId, clientSecret, tenantId
         );
 
-        try (Connection conn = DriverManager.getConnection(jdbcUrl);
+        // AuthMech=13 has the driver fetch and refresh the OAuth token itself, so the
+        // pool only pre-warms and keeps the connections alive; no token provider
+        try (DatabricksConnectionPool pool = DatabricksConnectionPool.builder(jdbcUrl).size(2).build();
+             Connection conn = pool.getConnection();
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery("SELECT current_date()")) {
 
             while (rs.next()) {
                 System.out.println("Current Date: " + rs.getString(1));
             }
+            System.out.println("Pool: " + pool.getMetrics());
         }
     }
 }
\ No newline at end of file
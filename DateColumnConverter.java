@@ -0,0 +1,272 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Converts whole date columns: infer the input pattern once, then convert every value.
+ *
+ * Inference parses an evenly spaced sample against each candidate pattern
+ * and keeps the one that parses the most values. Day-first and month-first
+ * layouts are told apart by value ranges: a sample containing 25/12/2023
+ * rules out MM/dd. Conversion uses the compiled {@link DateFormatConverter.Converter},
+ * splits large columns across the common fork-join pool, and reports values
+ * that do not parse as row indexes rather than per-value error strings.
+ * Null and blank values are passed through as null and are not errors.
+ */
+public final class DateColumnConverter {
+
+    /** Candidate input patterns, in order of preference when a sample fits several equally */
+    public static final String[] CANDIDATE_PATTERNS = {
+        "yyyy-MM-dd HH:mm:ss.SSS",
+        "yyyy-MM-dd HH:mm:ss",
+        "yyyy-MM-dd HH:mm",
+        "yyyy-MM-dd",
+        "dd/MM/yyyy HH:mm:ss.SSS",
+        "MM/dd/yyyy HH:mm:ss.SSS",
+        "dd/MM/yyyy HH:mm:ss",
+        "MM/dd/yyyy HH:mm:ss",
+        "dd/MM/yyyy",
+        "MM/dd/yyyy",
+        "MM-dd-yy",
+        "dd-MM-yy",
+        "yyyyMMdd"
+    };
+
+    public static final int DEFAULT_SAMPLE_SIZE = 500;
+
+    /** Values per fork-join leaf */
+    private static final int SPLIT_THRESHOLD = 8192;
+
+    private DateColumnConverter() {
+    }
+
+    /**
+     * Pattern chosen for a column and how well it fits the sample
+     */
+    public static final class Inference {
+        private final String pattern;
+        private final int matched;
+        private final int sampled;
+        private final List<String> alternatives;
+
+        Inference(String pattern, int matched, int sampled, List<String> alternatives) {
+            this.pattern = pattern;
+            this.matched = matched;
+            this.sampled = sampled;
+            this.alternatives = alternatives;
+        }
+
+        /**
+         * @return best pattern, or null if no candidate parsed any sampled value
+         */
+        public String getPattern() { return pattern; }
+        public int getMatched() { return matched; }
+        public int getSampled() { return sampled; }
+
+        /**
+         * @return other patterns that parsed the sample equally well, e.g. MM/dd when every day was 12 or less
+         */
+        public List<String> getAlternatives() { return alternatives; }
+
+        public boolean isAmbiguous() {
+            return !alternatives.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return pattern + " (" + matched + "/" + sampled + " sampled"
+                + (alternatives.isEmpty() ? "" : ", also fits " + alternatives) + ")";
+        }
+    }
+
+    /**
+     * Converted values plus the rows that failed
+     */
+    public static final class Result {
+        private final String inputPattern;
+        private final String[] values;
+        private final int[] errorRows;
+
+        Result(String inputPattern, String[] values, int[] errorRows) {
+            this.inputPattern = inputPattern;
+            this.values = values;
+            this.errorRows = errorRows;
+        }
+
+        public String getInputPattern() { return inputPattern; }
+
+        /**
+         * @return converted values by row; null for blank input and for error rows
+         */
+        public String[] getValues() { return values; }
+
+        /**
+         * @return ascending indexes of the rows that did not parse
+         */
+        public int[] getErrorRows() { return errorRows; }
+
+        public boolean hasErrors() {
+            return errorRows.length > 0;
+        }
+    }
+
+    /**
+     * Infer the input pattern of a column from the standard candidates
+     */
+    public static Inference infer(List<? extends CharSequence> column) {
+        return infer(column, CANDIDATE_PATTERNS, DEFAULT_SAMPLE_SIZE);
+    }
+
+    /**
+     * Infer the input pattern of a column
+     * @param candidates Patterns to try, most preferred first
+     * @param sampleSize Non-blank values to sample, spread evenly over the column
+     */
+    public static Inference infer(List<? extends CharSequence> column, String[] candidates, int sampleSize) {
+        List<CharSequence> sample = sample(column, sampleSize);
+
+        int[] matches = new int[candidates.length];
+        int best = -1;
+        for (int c = 0; c < candidates.length; c++) {
+            DateFormatConverter.Converter parser = DateFormatConverter.compile(candidates[c], candidates[c], false);
+            StringBuilder scratch = new StringBuilder(32);
+            for (CharSequence value : sample) {
+                scratch.setLength(0);
+                if (parser.appendTo(value, scratch)) {
+                    matches[c]++;
+                }
+            }
+            if (matches[c] > 0 && (best < 0 || matches[c] > matches[best])) {
+                best = c;
+            }
+        }
+
+        if (best < 0) {
+            return new Inference(null, 0, sample.size(), Collections.emptyList());
+        }
+        List<String> alternatives = new ArrayList<>();
+        for (int c = 0; c < candidates.length; c++) {
+            if (c != best && matches[c] == matches[best]) {
+                alternatives.add(candidates[c]);
+            }
+        }
+        return new Inference(candidates[best], matches[best], sample.size(), alternatives);
+    }
+
+    /**
+     * Infer the input pattern, then convert the whole column
+     * @throws IllegalArgumentException if no candidate pattern fits the column
+     */
+    public static Result convert(List<? extends CharSequence> column, String outputPattern, boolean resetTime) {
+        Inference inference = infer(column);
+        if (inference.getPattern() == null) {
+            throw new IllegalArgumentException("No known date pattern fits the column");
+        }
+        return convert(column, inference.getPattern(), outputPattern, resetTime);
+    }
+
+    /**
+     * Convert the whole column from a known input pattern
+     */
+    public static Result convert(List<? extends CharSequence> column, String inputPattern,
+                                 String outputPattern, boolean resetTime) {
+        DateFormatConverter.Converter converter = DateFormatConverter.compile(inputPattern, outputPattern, resetTime);
+        List<? extends CharSequence> values = column instanceof RandomAccess ? column : new ArrayList<>(column);
+        String[] converted = new String[values.size()];
+
+        int[] errors = new ConvertTask(converter, values, converted, 0, converted.length).invokeOn();
+        return new Result(inputPattern, converted, errors);
+    }
+
+    private static List<CharSequence> sample(List<? extends CharSequence> column, int sampleSize) {
+        List<CharSequence> sample = new ArrayList<>(Math.min(sampleSize, column.size()));
+        int step = Math.max(1, column.size() / Math.max(1, sampleSize));
+        for (int i = 0; i < column.size() && sample.size() < sampleSize; i += step) {
+            CharSequence value = column.get(i);
+            if (!isBlank(value)) {
+                sample.add(value);
+            }
+        }
+        return sample;
+    }
+
+    private static boolean isBlank(CharSequence value) {
+        if (value == null) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isWhitespace(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a range of rows; returns the range's error rows in ascending order
+     */
+    private static final class ConvertTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final DateFormatConverter.Converter converter;
+        private final List<? extends CharSequence> values;
+        private final String[] converted;
+        private final int from;
+        private final int to;
+
+        ConvertTask(DateFormatConverter.Converter converter, List<? extends CharSequence> values,
+                    String[] converted, int from, int to) {
+            this.converter = converter;
+            this.values = values;
+            this.converted = converted;
+            this.from = from;
+            this.to = to;
+        }
+
+        int[] invokeOn() {
+            // Small columns are not worth handing to the pool
+            return to - from <= SPLIT_THRESHOLD ? compute() : ForkJoinPool.commonPool().invoke(this);
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                ConvertTask left = new ConvertTask(converter, values, converted, from, middle);
+                ConvertTask right = new ConvertTask(converter, values, converted, middle, to);
+                left.fork();
+                int[] rightErrors = right.compute();
+                int[] leftErrors = left.join();
+                if (leftErrors.length == 0) {
+                    return rightErrors;
+                }
+                if (rightErrors.length == 0) {
+                    return leftErrors;
+                }
+                int[] errors = Arrays.copyOf(leftErrors, leftErrors.length + rightErrors.length);
+                System.arraycopy(rightErrors, 0, errors, leftErrors.length, rightErrors.length);
+                return errors;
+            }
+
+            StringBuilder out = new StringBuilder(32);
+            int[] errors = new int[0];
+            int errorCount = 0;
+            for (int row = from; row < to; row++) {
+                CharSequence value = values.get(row);
+                if (isBlank(value)) {
+                    continue;
+                }
+                out.setLength(0);
+                if (converter.appendTo(value, out)) {
+                    converted[row] = out.toString();
+                } else {
+                    if (errorCount == errors.length) {
+                        errors = Arrays.copyOf(errors, Math.max(8, errorCount * 2));
+                    }
+                    errors[errorCount++] = row;
+                }
+            }
+            return errorCount == errors.length ? errors : Arrays.copyOf(errors, errorCount);
+        }
+    }
+}
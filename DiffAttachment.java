@@ -0,0 +1,240 @@
+import com.aventstack.extentreports.Status;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reports a reconciliation to the Extent report without putting the whole diff in the HTML.
+ *
+ * Use it as the {@link MatchSink} of a matcher run. Every discrepancy is
+ * streamed to GZIP-compressed newline-delimited JSON pages (the
+ * {@link MatchSink.NdjsonWriter} format) of a fixed number of rows, in a
+ * directory next to the report. On {@link #close()} the test gets the
+ * counts, a table of the first discrepancies and a link to an index of the
+ * pages. Report size therefore stays bounded however large the diff is.
+ */
+public class DiffAttachment extends MatchSink.FirstDifferences implements Closeable {
+
+    public static final int DEFAULT_INLINE_ROWS = 50;
+    public static final int DEFAULT_PAGE_ROWS = 100_000;
+
+    /** Longest cell text shown inline; the pages keep full values */
+    private static final int MAX_CELL_CHARS = 200;
+
+    private final ExtentReportManager.TestContext test;
+    private final String title;
+    private final Path directory;
+    private final int pageRows;
+    private final List<Integer> pageSizes = new ArrayList<>();
+    private MatchSink.NdjsonWriter page;
+    private int rowsInPage;
+    private boolean closed;
+
+    /**
+     * Attach to the current thread's test with default sizes
+     */
+    public DiffAttachment(String title) throws IOException {
+        this(ExtentReportManager.currentTest(), title, DEFAULT_INLINE_ROWS, DEFAULT_PAGE_ROWS);
+    }
+
+    /**
+     * @param test Test the summary is logged to
+     * @param title Name of the comparison, also used for the page directory
+     * @param inlineRows Discrepancies shown in the report itself
+     * @param pageRows Discrepancies per compressed page file
+     */
+    public DiffAttachment(ExtentReportManager.TestContext test, String title,
+                          int inlineRows, int pageRows) throws IOException {
+        super(inlineRows);
+        if (pageRows <= 0) {
+            throw new IllegalArgumentException("pageRows must be positive");
+        }
+        this.test = test;
+        this.title = title;
+        this.pageRows = pageRows;
+        this.directory = Files.createDirectories(ExtentReportManager.reportDirectory()
+            .resolve("diffs").resolve(slug(title) + "-" + UUID.randomUUID().toString().substring(0, 8)));
+    }
+
+    @Override
+    public void matched(Map<String, Object> csvRecord, Map<String, Object> dbRecord,
+                        Map<String, Object> differences) {
+        super.matched(csvRecord, dbRecord, differences);
+        if (!differences.isEmpty()) {
+            page().matched(csvRecord, dbRecord, differences);
+        }
+    }
+
+    @Override
+    public void unmatched(Map<String, Object> csvRecord) {
+        super.unmatched(csvRecord);
+        page().unmatched(csvRecord);
+    }
+
+    @Override
+    public void dbOnly(Map<String, Object> dbRecord) {
+        super.dbOnly(dbRecord);
+        page().dbOnly(dbRecord);
+    }
+
+    /**
+     * @return files written so far, in order
+     */
+    public List<Path> getPages() {
+        List<Path> pages = new ArrayList<>(pageSizes.size());
+        for (int i = 0; i < pageSizes.size(); i++) {
+            pages.add(pagePath(i));
+        }
+        return pages;
+    }
+
+    /**
+     * Finish the last page and log the summary to the test: PASS when the
+     * sides agree, FAIL with the inline table and page link otherwise.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closePage();
+
+        if (isClean()) {
+            test.log(Status.PASS, escape(title) + ": " + this);
+            return;
+        }
+
+        writeIndex();
+        String link = ExtentReportManager.reportDirectory().relativize(directory.resolve("index.html"))
+            .toString().replace(File.separatorChar, '/');
+        long total = getMismatched() + getUnmatched() + getDbOnly();
+        test.log(Status.FAIL, escape(title) + ": " + this + " &mdash; <a href='" + link + "'>full diff</a> ("
+            + total + " rows in " + pageSizes.size() + " compressed page" + (pageSizes.size() == 1 ? "" : "s") + ")");
+        test.log(Status.INFO, inlineTable());
+    }
+
+    private MatchSink.NdjsonWriter page() {
+        if (closed) {
+            throw new IllegalStateException("Diff attachment already closed");
+        }
+        try {
+            if (page != null && rowsInPage >= pageRows) {
+                closePage();
+            }
+            if (page == null) {
+                pageSizes.add(0);
+                page = new MatchSink.NdjsonWriter(
+                    new GZIPOutputStream(Files.newOutputStream(pagePath(pageSizes.size() - 1)), 64 * 1024), false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        rowsInPage++;
+        return page;
+    }
+
+    private void closePage() throws IOException {
+        if (page != null) {
+            pageSizes.set(pageSizes.size() - 1, rowsInPage);
+            page.close();
+            page = null;
+            rowsInPage = 0;
+        }
+    }
+
+    private Path pagePath(int index) {
+        return directory.resolve(String.format("page-%05d.ndjson.gz", index + 1));
+    }
+
+    private void writeIndex() throws IOException {
+        StringBuilder html = new StringBuilder(256 + pageSizes.size() * 80);
+        html.append("<!DOCTYPE html><html><head><meta charset='utf-8'><title>").append(escape(title))
+            .append("</title></head><body><h3>").append(escape(title)).append("</h3><p>").append(this)
+            .append("</p><ol>");
+        for (int i = 0; i < pageSizes.size(); i++) {
+            String name = pagePath(i).getFileName().toString();
+            html.append("<li><a href='").append(name).append("'>").append(name).append("</a> (")
+                .append(pageSizes.get(i)).append(" rows)</li>");
+        }
+        html.append("</ol></body></html>");
+        Files.write(directory.resolve("index.html"), html.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private String inlineTable() {
+        List<Map<String, Object>> shown = getDifferences();
+        StringBuilder html = new StringBuilder(256 + shown.size() * 200);
+        html.append("<table class='table table-sm'><thead><tr><th>Type</th><th>CSV</th><th>DB</th>")
+            .append("<th>Differences</th></tr></thead><tbody>");
+        for (Map<String, Object> entry : shown) {
+            html.append("<tr><td>").append(entry.get("type")).append("</td><td>");
+            cell(html, (Map<String, Object>) entry.get("csv_record"));
+            html.append("</td><td>");
+            cell(html, (Map<String, Object>) entry.get("db_record"));
+            html.append("</td><td>");
+            Map<String, Object> differences = (Map<String, Object>) entry.get("differences");
+            if (differences != null) {
+                StringBuilder text = new StringBuilder();
+                for (Map.Entry<String, Object> difference : differences.entrySet()) {
+                    Map<?, ?> values = (Map<?, ?>) difference.getValue();
+                    if (text.length() > 0) {
+                        text.append("; ");
+                    }
+                    text.append(difference.getKey()).append(": ").append(values.get("csv_value"))
+                        .append(" -> ").append(values.get("db_value"));
+                }
+                html.append(escape(truncate(text)));
+            }
+            html.append("</td></tr>");
+        }
+        html.append("</tbody></table>");
+        return html.toString();
+    }
+
+    private static void cell(StringBuilder html, Map<String, Object> record) {
+        if (record != null) {
+            StringBuilder text = new StringBuilder();
+            for (Map.Entry<String, Object> column : record.entrySet()) {
+                if (text.length() > 0) {
+                    text.append(", ");
+                }
+                text.append(column.getKey()).append('=').append(column.getValue());
+                if (text.length() > MAX_CELL_CHARS) {
+                    break;
+                }
+            }
+            html.append(escape(truncate(text)));
+        }
+    }
+
+    private static String truncate(CharSequence text) {
+        return text.length() <= MAX_CELL_CHARS
+            ? text.toString() : text.subSequence(0, MAX_CELL_CHARS) + "...";
+    }
+
+    private static String slug(String title) {
+        String slug = title.toLowerCase().replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+        return slug.isEmpty() ? "diff" : slug.substring(0, Math.min(slug.length(), 60));
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '&': escaped.append("&amp;"); break;
+                case '\'': escaped.append("&#39;"); break;
+                case '"': escaped.append("&quot;"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,136 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Hash-first reconciliation: compare per-row digests before moving full rows.
+ *
+ * The database returns only the key columns and an MD5 digest of the
+ * compared columns for each row (see {@link RowDigest}). The same digest
+ * is computed on each CSV record, and full rows are fetched only for keys
+ * whose digests differ or that exist only in the database. Rows with equal
+ * digests are reported as matched without a db_record and with an empty
+ * differences map.
+ */
+public class DigestDatabaseMatcher {
+
+    private static final int DIGEST_FETCH_SIZE = 10_000;
+
+    /**
+     * Compare CSV records with database records using row digests
+     * @param csvRecords List of CSV records as Map; the first record's columns are compared
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
+     */
+    public static DatabaseCSVMatcher.MatchResult compareRecordsByDigest(List<Map<String, Object>> csvRecords,
+                                                                      Connection connection,
+                                                                      String tableName,
+                                                                      String... primaryKeys) throws SQLException {
+        return compareRecordsByDigest(csvRecords, connection, tableName,
+            RowDigest.Dialect.detect(connection), primaryKeys);
+    }
+
+    public static DatabaseCSVMatcher.MatchResult compareRecordsByDigest(List<Map<String, Object>> csvRecords,
+                                                                      Connection connection,
+                                                                      String tableName,
+                                                                      RowDigest.Dialect dialect,
+                                                                      String... primaryKeys) throws SQLException {
+        DatabaseCSVMatcher.MatchResult result = new DatabaseCSVMatcher.MatchResult();
+        compareRecordsByDigest(csvRecords, connection, tableName, dialect, result, primaryKeys);
+        return result;
+    }
+
+    /**
+     * Compare using row digests, reporting each outcome to the sink
+     */
+    public static void compareRecordsByDigest(List<Map<String, Object>> csvRecords,
+                                              Connection connection,
+                                              String tableName,
+                                              RowDigest.Dialect dialect,
+                                              MatchSink sink,
+                                              String... primaryKeys) throws SQLException {
+
+        if (csvRecords.isEmpty()) {
+            return;
+        }
+
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.resolve(connection, tableName, primaryKeys);
+        List<String> columns = RowDigest.columnsOf(csvRecords.get(0));
+        ComparisonPlan.Compiled comparison = ComparisonPlan.DEFAULT.compile(columns);
+
+        // Step 1: Index CSV records by key; later duplicates of a key stay unmatched
+        Map<CompositeKey, Map<String, Object>> csvRecordsMap = new HashMap<>(csvRecords.size() * 4 / 3 + 1);
+        for (Map<String, Object> csvRecord : csvRecords) {
+            if (csvRecordsMap.putIfAbsent(keyLayout.keyOf(csvRecord), csvRecord) != null) {
+                sink.unmatched(csvRecord);
+            }
+        }
+
+        // Step 2: Stream keys and digests from the DB. Tables without a primary key
+        // may repeat a key; like the hash path, the last row of a key wins
+        Map<CompositeKey, String> dbDigests = new HashMap<>(csvRecordsMap.size() * 4 / 3 + 1);
+        Set<CompositeKey> dbOnlyKeys = new LinkedHashSet<>();
+
+        String sql = "SELECT " + String.join(", ", primaryKeys) + ", "
+                + dialect.digestExpression(columns) + " AS row_digest FROM " + tableName;
+
+        try (PreparedStatement stmt = connection.prepareStatement(
+                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            stmt.setFetchSize(DIGEST_FETCH_SIZE);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                Row.Schema schema = Row.Schema.of(rs.getMetaData());
+                int digestIndex = schema.size() - 1;
+
+                while (rs.next()) {
+                    Row keyRow = Row.read(rs, schema);
+                    CompositeKey key = keyLayout.keyOf(keyRow);
+
+                    if (csvRecordsMap.containsKey(key)) {
+                        dbDigests.put(key, String.valueOf(keyRow.get(digestIndex)));
+                    } else {
+                        dbOnlyKeys.add(key);
+                    }
+                }
+            }
+        }
+
+        // Step 3: Settle equal digests; CSV records whose key never came back are not in the DB
+        Map<CompositeKey, Map<String, Object>> mismatched = new HashMap<>();
+        for (Map.Entry<CompositeKey, Map<String, Object>> csvEntry : csvRecordsMap.entrySet()) {
+            Map<String, Object> csvRecord = csvEntry.getValue();
+            String dbDigest = dbDigests.get(csvEntry.getKey());
+
+            if (dbDigest == null) {
+                sink.unmatched(csvRecord);
+            } else if (dbDigest.equalsIgnoreCase(RowDigest.digest(csvRecord, columns))) {
+                sink.matched(csvRecord, null, Collections.emptyMap());
+            } else {
+                mismatched.put(csvEntry.getKey(), csvRecord);
+            }
+        }
+
+        // Step 4: Fetch full rows only for differing and DB-only keys
+        Map<CompositeKey, Map<String, Object>> dbRecordsMap = OptimizedDatabaseMatcher.fetchRecordsByKeys(
+            connection, tableName, mismatched.keySet(), keyLayout, OptimizedDatabaseMatcher.DEFAULT_MAX_PARAMETERS);
+
+        for (Map.Entry<CompositeKey, Map<String, Object>> csvEntry : mismatched.entrySet()) {
+            Map<String, Object> csvRecord = csvEntry.getValue();
+            Map<String, Object> dbRecord = dbRecordsMap.get(csvEntry.getKey());
+
+            if (dbRecord == null) {
+                // Deleted between the digest scan and the fetch
+                sink.unmatched(csvRecord);
+                continue;
+            }
+
+            sink.matched(csvRecord, dbRecord, comparison.differences(csvRecord, dbRecord));
+        }
+
+        OptimizedDatabaseMatcher.fetchRecordsByKeys(
+            connection, tableName, dbOnlyKeys, keyLayout, OptimizedDatabaseMatcher.DEFAULT_MAX_PARAMETERS)
+            .values().forEach(sink::dbOnly);
+    }
+}
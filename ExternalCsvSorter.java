@@ -0,0 +1,279 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * External merge sort for CSV records that do not fit in memory.
+ *
+ * Records are buffered up to a fixed count, sorted by composite primary key
+ * and spilled to a run file in the {@link RecordCodec} format. The runs are
+ * then k-way merged into a single sorted stream that can be handed to
+ * {@link DatabaseCSVMatcher#compareSortedRecords}. The sort is stable: records
+ * with equal keys come out in input order. Records read back from a run keep
+ * their column names and, like {@link MappedCsvReader} rows, find a column
+ * regardless of case.
+ */
+public class ExternalCsvSorter {
+
+    public static final int DEFAULT_RUN_SIZE = 100_000;
+
+    private final CompositeKey.Layout keyLayout;
+    private final int maxRecordsPerRun;
+    private final Path spillDirectory;
+
+    public ExternalCsvSorter(String... primaryKeys) {
+        this(DEFAULT_RUN_SIZE, Paths.get(System.getProperty("java.io.tmpdir")), primaryKeys);
+    }
+
+    /**
+     * @param maxRecordsPerRun Number of records held in memory before spilling a run
+     * @param spillDirectory Directory for temporary run files
+     * @param primaryKeys Array of primary key column names
+     */
+    public ExternalCsvSorter(int maxRecordsPerRun, Path spillDirectory, String... primaryKeys) {
+        this(maxRecordsPerRun, spillDirectory, CompositeKey.Layout.of(primaryKeys));
+    }
+
+    /**
+     * @param keyLayout Key columns; a layout from {@link CompositeKey.Layout#resolve} sorts
+     *                  in the order the database uses for ORDER BY
+     */
+    public ExternalCsvSorter(int maxRecordsPerRun, Path spillDirectory, CompositeKey.Layout keyLayout) {
+        if (maxRecordsPerRun <= 0) {
+            throw new IllegalArgumentException("maxRecordsPerRun must be positive");
+        }
+        this.maxRecordsPerRun = maxRecordsPerRun;
+        this.spillDirectory = spillDirectory;
+        this.keyLayout = keyLayout;
+    }
+
+    /**
+     * Sort records by composite key. Inputs smaller than one run are sorted in memory
+     * without touching the disk.
+     * @param records CSV records in any order
+     * @return Sorted records; close it to delete the run files
+     */
+    public SortedRecords sort(Iterator<Map<String, Object>> records) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        List<RunHead> buffer = new ArrayList<>();
+
+        try {
+            while (records.hasNext()) {
+                Map<String, Object> record = records.next();
+                buffer.add(new RunHead(0, keyLayout.keyOf(record), record));
+                if (buffer.size() >= maxRecordsPerRun) {
+                    runs.add(spill(buffer));
+                    buffer.clear();
+                }
+            }
+
+            buffer.sort(byKey(keyLayout));
+            if (runs.isEmpty()) {
+                Iterator<RunHead> sorted = buffer.iterator();
+                return new SortedRecords(new Iterator<Map<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return sorted.hasNext();
+                    }
+
+                    @Override
+                    public Map<String, Object> next() {
+                        return sorted.next().record;
+                    }
+                });
+            }
+
+            if (!buffer.isEmpty()) {
+                runs.add(spill(buffer));
+                buffer.clear();
+            }
+            return new SortedRecords(runs, keyLayout);
+        } catch (IOException | RuntimeException e) {
+            deleteRuns(runs);
+            throw e;
+        }
+    }
+
+    private Path spill(List<RunHead> buffer) throws IOException {
+        buffer.sort(byKey(keyLayout));
+
+        Path run = Files.createTempFile(spillDirectory, "csv-sort-", ".run");
+        try (RecordCodec.Writer writer = new RecordCodec.Writer(Files.newOutputStream(run))) {
+            for (RunHead entry : buffer) {
+                writer.write(entry.record);
+            }
+        }
+        return run;
+    }
+
+    private static void deleteRuns(List<Path> runs) {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException ignored) {
+                // Best effort, the file lives in a temp directory
+            }
+        }
+    }
+
+    /**
+     * Sorted view over the spilled runs, merged lazily through a priority queue
+     * holding one record per run.
+     */
+    public static class SortedRecords implements Iterator<Map<String, Object>>, Closeable {
+        private final Iterator<Map<String, Object>> inMemory;
+        private final List<Path> runs;
+        private final CompositeKey.Layout keyLayout;
+        private final List<RecordCodec.Reader> readers = new ArrayList<>();
+        private final PriorityQueue<RunHead> heads;
+        private final Map<String, String> columnNames = new ConcurrentHashMap<>();
+
+        SortedRecords(Iterator<Map<String, Object>> inMemory) {
+            this.inMemory = inMemory;
+            this.runs = Collections.emptyList();
+            this.keyLayout = null;
+            this.heads = null;
+        }
+
+        SortedRecords(List<Path> runs, CompositeKey.Layout keyLayout) throws IOException {
+            this.inMemory = null;
+            this.runs = runs;
+            this.keyLayout = keyLayout;
+            // Ties go to the earlier run so the merge stays stable
+            this.heads = new PriorityQueue<>(runs.size(), byKey(keyLayout).thenComparingInt(head -> head.runIndex));
+
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    readers.add(new RecordCodec.Reader(Files.newInputStream(runs.get(i))));
+                    Map<String, Object> first = read(i);
+                    if (first != null) {
+                        heads.add(new RunHead(i, keyLayout.keyOf(first), first));
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return inMemory != null ? inMemory.hasNext() : !heads.isEmpty();
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (inMemory != null) {
+                return inMemory.next();
+            }
+            if (heads.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+
+            RunHead head = heads.poll();
+            Map<String, Object> record = head.record;
+            try {
+                Map<String, Object> following = read(head.runIndex);
+                if (following != null) {
+                    heads.add(new RunHead(head.runIndex, keyLayout.keyOf(following), following));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read sort run " + runs.get(head.runIndex), e);
+            }
+            return record;
+        }
+
+        private Map<String, Object> read(int runIndex) throws IOException {
+            Map<String, Object> record = readers.get(runIndex).read();
+            return record == null ? null : new RunRecord(record, columnNames);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RecordCodec.Reader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                    // Closing a read-only temp file; deletion below is what matters
+                }
+            }
+            readers.clear();
+            deleteRuns(runs);
+        }
+    }
+
+    private static Comparator<RunHead> byKey(CompositeKey.Layout keyLayout) {
+        Comparator<CompositeKey> keyOrder = keyLayout.comparator();
+        return (a, b) -> keyOrder.compare(a.key, b.key);
+    }
+
+    /**
+     * Record read back from a run. The codec returns the columns under their
+     * original names, while key layouts and comparison plans look them up in
+     * lowercase; names that miss are resolved case-insensitively through a map
+     * shared by all records of the sort.
+     */
+    private static final class RunRecord extends AbstractMap<String, Object> {
+        private final Map<String, Object> fields;
+        private final Map<String, String> columnNames;
+
+        RunRecord(Map<String, Object> fields, Map<String, String> columnNames) {
+            this.fields = fields;
+            this.columnNames = columnNames;
+        }
+
+        private Object column(Object name) {
+            if (fields.containsKey(name) || !(name instanceof String)) {
+                return name;
+            }
+            String lowercase = ((String) name).toLowerCase();
+            String known = columnNames.get(lowercase);
+            if (known != null && fields.containsKey(known)) {
+                return known;
+            }
+            for (String field : fields.keySet()) {
+                if (field.toLowerCase().equals(lowercase)) {
+                    columnNames.put(lowercase, field);
+                    return field;
+                }
+            }
+            return name;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return fields.get(column(key));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return fields.containsKey(column(key));
+        }
+
+        @Override
+        public int size() {
+            return fields.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return Collections.unmodifiableMap(fields).entrySet();
+        }
+    }
+
+    /**
+     * Record with its key computed once, either buffered or at the head of a run
+     */
+    private static class RunHead {
+        final int runIndex;
+        final CompositeKey key;
+        final Map<String, Object> record;
+
+        RunHead(int runIndex, CompositeKey key, Map<String, Object> record) {
+            this.runIndex = runIndex;
+            this.key = key;
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Two-tier cache of fetched table snapshots.
+ *
+ * Entries are keyed by table, projection, predicate and a version token,
+ * such as a Delta table version or an epoch the caller bumps when the
+ * reference data changes. The heap tier is an LRU bounded by total row
+ * count. The disk tier keeps one GZIP-compressed {@link RecordCodec} file
+ * per entry, so later runs with the same version token skip the warehouse
+ * too; entries with values the codec cannot read back exactly are kept in
+ * memory only. Cached rows are shared between callers and must not be modified.
+ */
+public class FetchCache {
+
+    public static final int DEFAULT_MAX_ROWS_IN_MEMORY = 1_000_000;
+
+    private static final String FILE_SUFFIX = ".rec.gz";
+    private static final String HEADER_MARKER = "\u0000schema"; // Never a column name
+
+    private final int maxRowsInMemory;
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<Key, List<Row>> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long rowsInMemory;
+    private final Stats stats = new Stats();
+
+    /**
+     * Loads the rows of an entry on a miss
+     */
+    public interface Loader {
+        List<Row> load() throws SQLException, IOException;
+    }
+
+    /**
+     * What was fetched: table, projection, predicate with parameters, and data version
+     */
+    public static final class Key {
+        private final String table;
+        private final List<String> columns;
+        private final String predicate;
+        private final List<Object> parameters;
+        private final String version;
+
+        /**
+         * @param columns Projected columns; null for all
+         * @param predicate WHERE clause; null for none
+         * @param version Token that changes whenever the table data does
+         */
+        public Key(String table, String[] columns, String predicate, List<Object> parameters, String version) {
+            if (version == null) {
+                throw new IllegalArgumentException("A version token is required; use an epoch if the table has no version");
+            }
+            this.table = table.toLowerCase();
+            this.columns = columns == null ? null : lowercase(columns);
+            this.predicate = predicate;
+            this.parameters = parameters == null ? Collections.emptyList() : new ArrayList<>(parameters);
+            this.version = version;
+        }
+
+        private static List<String> lowercase(String[] columns) {
+            List<String> lower = new ArrayList<>(columns.length);
+            for (String column : columns) {
+                lower.add(column.toLowerCase());
+            }
+            return lower;
+        }
+
+        /**
+         * @return stable file name for the disk tier
+         */
+        String fileName() {
+            String description = table + '\u0000' + columns + '\u0000' + predicate + '\u0000'
+                    + parameters + '\u0000' + version;
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-256").digest(description.getBytes(StandardCharsets.UTF_8));
+                StringBuilder name = new StringBuilder(64 + FILE_SUFFIX.length());
+                for (byte b : hash) {
+                    name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return name.append(FILE_SUFFIX).toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return table.equals(other.table) && Objects.equals(columns, other.columns)
+                    && Objects.equals(predicate, other.predicate) && parameters.equals(other.parameters)
+                    && version.equals(other.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(table, columns, predicate, parameters, version);
+        }
+
+        @Override
+        public String toString() {
+            return table + (columns == null ? "" : columns.toString())
+                    + (predicate == null ? "" : " WHERE " + predicate + " " + parameters) + " @" + version;
+        }
+    }
+
+    /**
+     * Hit, miss and eviction counters
+     */
+    public static final class Stats {
+        private final AtomicLong memoryHits = new AtomicLong();
+        private final AtomicLong diskHits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong memoryEvictions = new AtomicLong();
+        private final AtomicLong diskEvictions = new AtomicLong();
+        private final AtomicLong diskWrites = new AtomicLong();
+
+        public long getMemoryHits() { return memoryHits.get(); }
+        public long getDiskHits() { return diskHits.get(); }
+        public long getMisses() { return misses.get(); }
+        public long getMemoryEvictions() { return memoryEvictions.get(); }
+        public long getDiskEvictions() { return diskEvictions.get(); }
+        public long getDiskWrites() { return diskWrites.get(); }
+
+        /**
+         * @return share of lookups served from either tier
+         */
+        public double getHitRate() {
+            long hits = getMemoryHits() + getDiskHits();
+            long total = hits + getMisses();
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "memoryHits=" + getMemoryHits() + ", diskHits=" + getDiskHits() + ", misses=" + getMisses()
+                + ", memoryEvictions=" + getMemoryEvictions() + ", diskEvictions=" + getDiskEvictions()
+                + ", diskWrites=" + getDiskWrites();
+        }
+    }
+
+    /**
+     * @param maxRowsInMemory Total rows kept on the heap across all entries
+     * @param directory Directory of the disk tier; null keeps entries in memory only
+     * @param maxDiskBytes Size bound of the disk tier; least recently used files go first
+     */
+    public FetchCache(int maxRowsInMemory, Path directory, long maxDiskBytes) throws IOException {
+        this.maxRowsInMemory = maxRowsInMemory;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * Memory-only cache
+     */
+    public FetchCache(int maxRowsInMemory) throws IOException {
+        this(maxRowsInMemory, null, Long.MAX_VALUE);
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Rows of the entry, from memory, then disk, then the loader
+     */
+    public List<Row> get(Key key, Loader loader) throws SQLException, IOException {
+        List<Row> rows;
+        synchronized (this) {
+            rows = memory.get(key);
+        }
+        if (rows != null) {
+            stats.memoryHits.incrementAndGet();
+            return rows;
+        }
+
+        Path file = directory == null ? null : directory.resolve(key.fileName());
+        if (file != null && Files.exists(file)) {
+            rows = readFile(file);
+            if (rows != null) {
+                stats.diskHits.incrementAndGet();
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                remember(key, rows);
+                return rows;
+            }
+        }
+
+        stats.misses.incrementAndGet();
+        rows = Collections.unmodifiableList(new ArrayList<>(loader.load()));
+        remember(key, rows);
+        if (file != null && persistable(rows)) {
+            writeFile(file, rows);
+            trimDisk();
+        }
+        return rows;
+    }
+
+    /**
+     * Rows with values the codec would write as strings stay in memory only,
+     * so a disk hit never returns different values than the loader did
+     */
+    private static boolean persistable(List<Row> rows) {
+        for (Row row : rows) {
+            for (int i = 0; i < row.schema().size(); i++) {
+                if (!RecordCodec.canEncode(row.get(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * SELECT * FROM the table with an optional WHERE clause, through the cache
+     * @param version Token that changes whenever the table data does, see {@link #deltaVersion}
+     */
+    public List<Row> fetch(Connection connection, String tableName, String whereClause,
+                           List<Object> parameters, String version) throws SQLException, IOException {
+        List<Object> params = parameters == null ? Collections.emptyList() : parameters;
+        return get(new Key(tableName, null, whereClause, params, version), () -> {
+            String sql = "SELECT * FROM " + tableName + (whereClause == null ? "" : " WHERE " + whereClause);
+            List<Row> rows = new ArrayList<>();
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < params.size(); i++) {
+                    stmt.setObject(i + 1, params.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    Row.Schema schema = Row.Schema.of(rs.getMetaData());
+                    while (rs.next()) {
+                        rows.add(Row.read(rs, schema));
+                    }
+                }
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Serve scans of a source from the cache. Keyed lookups scan the cached
+     * snapshot too, so a cached table never goes back to the warehouse.
+     */
+    public RecordSource cached(RecordSource source, String tableName, String version) {
+        return (columns, handler) -> {
+            List<Row> rows = get(new Key(tableName, columns, null, null, version), () -> {
+                List<Row> loaded = new ArrayList<>();
+                source.scan(columns, loaded::add);
+                return loaded;
+            });
+            rows.forEach(handler);
+        };
+    }
+
+    /**
+     * Current version of a Delta table, for use as a version token
+     */
+    public static String deltaVersion(Connection connection, String tableName) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("DESCRIBE HISTORY " + tableName + " LIMIT 1")) {
+            if (!rs.next()) {
+                throw new SQLException("No history for " + tableName);
+            }
+            return "delta:" + rs.getLong("version");
+        }
+    }
+
+    /**
+     * Drop every entry from both tiers
+     */
+    public void clear() throws IOException {
+        synchronized (this) {
+            memory.clear();
+            rowsInMemory = 0;
+        }
+        if (directory != null) {
+            for (Path file : cacheFiles()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private synchronized void remember(Key key, List<Row> rows) {
+        if (rows.size() > maxRowsInMemory) {
+            return; // Larger than the whole heap tier; served from disk only
+        }
+        List<Row> previous = memory.put(key, rows);
+        rowsInMemory += rows.size() - (previous == null ? 0 : previous.size());
+
+        Iterator<List<Row>> eldest = memory.values().iterator();
+        while (rowsInMemory > maxRowsInMemory && eldest.hasNext()) {
+            List<Row> evicted = eldest.next();
+            eldest.remove();
+            rowsInMemory -= evicted.size();
+            stats.memoryEvictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * A header record, marked by a reserved key, maps each column name to its
+     * SQL type; the rows that follow carry their values in column order
+     */
+    private void writeFile(Path file, List<Row> rows) throws IOException {
+        Path temporary = Files.createTempFile(directory, "fetch", ".tmp");
+        try {
+            try (RecordCodec.Writer writer = new RecordCodec.Writer(new GZIPOutputStream(Files.newOutputStream(temporary)))) {
+                Row.Schema schema = null;
+                for (Row row : rows) {
+                    if (!row.schema().equals(schema)) {
+                        schema = row.schema();
+                        Map<String, Object> header = new LinkedHashMap<>();
+                        header.put(HEADER_MARKER, Boolean.TRUE);
+                        for (int i = 0; i < schema.size(); i++) {
+                            header.put(schema.name(i), schema.type(i));
+                        }
+                        writer.write(header);
+                    }
+                    writer.write(row);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            stats.diskWrites.incrementAndGet();
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return the cached rows, or null if the file is unreadable and should be refetched
+     */
+    private List<Row> readFile(Path file) {
+        List<Row> rows = new ArrayList<>();
+        try (RecordCodec.Reader reader = new RecordCodec.Reader(new GZIPInputStream(Files.newInputStream(file)))) {
+            Row.Schema schema = null;
+            Map<String, Object> record;
+            while ((record = reader.read()) != null) {
+                if (record.containsKey(HEADER_MARKER)) {
+                    schema = schema(record);
+                } else {
+                    rows.add(new Row(schema, record.values().toArray()));
+                }
+            }
+            return Collections.unmodifiableList(rows);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // Left for the next write to replace
+            }
+            return null;
+        }
+    }
+
+    private static Row.Schema schema(Map<String, Object> header) {
+        String[] names = new String[header.size() - 1];
+        int[] types = new int[names.length];
+        int i = 0;
+        for (Map.Entry<String, Object> column : header.entrySet()) {
+            if (!column.getKey().equals(HEADER_MARKER)) {
+                names[i] = column.getKey();
+                types[i++] = (Integer) column.getValue();
+            }
+        }
+        return Row.Schema.of(names, types);
+    }
+
+    private List<Path> cacheFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> cached = new ArrayList<>();
+            files.filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX)).forEach(cached::add);
+            return cached;
+        }
+    }
+
+    /**
+     * Delete least recently used files until the disk tier fits its bound
+     */
+    private void trimDisk() throws IOException {
+        if (maxDiskBytes == Long.MAX_VALUE) {
+            return;
+        }
+        List<Path> files = cacheFiles();
+        Map<Path, FileTime> used = new HashMap<>();
+        long total = 0;
+        for (Path file : files) {
+            used.put(file, Files.getLastModifiedTime(file));
+            total += Files.size(file);
+        }
+        if (total <= maxDiskBytes) {
+            return;
+        }
+        files.sort(Comparator.comparing(used::get));
+        for (Path file : files) {
+            if (total <= maxDiskBytes) {
+                break;
+            }
+            total -= Files.size(file);
+            Files.deleteIfExists(file);
+            stats.diskEvictions.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Incremental reconciliation against the {@link SnapshotIndex} of the previous run.
+ *
+ * The snapshot holds a key hash and CSV row hash for every record that
+ * matched the database exactly last time, and the key hash of every db-only
+ * row that was still outstanding. A run reconciles only candidates: CSV
+ * records that are new or whose hash changed, keys the database reports as
+ * changed through a {@link ChangeSource}, and snapshot keys that are not in
+ * the CSV, which includes the outstanding db-only rows. Everything else is
+ * known to still agree and is left out of the result, so unmatched CSV
+ * records and db-only rows are reported on every run until they are fixed.
+ * Without a usable snapshot (first run, or a schema or key change) the whole
+ * table is reconciled. Either way a fresh snapshot is written for the next run.
+ *
+ * Rows inserted into the table since the last run are only seen through the
+ * change source. With {@link ChangeSource#none()} they are not reported
+ * until the next full run (delete the snapshot, or use a change source).
+ */
+public class IncrementalMatcher {
+
+    /** Row hash recorded for a key that was db-only, i.e. has no CSV row to hash */
+    static final long DB_ONLY_ROW_HASH = 0x44425F4F4E4C5900L; // "DB_ONLY"
+
+    /** Metadata columns a Delta change data feed adds to each table row */
+    private static final Set<String> CHANGE_FEED_COLUMNS =
+        Set.of("_change_type", "_commit_version", "_commit_timestamp");
+
+    /**
+     * How the database side reports rows changed since the snapshot was taken
+     */
+    public static final class ChangeSource {
+        private final String sqlTemplate;
+        private final List<Object> parameters;
+
+        private ChangeSource(String sqlTemplate, List<Object> parameters) {
+            this.sqlTemplate = sqlTemplate;
+            this.parameters = parameters;
+        }
+
+        /**
+         * No database-side change feed; only CSV changes and known db-only rows are
+         * reconciled, and rows inserted into the table are not seen
+         */
+        public static ChangeSource none() {
+            return new ChangeSource(null, Collections.emptyList());
+        }
+
+        /**
+         * Rows whose watermark column is later than the value, e.g. updated_at
+         */
+        public static ChangeSource watermark(String column, Object since) {
+            return new ChangeSource("SELECT * FROM %s WHERE " + column + " > ?", Collections.singletonList(since));
+        }
+
+        /**
+         * Delta change data feed of every commit after the given table version, in
+         * commit order with deletes first, so the last change of a key is the latest
+         */
+        public static ChangeSource deltaVersion(long sinceVersion) {
+            return new ChangeSource("SELECT * FROM table_changes('%s', " + (sinceVersion + 1) + ")"
+                + " ORDER BY _commit_version, CASE WHEN _change_type = 'delete' THEN 0 ELSE 1 END",
+                Collections.emptyList());
+        }
+    }
+
+    /**
+     * Reconcile only the records that may have changed since the last run
+     * @param csvRecords List of CSV records as Map; the first record's columns are compared
+     * @param connection Database connection
+     * @param tableName Target table name
+     * @param snapshotFile Snapshot of the previous run, replaced on success
+     * @param changes Database-side change feed
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult for the reconciled candidates
+     */
+    public static DatabaseCSVMatcher.MatchResult compareIncremental(List<Map<String, Object>> csvRecords,
+                                                                  Connection connection,
+                                                                  String tableName,
+                                                                  Path snapshotFile,
+                                                                  ChangeSource changes,
+                                                                  String... primaryKeys) throws SQLException, IOException {
+
+        if (csvRecords.isEmpty()) {
+            return new DatabaseCSVMatcher.MatchResult();
+        }
+
+        List<String> keyColumns = new ArrayList<>();
+        for (String primaryKey : primaryKeys) {
+            keyColumns.add(primaryKey.toLowerCase());
+        }
+        List<String> columns = RowDigest.columnsOf(csvRecords.get(0));
+        long fingerprint = fingerprint(connection, tableName, keyColumns, columns);
+
+        DatabaseCSVMatcher.MatchResult result;
+        try (SnapshotIndex snapshot = SnapshotIndex.open(snapshotFile, fingerprint)) {
+            if (snapshot == null) {
+                result = DatabaseCSVMatcher.compareRecords(csvRecords, connection, tableName, primaryKeys);
+            } else {
+                result = compareCandidates(csvRecords, snapshot, connection, tableName, changes,
+                    keyColumns, columns, primaryKeys);
+            }
+        }
+
+        writeSnapshot(snapshotFile, fingerprint, csvRecords, result, keyColumns, columns, primaryKeys);
+        return result;
+    }
+
+    private static DatabaseCSVMatcher.MatchResult compareCandidates(List<Map<String, Object>> csvRecords,
+                                                                  SnapshotIndex snapshot,
+                                                                  Connection connection,
+                                                                  String tableName,
+                                                                  ChangeSource changes,
+                                                                  List<String> keyColumns,
+                                                                  List<String> columns,
+                                                                  String[] primaryKeys) throws SQLException {
+
+        DatabaseCSVMatcher.MatchResult result = new DatabaseCSVMatcher.MatchResult();
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.resolve(connection, tableName, primaryKeys);
+        ComparisonPlan.Compiled comparison = ComparisonPlan.DEFAULT.compile(columns);
+        BitSet seenInCsv = new BitSet(snapshot.size());
+
+        // Step 1: CSV diff against the snapshot
+        Map<CompositeKey, Map<String, Object>> csvRecordsMap = new HashMap<>(csvRecords.size() * 4 / 3 + 1);
+        Map<CompositeKey, Map<String, Object>> candidates = new LinkedHashMap<>();
+
+        for (Map<String, Object> csvRecord : csvRecords) {
+            CompositeKey key = keyLayout.keyOf(csvRecord);
+            if (csvRecordsMap.putIfAbsent(key, csvRecord) != null) {
+                result.addUnmatched(csvRecord);
+                continue;
+            }
+
+            int index = snapshot.indexOf(RowDigest.digest64(csvRecord, keyColumns));
+            if (index >= 0) {
+                seenInCsv.set(index);
+            }
+            if (index < 0 || snapshot.rowHash(index) != RowDigest.digest64(csvRecord, columns)) {
+                candidates.put(key, csvRecord);
+            }
+        }
+
+        Map<CompositeKey, Map<String, Object>> dbRecordsMap = OptimizedDatabaseMatcher.fetchRecordsByKeys(
+            connection, tableName, candidates.keySet(), keyLayout, OptimizedDatabaseMatcher.DEFAULT_MAX_PARAMETERS);
+
+        // Step 2: Database-side changes since the snapshot
+        Set<CompositeKey> deletedInDb = new HashSet<>();
+        if (changes.sqlTemplate != null) {
+            String sql = String.format(changes.sqlTemplate, tableName);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < changes.parameters.size(); i++) {
+                    stmt.setObject(i + 1, changes.parameters.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    int changeType = -1;
+                    List<Integer> tableColumns = new ArrayList<>();
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        String column = metaData.getColumnName(i).toLowerCase();
+                        if (column.equals("_change_type")) {
+                            changeType = i;
+                        }
+                        if (!CHANGE_FEED_COLUMNS.contains(column)) {
+                            tableColumns.add(i);
+                        }
+                    }
+                    // Rows are kept without the change feed columns, like rows read from the table
+                    String[] names = new String[tableColumns.size()];
+                    int[] types = new int[names.length];
+                    for (int i = 0; i < names.length; i++) {
+                        names[i] = metaData.getColumnName(tableColumns.get(i));
+                        types[i] = metaData.getColumnType(tableColumns.get(i));
+                    }
+                    Row.Schema schema = Row.Schema.of(names, types);
+
+                    while (rs.next()) {
+                        Object[] values = new Object[names.length];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = rs.getObject(tableColumns.get(i));
+                        }
+                        Row record = new Row(schema, values);
+                        CompositeKey key = keyLayout.keyOf(record);
+                        String type = changeType < 0 ? null : rs.getString(changeType);
+
+                        if ("update_preimage".equals(type)) {
+                            continue;
+                        }
+                        if ("delete".equals(type)) {
+                            deletedInDb.add(key);
+                            dbRecordsMap.remove(key);
+                        } else {
+                            deletedInDb.remove(key);
+                            dbRecordsMap.put(key, record);
+                        }
+                        Map<String, Object> csvRecord = csvRecordsMap.get(key);
+                        candidates.put(key, csvRecord);
+                    }
+                }
+            }
+        }
+
+        // Step 3: Snapshot keys missing from the CSV are DB-only if the table still has them
+        if (seenInCsv.cardinality() < snapshot.size()) {
+            findRemovedFromCsv(connection, tableName, snapshot, seenInCsv, keyLayout, keyColumns, candidates);
+            List<CompositeKey> missing = new ArrayList<>();
+            for (Map.Entry<CompositeKey, Map<String, Object>> candidate : candidates.entrySet()) {
+                if (candidate.getValue() == null && !dbRecordsMap.containsKey(candidate.getKey())
+                        && !deletedInDb.contains(candidate.getKey())) {
+                    missing.add(candidate.getKey());
+                }
+            }
+            dbRecordsMap.putAll(OptimizedDatabaseMatcher.fetchRecordsByKeys(
+                connection, tableName, missing, keyLayout, OptimizedDatabaseMatcher.DEFAULT_MAX_PARAMETERS));
+        }
+
+        // Step 4: Reconcile the candidates
+        for (Map.Entry<CompositeKey, Map<String, Object>> candidate : candidates.entrySet()) {
+            Map<String, Object> csvRecord = candidate.getValue();
+            Map<String, Object> dbRecord = dbRecordsMap.get(candidate.getKey());
+
+            if (csvRecord != null && dbRecord != null) {
+                result.matched(csvRecord, dbRecord, comparison.differences(csvRecord, dbRecord));
+            } else if (csvRecord != null) {
+                result.addUnmatched(csvRecord);
+            } else if (dbRecord != null) {
+                result.addDbOnly(dbRecord);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Key-only scan that recovers the key values of snapshot entries no longer in the CSV
+     */
+    private static void findRemovedFromCsv(Connection connection, String tableName, SnapshotIndex snapshot,
+                                           BitSet seenInCsv, CompositeKey.Layout keyLayout, List<String> keyColumns,
+                                           Map<CompositeKey, Map<String, Object>> candidates) throws SQLException {
+
+        String sql = "SELECT " + String.join(", ", keyLayout.columns()) + " FROM " + tableName;
+        try (PreparedStatement stmt = connection.prepareStatement(
+                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(10_000);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                Row.Schema schema = Row.Schema.of(rs.getMetaData());
+                while (rs.next()) {
+                    Row keyRow = Row.read(rs, schema);
+                    int index = snapshot.indexOf(RowDigest.digest64(keyRow, keyColumns));
+                    if (index >= 0 && !seenInCsv.get(index)) {
+                        candidates.putIfAbsent(keyLayout.keyOf(keyRow), null);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Record every CSV key that is known to agree with the database after this run,
+     * and every db-only key so the next run checks it again
+     */
+    private static void writeSnapshot(Path snapshotFile, long fingerprint, List<Map<String, Object>> csvRecords,
+                                      DatabaseCSVMatcher.MatchResult result, List<String> keyColumns,
+                                      List<String> columns, String[] primaryKeys) throws IOException {
+
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.of(primaryKeys);
+        Set<CompositeKey> disagreeing = new HashSet<>();
+        for (Map<String, Object> unmatched : result.getUnmatched()) {
+            disagreeing.add(keyLayout.keyOf(unmatched));
+        }
+        for (Map<String, Object> matched : result.getMatched()) {
+            if (!Boolean.TRUE.equals(matched.get("matches"))) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> csvRecord = (Map<String, Object>) matched.get("csv_record");
+                disagreeing.add(keyLayout.keyOf(csvRecord));
+            }
+        }
+
+        long[] keyHashes = new long[csvRecords.size() + result.getDbOnly().size()];
+        long[] rowHashes = new long[keyHashes.length];
+        Set<CompositeKey> written = new HashSet<>();
+        int count = 0;
+
+        for (Map<String, Object> dbRecord : result.getDbOnly()) {
+            if (written.add(keyLayout.keyOf(dbRecord))) {
+                keyHashes[count] = RowDigest.digest64(dbRecord, keyColumns);
+                rowHashes[count] = DB_ONLY_ROW_HASH;
+                count++;
+            }
+        }
+
+        for (Map<String, Object> csvRecord : csvRecords) {
+            CompositeKey key = keyLayout.keyOf(csvRecord);
+            if (disagreeing.contains(key) || !written.add(key)) {
+                continue;
+            }
+            keyHashes[count] = RowDigest.digest64(csvRecord, keyColumns);
+            rowHashes[count] = RowDigest.digest64(csvRecord, columns);
+            count++;
+        }
+
+        SnapshotIndex.write(snapshotFile, fingerprint, keyHashes, rowHashes, count);
+    }
+
+    /**
+     * Hash of the table, key columns and the compared columns with their database types
+     */
+    static long fingerprint(Connection connection, String tableName, List<String> keyColumns,
+                            List<String> columns) throws SQLException {
+
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("table", tableName.toLowerCase());
+        description.put("keys", String.join(",", keyColumns));
+
+        String sql = "SELECT " + String.join(", ", columns) + " FROM " + tableName + " WHERE 1 = 0";
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                description.put(metaData.getColumnName(i).toLowerCase(), metaData.getColumnTypeName(i));
+            }
+        }
+
+        return RowDigest.digest64(description, new ArrayList<>(description.keySet()));
+    }
+}
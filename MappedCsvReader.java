@@ -0,0 +1,518 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streaming CSV source for the matchers, read through memory-mapped windows.
+ *
+ * The file is mapped a window at a time; when a record runs past the end of
+ * a window the next window is mapped from that record's first byte, so the
+ * tokenizer never sees a partial record. Tokenizing records only the byte
+ * offsets of the projected columns, and each row is a lazy Map view that
+ * decodes a field to a String the first time it is read. Once the iterator
+ * moves past a row, the row's bytes are copied out of the window, so rows
+ * kept by the caller never pin a mapped window. Quoted fields
+ * (RFC 4180, with "" escapes and embedded delimiters or line breaks) are
+ * supported. The first line is the header; missing trailing fields read as null.
+ */
+public class MappedCsvReader implements Closeable, Iterable<Map<String, Object>> {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final byte delimiter;
+    private final int initialWindowSize;
+
+    private final Header header;
+    private final int[] projection;
+    private final int lastProjectedField;
+    private final long dataStart;
+
+    /**
+     * Open a comma-separated file
+     * @param file CSV file with a header line
+     * @param columns Columns to expose, or none for every column
+     */
+    public MappedCsvReader(Path file, String... columns) throws IOException {
+        this(file, ',', DEFAULT_WINDOW_SIZE, columns);
+    }
+
+    public MappedCsvReader(Path file, char delimiter, int windowSize, String... columns) throws IOException {
+        if (delimiter > 0x7F || delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+            throw new IllegalArgumentException("Delimiter must be a single-byte character: " + delimiter);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.delimiter = (byte) delimiter;
+        this.initialWindowSize = windowSize;
+
+        try {
+            // Read the header through the same tokenizer, projecting every field
+            Cursor cursor = new Cursor(null, Integer.MAX_VALUE, 16);
+            cursor.skipByteOrderMark();
+            List<String> names = new ArrayList<>();
+            if (cursor.hasRecord()) {
+                Fields fields = cursor.nextRecord();
+                for (int i = 0; i < fields.count; i++) {
+                    names.add(fields.decode(i).trim());
+                }
+            }
+            this.dataStart = cursor.position();
+
+            // Map each file column to its position in the projected row, or -1
+            List<String> projected = columns.length == 0 ? names : Arrays.asList(columns);
+            this.projection = new int[names.size()];
+            Arrays.fill(projection, -1);
+            int last = -1;
+            for (int i = 0; i < projected.size(); i++) {
+                int fileIndex = names.indexOf(projected.get(i));
+                if (fileIndex < 0) {
+                    throw new IllegalArgumentException("Column " + projected.get(i) + " is not in " + file);
+                }
+                projection[fileIndex] = i;
+                last = Math.max(last, fileIndex);
+            }
+            this.lastProjectedField = last;
+            this.header = new Header(projected.toArray(new String[0]));
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return names of the projected columns, in row order
+     */
+    public List<String> columns() {
+        return Collections.unmodifiableList(Arrays.asList(header.names));
+    }
+
+    /**
+     * Lazily read rows. Each call starts again from the first data line.
+     */
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        Cursor cursor = new Cursor(projection, lastProjectedField, header.names.length);
+        cursor.seek(dataStart);
+
+        return new Iterator<Map<String, Object>>() {
+            private CsvRow current;
+
+            @Override
+            public boolean hasNext() {
+                if (cursor.hasRecord()) {
+                    return true;
+                }
+                detachCurrent();
+                return false;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (!cursor.hasRecord()) {
+                    throw new NoSuchElementException();
+                }
+                detachCurrent();
+                current = new CsvRow(header, cursor.nextRecord());
+                return current;
+            }
+
+            private void detachCurrent() {
+                if (current != null) {
+                    current.fields.detach();
+                    current = null;
+                }
+            }
+        };
+    }
+
+    public Stream<Map<String, Object>> stream() {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Read every row into a list for the in-memory matchers
+     */
+    public List<Map<String, Object>> readAll() {
+        List<Map<String, Object>> records = new ArrayList<>();
+        iterator().forEachRemaining(records::add);
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Position in the file plus the currently mapped window
+     */
+    private final class Cursor {
+        private final int[] projection;
+        private final int lastField;
+        private final int rowWidth;
+
+        private MappedByteBuffer window;
+        private long windowStart;
+        private int windowSize = initialWindowSize;
+        private int pos;
+
+        Cursor(int[] projection, int lastField, int rowWidth) {
+            this.projection = projection;
+            this.lastField = lastField;
+            this.rowWidth = rowWidth;
+        }
+
+        long position() {
+            return windowStart + pos;
+        }
+
+        void seek(long position) {
+            map(position);
+        }
+
+        /**
+         * Skip blank lines, then report whether a record follows
+         */
+        boolean hasRecord() {
+            while (position() < fileSize) {
+                if (pos >= window.limit()) {
+                    map(position());
+                }
+                byte b = window.get(pos);
+                if (b != LF && b != CR) {
+                    return true;
+                }
+                pos++;
+            }
+            return false;
+        }
+
+        void skipByteOrderMark() {
+            map(0);
+            if (window.limit() >= 3 && (window.get(0) & 0xFF) == 0xEF
+                    && (window.get(1) & 0xFF) == 0xBB && (window.get(2) & 0xFF) == 0xBF) {
+                pos = 3;
+            }
+        }
+
+        /**
+         * Tokenize the record at the cursor, remapping from its start if it
+         * crosses the end of the window
+         */
+        Fields nextRecord() {
+            while (true) {
+                Fields fields = tokenize();
+                if (fields != null) {
+                    return fields;
+                }
+                if (pos == 0) {
+                    // A single record is larger than the window
+                    if (windowSize > Integer.MAX_VALUE / 2) {
+                        throw new IllegalStateException("CSV record at offset " + windowStart + " exceeds 1 GB");
+                    }
+                    windowSize *= 2;
+                }
+                map(position());
+            }
+        }
+
+        /**
+         * @return the record's fields, or null if the window ends before the record does
+         */
+        private Fields tokenize() {
+            boolean lastWindow = windowStart + window.limit() >= fileSize;
+            int limit = window.limit();
+            Fields fields = new Fields(window, rowWidth);
+
+            int i = pos;
+            int field = 0;
+            while (true) {
+                int start = i;
+                boolean quoted = false;
+
+                if (i < limit && window.get(i) == QUOTE) {
+                    quoted = true;
+                    i++;
+                    while (true) {
+                        if (i >= limit) {
+                            if (lastWindow) {
+                                throw new IllegalStateException("Unterminated quoted field at offset " + (windowStart + start));
+                            }
+                            return null;
+                        }
+                        if (window.get(i) == QUOTE) {
+                            if (i + 1 < limit && window.get(i + 1) == QUOTE) {
+                                i += 2;
+                                continue;
+                            }
+                            if (i + 1 >= limit && !lastWindow) {
+                                return null;
+                            }
+                            i++;
+                            break;
+                        }
+                        i++;
+                    }
+                }
+
+                while (i < limit) {
+                    byte b = window.get(i);
+                    if (b == delimiter || b == LF || b == CR) {
+                        break;
+                    }
+                    i++;
+                }
+                if (i >= limit && !lastWindow) {
+                    return null;
+                }
+
+                if (field <= lastField) {
+                    int target = projection == null ? field : projection[field];
+                    if (target >= 0) {
+                        fields.set(target, start, i, quoted);
+                    }
+                }
+                field++;
+
+                if (i >= limit) {
+                    pos = i;
+                    return fields;
+                }
+                byte b = window.get(i);
+                if (b == delimiter) {
+                    i++;
+                    continue;
+                }
+                if (b == CR) {
+                    if (i + 1 >= limit && !lastWindow) {
+                        return null;
+                    }
+                    if (i + 1 < limit && window.get(i + 1) == LF) {
+                        i++;
+                    }
+                }
+                pos = i + 1;
+                return fields;
+            }
+        }
+
+        private void map(long position) {
+            try {
+                long size = Math.min(windowSize, fileSize - position);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                windowStart = position;
+                pos = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Byte offsets of one record's fields within a mapped window, or within
+     * a copy of the record once detached.
+     */
+    private static final class Fields {
+        private ByteBuffer window;
+        private int[] bounds;
+        private boolean[] quoted;
+        private int count;
+
+        Fields(ByteBuffer window, int capacity) {
+            this.window = window;
+            this.bounds = new int[capacity * 2];
+            this.quoted = new boolean[capacity];
+            Arrays.fill(bounds, -1);
+        }
+
+        void set(int index, int start, int end, boolean isQuoted) {
+            if (index >= quoted.length) {
+                int capacity = Math.max(index + 1, quoted.length * 2);
+                int oldLength = bounds.length;
+                bounds = Arrays.copyOf(bounds, capacity * 2);
+                Arrays.fill(bounds, oldLength, bounds.length, -1);
+                quoted = Arrays.copyOf(quoted, capacity);
+            }
+            bounds[index * 2] = start;
+            bounds[index * 2 + 1] = end;
+            quoted[index] = isQuoted;
+            count = Math.max(count, index + 1);
+        }
+
+        /**
+         * Copy the record's bytes to the heap and release the mapped window
+         */
+        void detach() {
+            int from = Integer.MAX_VALUE;
+            int to = 0;
+            for (int i = 0; i < count; i++) {
+                if (bounds[i * 2] >= 0) {
+                    from = Math.min(from, bounds[i * 2]);
+                    to = Math.max(to, bounds[i * 2 + 1]);
+                }
+            }
+            if (from > to) {
+                from = to;
+            }
+
+            byte[] bytes = new byte[to - from];
+            window.get(from, bytes);
+            for (int i = 0; i < count; i++) {
+                if (bounds[i * 2] >= 0) {
+                    bounds[i * 2] -= from;
+                    bounds[i * 2 + 1] -= from;
+                }
+            }
+            window = ByteBuffer.wrap(bytes);
+        }
+
+        /**
+         * @return the field's text, or null if the record did not have it
+         */
+        String decode(int index) {
+            if (index >= count || bounds[index * 2] < 0) {
+                return null;
+            }
+            int start = bounds[index * 2];
+            int end = bounds[index * 2 + 1];
+            byte[] bytes = new byte[end - start];
+            window.get(start, bytes);
+
+            if (!quoted[index]) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            // Drop the surrounding quotes and collapse "" to "
+            int closing = lastIndexOf(bytes, QUOTE);
+            int length = 0;
+            for (int i = 1; i < bytes.length; i++) {
+                if (i == closing) {
+                    continue;
+                }
+                if (bytes[i] == QUOTE && i + 1 < closing && bytes[i + 1] == QUOTE) {
+                    i++;
+                }
+                bytes[length++] = bytes[i];
+            }
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private static int lastIndexOf(byte[] bytes, byte value) {
+            for (int i = bytes.length - 1; i > 0; i--) {
+                if (bytes[i] == value) {
+                    return i;
+                }
+            }
+            return bytes.length;
+        }
+    }
+
+    /**
+     * Projected column names shared by every row of a reader
+     */
+    private static final class Header {
+        private final String[] names;
+        private final Map<String, Integer> index = new HashMap<>();
+
+        Header(String[] names) {
+            this.names = names;
+            for (int i = 0; i < names.length; i++) {
+                index.putIfAbsent(names[i], i);
+                index.putIfAbsent(names[i].toLowerCase(), i);
+            }
+        }
+
+        int indexOf(Object name) {
+            Integer i = index.get(name);
+            if (i == null && name instanceof String) {
+                i = index.get(((String) name).toLowerCase());
+            }
+            return i == null ? -1 : i;
+        }
+    }
+
+    /**
+     * Lazy row view; a field is decoded on first access and then cached
+     */
+    private static final class CsvRow extends AbstractMap<String, Object> {
+        private final Header header;
+        private final Fields fields;
+        private final String[] values;
+
+        CsvRow(Header header, Fields fields) {
+            this.header = header;
+            this.fields = fields;
+            this.values = new String[header.names.length];
+        }
+
+        private String value(int index) {
+            if (values[index] == null) {
+                values[index] = fields.decode(index);
+            }
+            return values[index];
+        }
+
+        @Override
+        public Object get(Object key) {
+            int index = header.indexOf(key);
+            return index < 0 ? null : value(index);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return header.indexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return header.names.length;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < header.names.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (next >= header.names.length) {
+                                throw new NoSuchElementException();
+                            }
+                            int index = next++;
+                            return new SimpleImmutableEntry<>(header.names[index], value(index));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return header.names.length;
+                }
+            };
+        }
+    }
+}
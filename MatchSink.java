@@ -0,0 +1,343 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Receives reconciliation results as they are produced.
+ *
+ * Matchers report each outcome once: a CSV record paired with its database
+ * row, a CSV record with no database row, or a database row with no CSV
+ * record. Where a matcher settles a record without fetching the row (digest
+ * or checksum agreement) dbRecord is null and differences is empty.
+ * {@link DatabaseCSVMatcher.MatchResult} collects everything in memory; the
+ * sinks here keep only counts, the first differences, or stream to a file.
+ */
+public interface MatchSink {
+
+    /**
+     * @param differences csv_value/db_value pairs by column; empty when the records agree
+     */
+    void matched(Map<String, Object> csvRecord, Map<String, Object> dbRecord, Map<String, Object> differences);
+
+    void unmatched(Map<String, Object> csvRecord);
+
+    void dbOnly(Map<String, Object> dbRecord);
+
+    /**
+     * Wrap a sink so matchers reporting from several threads can share it
+     */
+    static MatchSink synchronizedSink(MatchSink sink) {
+        return new MatchSink() {
+            @Override
+            public synchronized void matched(Map<String, Object> csvRecord, Map<String, Object> dbRecord,
+                                             Map<String, Object> differences) {
+                sink.matched(csvRecord, dbRecord, differences);
+            }
+
+            @Override
+            public synchronized void unmatched(Map<String, Object> csvRecord) {
+                sink.unmatched(csvRecord);
+            }
+
+            @Override
+            public synchronized void dbOnly(Map<String, Object> dbRecord) {
+                sink.dbOnly(dbRecord);
+            }
+        };
+    }
+
+    /**
+     * Counts outcomes without keeping any records
+     */
+    class Counting implements MatchSink {
+        private long matching;
+        private long mismatched;
+        private long unmatched;
+        private long dbOnly;
+
+        @Override
+        public void matched(Map<String, Object> csvRecord, Map<String, Object> dbRecord,
+                            Map<String, Object> differences) {
+            if (differences.isEmpty()) {
+                matching++;
+            } else {
+                mismatched++;
+            }
+        }
+
+        @Override
+        public void unmatched(Map<String, Object> csvRecord) {
+            unmatched++;
+        }
+
+        @Override
+        public void dbOnly(Map<String, Object> dbRecord) {
+            dbOnly++;
+        }
+
+        public long getMatching() { return matching; }
+        public long getMismatched() { return mismatched; }
+        public long getUnmatched() { return unmatched; }
+        public long getDbOnly() { return dbOnly; }
+
+        /**
+         * @return true when every CSV record has an agreeing database row and vice versa
+         */
+        public boolean isClean() {
+            return mismatched == 0 && unmatched == 0 && dbOnly == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "matching=" + matching + ", mismatched=" + mismatched
+                + ", unmatched=" + unmatched + ", dbOnly=" + dbOnly;
+        }
+    }
+
+    /**
+     * Counts every outcome and keeps the first N discrepancies. Entries have
+     * a "type" of mismatch, csv_only or db_only plus csv_record, db_record
+     * and differences where they apply.
+     */
+    class FirstDifferences extends Counting {
+        private final int limit;
+        private final List<Map<String, Object>> differences = new ArrayList<>();
+
+        public FirstDifferences(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void matched(Map<String, Object> csvRecord, Map<String, Object> dbRecord,
+                            Map<String, Object> columnDifferences) {
+            super.matched(csvRecord, dbRecord, columnDifferences);
+            if (!columnDifferences.isEmpty() && differences.size() < limit) {
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("type", "mismatch");
+                entry.put("csv_record", csvRecord);
+                entry.put("db_record", dbRecord);
+                entry.put("differences", columnDifferences);
+                differences.add(entry);
+            }
+        }
+
+        @Override
+        public void unmatched(Map<String, Object> csvRecord) {
+            super.unmatched(csvRecord);
+            if (differences.size() < limit) {
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("type", "csv_only");
+                entry.put("csv_record", csvRecord);
+                differences.add(entry);
+            }
+        }
+
+        @Override
+        public void dbOnly(Map<String, Object> dbRecord) {
+            super.dbOnly(dbRecord);
+            if (differences.size() < limit) {
+                Map<String, Object> entry = new HashMap<>();
+                entry.put("type", "db_only");
+                entry.put("db_record", dbRecord);
+                differences.add(entry);
+            }
+        }
+
+        public List<Map<String, Object>> getDifferences() {
+            return differences;
+        }
+    }
+
+    /**
+     * Streams discrepancies as newline-delimited JSON, one object per line:
+     * {"type":"mismatch","csv":{...},"db":{...},"differences":{"col":{"csv":..,"db":..}}}.
+     * Agreeing matches are written only when requested.
+     */
+    class NdjsonWriter extends Counting implements Closeable {
+        private final Writer out;
+        private final boolean includeMatches;
+
+        public NdjsonWriter(OutputStream output, boolean includeMatches) {
+            this.out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 64 * 1024);
+            this.includeMatches = includeMatches;
+        }
+
+        @Override
+        public void matched(Map<String, Object> csvRecord, Map<String, Object> dbRecord,
+                            Map<String, Object> differences) {
+            super.matched(csvRecord, dbRecord, differences);
+            if (!differences.isEmpty() || includeMatches) {
+                StringBuilder line = new StringBuilder(256);
+                line.append("{\"type\":\"").append(differences.isEmpty() ? "match" : "mismatch").append('"');
+                line.append(",\"csv\":");
+                appendObject(line, csvRecord);
+                if (dbRecord != null) {
+                    line.append(",\"db\":");
+                    appendObject(line, dbRecord);
+                }
+                if (!differences.isEmpty()) {
+                    line.append(",\"differences\":{");
+                    boolean first = true;
+                    for (Map.Entry<String, Object> difference : differences.entrySet()) {
+                        Map<?, ?> values = (Map<?, ?>) difference.getValue();
+                        if (!first) {
+                            line.append(',');
+                        }
+                        first = false;
+                        appendString(line, difference.getKey());
+                        line.append(":{\"csv\":");
+                        appendValue(line, values.get("csv_value"));
+                        line.append(",\"db\":");
+                        appendValue(line, values.get("db_value"));
+                        line.append('}');
+                    }
+                    line.append('}');
+                }
+                writeLine(line.append('}'));
+            }
+        }
+
+        @Override
+        public void unmatched(Map<String, Object> csvRecord) {
+            super.unmatched(csvRecord);
+            StringBuilder line = new StringBuilder(128).append("{\"type\":\"csv_only\",\"csv\":");
+            appendObject(line, csvRecord);
+            writeLine(line.append('}'));
+        }
+
+        @Override
+        public void dbOnly(Map<String, Object> dbRecord) {
+            super.dbOnly(dbRecord);
+            StringBuilder line = new StringBuilder(128).append("{\"type\":\"db_only\",\"db\":");
+            appendObject(line, dbRecord);
+            writeLine(line.append('}'));
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void writeLine(CharSequence line) {
+            try {
+                out.append(line).append('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static void appendObject(StringBuilder json, Map<String, Object> record) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : record.entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendString(json, entry.getKey());
+                json.append(':');
+                appendValue(json, entry.getValue());
+            }
+            json.append('}');
+        }
+
+        private static void appendValue(StringBuilder json, Object value) {
+            if (value == null) {
+                json.append("null");
+            } else if (value instanceof Boolean
+                    || (value instanceof Number && !(value instanceof Double && !Double.isFinite((Double) value)))) {
+                json.append(value);
+            } else {
+                appendString(json, value.toString());
+            }
+        }
+
+        private static void appendString(StringBuilder json, String value) {
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"': json.append("\\\""); break;
+                    case '\\': json.append("\\\\"); break;
+                    case '\n': json.append("\\n"); break;
+                    case '\r': json.append("\\r"); break;
+                    case '\t': json.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            json.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            json.append(c);
+                        }
+                }
+            }
+            json.append('"');
+        }
+    }
+
+    /**
+     * Streams discrepancies in the {@link RecordCodec} format. Each event is
+     * one record: "_type" (mismatch, csv_only, db_only or match), the CSV
+     * columns prefixed "csv.", the database columns prefixed "db." and, for
+     * mismatches, "_differences" with the differing column names joined by commas.
+     */
+    class BinaryWriter extends Counting implements Closeable {
+        private final RecordCodec.Writer out;
+        private final boolean includeMatches;
+
+        public BinaryWriter(OutputStream output, boolean includeMatches) throws IOException {
+            this.out = new RecordCodec.Writer(output);
+            this.includeMatches = includeMatches;
+        }
+
+        @Override
+        public void matched(Map<String, Object> csvRecord, Map<String, Object> dbRecord,
+                            Map<String, Object> differences) {
+            super.matched(csvRecord, dbRecord, differences);
+            if (!differences.isEmpty() || includeMatches) {
+                Map<String, Object> event = event(differences.isEmpty() ? "match" : "mismatch", csvRecord, dbRecord);
+                if (!differences.isEmpty()) {
+                    event.put("_differences", String.join(",", differences.keySet()));
+                }
+                write(event);
+            }
+        }
+
+        @Override
+        public void unmatched(Map<String, Object> csvRecord) {
+            super.unmatched(csvRecord);
+            write(event("csv_only", csvRecord, null));
+        }
+
+        @Override
+        public void dbOnly(Map<String, Object> dbRecord) {
+            super.dbOnly(dbRecord);
+            write(event("db_only", null, dbRecord));
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private static Map<String, Object> event(String type, Map<String, Object> csvRecord,
+                                                 Map<String, Object> dbRecord) {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("_type", type);
+            if (csvRecord != null) {
+                csvRecord.forEach((column, value) -> event.put("csv." + column, value));
+            }
+            if (dbRecord != null) {
+                dbRecord.forEach((column, value) -> event.put("db." + column, value));
+            }
+            return event;
+        }
+
+        private void write(Map<String, Object> event) {
+            try {
+                out.write(event);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
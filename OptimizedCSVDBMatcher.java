@@ -1,147 +1,382 @@
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
 public class OptimizedDatabaseMatcher {
     
+    /** Bind parameters per statement; keeps each query well under driver parameter limits */
+    public static final int DEFAULT_MAX_PARAMETERS = 1000;
+    
+    private static final int KEY_SCAN_FETCH_SIZE = 10_000;
+    private static final int DB_ONLY_FETCH_SLICE = 10 * DEFAULT_MAX_PARAMETERS;
+    
     /**
      * Compare using batch IN queries (more efficient for large datasets)
      */
-    public static MatchResult compareRecordsOptimized(List<Map<String, Object>> csvRecords, 
+    public static DatabaseCSVMatcher.MatchResult compareRecordsOptimized(List<Map<String, Object>> csvRecords, 
                                                     Connection connection, 
                                                     String tableName, 
                                                     String... primaryKeys) throws SQLException {
-        
-        MatchResult result = new MatchResult();
+        return compareRecordsOptimized(csvRecords, connection, tableName, ComparisonPlan.DEFAULT, primaryKeys);
+    }
+    
+    /**
+     * Compare using batch IN queries, with per-column rules from the given plan
+     */
+    public static DatabaseCSVMatcher.MatchResult compareRecordsOptimized(List<Map<String, Object>> csvRecords, 
+                                                    Connection connection, 
+                                                    String tableName, 
+                                                    ComparisonPlan plan, 
+                                                    String... primaryKeys) throws SQLException {
+        DatabaseCSVMatcher.MatchResult result = new DatabaseCSVMatcher.MatchResult();
+        compareRecordsOptimized(csvRecords, connection, tableName, plan, result, primaryKeys);
+        return result;
+    }
+    
+    /**
+     * Compare using batch IN queries, reporting each outcome to the sink
+     */
+    public static void compareRecordsOptimized(List<Map<String, Object>> csvRecords, 
+                                               Connection connection, 
+                                               String tableName, 
+                                               ComparisonPlan plan, 
+                                               MatchSink sink, 
+                                               String... primaryKeys) throws SQLException {
         
         if (csvRecords.isEmpty()) {
-            return result;
+            return;
+        }
+        
+        // Key columns are bound with their JDBC types
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.resolve(connection, tableName, primaryKeys);
+        
+        matchByKeys(csvRecords, connection, tableName, plan, sink, keyLayout);
+    }
+    
+    /**
+     * Compare using batch IN queries and also report the DB rows missing from the CSV
+     */
+    public static DatabaseCSVMatcher.MatchResult compareRecordsComplete(List<Map<String, Object>> csvRecords, 
+                                                    Connection connection, 
+                                                    String tableName, 
+                                                    String... primaryKeys) throws SQLException {
+        return compareRecordsComplete(csvRecords, connection, tableName, ComparisonPlan.DEFAULT, primaryKeys);
+    }
+    
+    public static DatabaseCSVMatcher.MatchResult compareRecordsComplete(List<Map<String, Object>> csvRecords, 
+                                                    Connection connection, 
+                                                    String tableName, 
+                                                    ComparisonPlan plan, 
+                                                    String... primaryKeys) throws SQLException {
+        DatabaseCSVMatcher.MatchResult result = new DatabaseCSVMatcher.MatchResult();
+        compareRecordsComplete(csvRecords, connection, tableName, plan, result, primaryKeys);
+        return result;
+    }
+    
+    /**
+     * Compare using batch IN queries, then find DB-only rows with a key-only scan.
+     * Only the key columns of the table are read in full; each scanned key is
+     * looked up in the CSV key set. Full rows are fetched, in chunks, only for
+     * the keys missing from the CSV.
+     */
+    public static void compareRecordsComplete(List<Map<String, Object>> csvRecords, 
+                                              Connection connection, 
+                                              String tableName, 
+                                              ComparisonPlan plan, 
+                                              MatchSink sink, 
+                                              String... primaryKeys) throws SQLException {
+        
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.resolve(connection, tableName, primaryKeys);
+        
+        Set<CompositeKey> csvKeys = csvRecords.isEmpty() 
+                ? Collections.emptySet() 
+                : matchByKeys(csvRecords, connection, tableName, plan, sink, keyLayout);
+        
+        List<CompositeKey> dbOnlyKeys = scanDbOnlyKeys(connection, tableName, keyLayout, csvKeys);
+        
+        // Fetch the DB-only rows a slice at a time so they are never all held at once
+        for (int from = 0; from < dbOnlyKeys.size(); from += DB_ONLY_FETCH_SLICE) {
+            List<CompositeKey> slice = dbOnlyKeys.subList(from, Math.min(from + DB_ONLY_FETCH_SLICE, dbOnlyKeys.size()));
+            Map<CompositeKey, Map<String, Object>> dbRecords = fetchRecordsByKeys(
+                connection, tableName, slice, keyLayout, DEFAULT_MAX_PARAMETERS);
+            for (CompositeKey key : slice) {
+                Map<String, Object> dbRecord = dbRecords.get(key);
+                if (dbRecord != null) { // Deleted since the scan
+                    sink.dbOnly(dbRecord);
+                }
+            }
         }
+    }
+    
+    /**
+     * Match the CSV records with the rows fetched by their keys
+     * @return the distinct CSV keys
+     */
+    private static Set<CompositeKey> matchByKeys(List<Map<String, Object>> csvRecords, 
+                                                 Connection connection, 
+                                                 String tableName, 
+                                                 ComparisonPlan plan, 
+                                                 MatchSink sink, 
+                                                 CompositeKey.Layout keyLayout) throws SQLException {
+        
+        ComparisonPlan.Compiled comparison = plan.compile(RowDigest.columnsOf(csvRecords.get(0)));
         
         // Group CSV records by composite key
-        Map<String, Map<String, Object>> csvRecordsMap = csvRecords.stream()
-                .collect(Collectors.toMap(
-                    record -> createCompositeKey(record, primaryKeys),
-                    record -> record,
-                    (existing, replacement) -> existing // Handle duplicates
-                ));
+        Map<CompositeKey, Map<String, Object>> csvRecordsMap = groupByKey(csvRecords, keyLayout, tableName);
         
         // Fetch matching DB records using batch query
-        Map<String, Map<String, Object>> dbRecordsMap = fetchRecordsByKeys(
-            connection, tableName, csvRecordsMap.keySet(), primaryKeys);
+        Map<CompositeKey, Map<String, Object>> dbRecordsMap = fetchRecordsByKeys(
+            connection, tableName, csvRecordsMap.keySet(), keyLayout);
+        
+        matchRecords(csvRecordsMap, dbRecordsMap, comparison, sink, tableName);
+        return csvRecordsMap.keySet();
+    }
+    
+    /**
+     * Read every key of the table and keep those not among the CSV keys, in scan order.
+     * A key the table holds more than once is kept once; its row is fetched by key anyway.
+     */
+    static List<CompositeKey> scanDbOnlyKeys(Connection connection, String tableName, 
+                                             CompositeKey.Layout keyLayout, 
+                                             Set<CompositeKey> csvKeys) throws SQLException {
         
-        // Compare records
-        for (Map.Entry<String, Map<String, Object>> csvEntry : csvRecordsMap.entrySet()) {
-            String compositeKey = csvEntry.getKey();
-            Map<String, Object> csvRecord = csvEntry.getValue();
+        Set<CompositeKey> dbOnlyKeys = new LinkedHashSet<>();
+        String sql = "SELECT " + String.join(", ", keyLayout.columns()) + " FROM " + tableName;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(
+                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
             
-            if (dbRecordsMap.containsKey(compositeKey)) {
-                Map<String, Object> dbRecord = dbRecordsMap.get(compositeKey);
-                
-                Map<String, Object> matchedRecord = new HashMap<>();
-                matchedRecord.put("csv_record", csvRecord);
-                matchedRecord.put("db_record", dbRecord);
-                matchedRecord.put("matches", recordsMatch(csvRecord, dbRecord));
-                matchedRecord.put("differences", findDifferences(csvRecord, dbRecord));
-                
-                result.addMatched(matchedRecord);
-            } else {
-                result.addUnmatched(csvRecord);
+            stmt.setFetchSize(KEY_SCAN_FETCH_SIZE);
+            
+            try (ResultSet rs = ReconciliationMetrics.executePrepared(stmt, sql);
+                 ReconciliationMetrics.Timer fetch = ReconciliationMetrics.start(
+                         ReconciliationMetrics.Phase.FETCH, tableName)) {
+                long scanned = 0;
+                while (rs.next()) {
+                    CompositeKey key = keyLayout.keyOf(rs);
+                    if (!csvKeys.contains(key)) {
+                        dbOnlyKeys.add(key);
+                    }
+                    scanned++;
+                }
+                fetch.rows(scanned);
             }
         }
         
+        return new ArrayList<>(dbOnlyKeys);
+    }
+    
+    /**
+     * Compare against any record source, fetching only the records whose keys appear in the CSV
+     */
+    public static DatabaseCSVMatcher.MatchResult compareRecordsOptimized(List<Map<String, Object>> csvRecords, 
+                                                    RecordSource source, 
+                                                    String... primaryKeys) throws SQLException, IOException {
+        DatabaseCSVMatcher.MatchResult result = new DatabaseCSVMatcher.MatchResult();
+        compareRecordsOptimized(csvRecords, source, ComparisonPlan.DEFAULT, result, primaryKeys);
         return result;
     }
     
     /**
-     * Fetch specific records using IN clause with composite keys
+     * Compare against any record source, reporting each outcome to the sink
      */
-    private static Map<String, Map<String, Object>> fetchRecordsByKeys(
-            Connection connection, String tableName, Set<String> compositeKeys, String[] primaryKeys) throws SQLException {
+    public static void compareRecordsOptimized(List<Map<String, Object>> csvRecords, 
+                                               RecordSource source, 
+                                               ComparisonPlan plan, 
+                                               MatchSink sink, 
+                                               String... primaryKeys) throws SQLException, IOException {
+        
+        if (csvRecords.isEmpty()) {
+            return;
+        }
+        
+        ComparisonPlan.Compiled comparison = plan.compile(RowDigest.columnsOf(csvRecords.get(0)));
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.of(primaryKeys);
+        
+        Map<CompositeKey, Map<String, Object>> csvRecordsMap = groupByKey(csvRecords, keyLayout, null);
+        Map<CompositeKey, Map<String, Object>> dbRecordsMap;
+        try (ReconciliationMetrics.Timer fetch = ReconciliationMetrics.start(
+                ReconciliationMetrics.Phase.FETCH, null)) {
+            dbRecordsMap = source.lookup(csvRecordsMap.keySet(), keyLayout, comparison.projection(keyLayout));
+            fetch.rows(dbRecordsMap.size());
+        }
+        
+        matchRecords(csvRecordsMap, dbRecordsMap, comparison, sink, null);
+    }
+    
+    /**
+     * Group CSV records by composite key; the first record wins when a key repeats
+     */
+    private static Map<CompositeKey, Map<String, Object>> groupByKey(List<Map<String, Object>> csvRecords, 
+                                                                    CompositeKey.Layout keyLayout, 
+                                                                    String tableName) {
+        try (ReconciliationMetrics.Timer keyBuild = ReconciliationMetrics.start(
+                ReconciliationMetrics.Phase.KEY_BUILD, tableName)) {
+            Map<CompositeKey, Map<String, Object>> csvRecordsMap = new HashMap<>(csvRecords.size() * 4 / 3 + 1);
+            for (Map<String, Object> record : csvRecords) {
+                csvRecordsMap.putIfAbsent(keyLayout.keyOf(record), record); // Handle duplicates
+            }
+            keyBuild.rows(csvRecords.size());
+            return csvRecordsMap;
+        }
+    }
+    
+    private static void matchRecords(Map<CompositeKey, Map<String, Object>> csvRecordsMap, 
+                                     Map<CompositeKey, Map<String, Object>> dbRecordsMap, 
+                                     ComparisonPlan.Compiled comparison, 
+                                     MatchSink sink, 
+                                     String tableName) {
         
-        Map<String, Map<String, Object>> dbRecords = new HashMap<>();
+        try (ReconciliationMetrics.Timer compare = ReconciliationMetrics.start(
+                ReconciliationMetrics.Phase.COMPARE, tableName)) {
+            MatchSink timedSink = compare.assembling(sink);
+            
+            // Compare records
+            for (Map.Entry<CompositeKey, Map<String, Object>> csvEntry : csvRecordsMap.entrySet()) {
+                Map<String, Object> csvRecord = csvEntry.getValue();
+                Map<String, Object> dbRecord = dbRecordsMap.get(csvEntry.getKey());
+                
+                if (dbRecord != null) {
+                    timedSink.matched(csvRecord, dbRecord, comparison.differences(csvRecord, dbRecord));
+                } else {
+                    timedSink.unmatched(csvRecord);
+                }
+            }
+            compare.rows(csvRecordsMap.size());
+        }
+    }
+    
+    /**
+     * Fetch specific records using IN clause with composite keys, one chunk of keys at a time
+     */
+    private static Map<CompositeKey, Map<String, Object>> fetchRecordsByKeys(
+            Connection connection, String tableName, Set<CompositeKey> compositeKeys, 
+            CompositeKey.Layout keyLayout) throws SQLException {
+        return fetchRecordsByKeys(connection, tableName, compositeKeys, keyLayout, DEFAULT_MAX_PARAMETERS);
+    }
+    
+    /**
+     * Fetch specific records in chunks that bind at most maxParameters values, i.e.
+     * maxParameters / key columns keys per chunk. Every chunk of the same size reuses
+     * one PreparedStatement, so at most two statements are prepared.
+     */
+    static Map<CompositeKey, Map<String, Object>> fetchRecordsByKeys(
+            Connection connection, String tableName, Collection<CompositeKey> compositeKeys, 
+            CompositeKey.Layout keyLayout, int maxParameters) throws SQLException {
+        
+        int chunkSize = Math.max(1, maxParameters / keyLayout.size());
+        
+        Map<CompositeKey, Map<String, Object>> dbRecords = new HashMap<>();
         
         if (compositeKeys.isEmpty()) {
             return dbRecords;
         }
         
-        // Build WHERE clause for composite keys
-        String whereClause = buildWhereClause(compositeKeys, primaryKeys);
-        String sql = "SELECT * FROM " + tableName + " WHERE " + whereClause;
+        boolean rowValues = keyLayout.size() > 1 && supportsRowValueIn(connection);
+        Map<Integer, PreparedStatement> statements = new HashMap<>();
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            
-            // Set parameters for composite keys
-            int paramIndex = 1;
-            for (String compositeKey : compositeKeys) {
-                String[] keyParts = compositeKey.split("\\|\\|");
-                for (String keyPart : keyParts) {
-                    stmt.setObject(paramIndex++, keyPart);
+        try {
+            List<CompositeKey> chunk = new ArrayList<>(Math.min(chunkSize, compositeKeys.size()));
+            for (CompositeKey compositeKey : compositeKeys) {
+                chunk.add(compositeKey);
+                if (chunk.size() == chunkSize) {
+                    fetchChunk(connection, statements, tableName, chunk, keyLayout, rowValues, dbRecords);
+                    chunk.clear();
                 }
             }
+            if (!chunk.isEmpty()) {
+                fetchChunk(connection, statements, tableName, chunk, keyLayout, rowValues, dbRecords);
+            }
+        } finally {
+            for (PreparedStatement stmt : statements.values()) {
+                stmt.close();
+            }
+        }
+        
+        return dbRecords;
+    }
+    
+    private static void fetchChunk(Connection connection, Map<Integer, PreparedStatement> statements, 
+                                   String tableName, List<CompositeKey> chunk, CompositeKey.Layout keyLayout, 
+                                   boolean rowValues, Map<CompositeKey, Map<String, Object>> dbRecords) throws SQLException {
+        
+        PreparedStatement stmt = statements.get(chunk.size());
+        if (stmt == null) {
+            String sql = "SELECT * FROM " + tableName + " WHERE " 
+                    + buildWhereClause(chunk.size(), keyLayout.columns(), rowValues);
+            stmt = connection.prepareStatement(sql);
+            statements.put(chunk.size(), stmt);
+        }
+        
+        // Set parameters for composite keys
+        int paramIndex = 1;
+        for (CompositeKey compositeKey : chunk) {
+            paramIndex = keyLayout.bind(stmt, paramIndex, compositeKey);
+        }
+        
+        // The full IN list is not worth rebuilding per chunk just to label the query event
+        String queryLabel = ReconciliationMetrics.isEnabled() 
+                ? "SELECT * FROM " + tableName + " WHERE <" + chunk.size() + " keys>" : null;
+        
+        try (ResultSet rs = ReconciliationMetrics.executePrepared(stmt, queryLabel)) {
             
-            try (ResultSet rs = stmt.executeQuery()) {
-                ResultSetMetaData metaData = rs.getMetaData();
-                int columnCount = metaData.getColumnCount();
+            try (ReconciliationMetrics.Timer fetch = ReconciliationMetrics.start(
+                    ReconciliationMetrics.Phase.FETCH, tableName)) {
+                Row.Schema schema = Row.Schema.of(rs.getMetaData());
                 
                 while (rs.next()) {
-                    Map<String, Object> record = new HashMap<>();
-                    
-                    for (int i = 1; i <= columnCount; i++) {
-                        String columnName = metaData.getColumnName(i);
-                        Object value = rs.getObject(i);
-                        record.put(columnName.toLowerCase(), value);
-                    }
-                    
-                    String compositeKey = createCompositeKey(record, primaryKeys);
-                    dbRecords.put(compositeKey, record);
+                    Row record = Row.read(rs, schema);
+                    fetch.row(record);
+                    dbRecords.put(keyLayout.keyOf(record), record);
                 }
             }
         }
-        
-        return dbRecords;
     }
     
     /**
-     * Build WHERE clause for multiple composite keys
+     * Whether the database accepts row-value lists such as (a, b) IN ((?, ?), (?, ?))
+     */
+    static boolean supportsRowValueIn(Connection connection) throws SQLException {
+        String product = connection.getMetaData().getDatabaseProductName();
+        if (product == null) {
+            return false;
+        }
+        product = product.toLowerCase();
+        return product.contains("postgres") || product.contains("mysql") || product.contains("mariadb")
+                || product.contains("h2") || product.contains("oracle") || product.contains("db2")
+                || product.contains("spark") || product.contains("databricks");
+    }
+    
+    /**
+     * Build WHERE clause for a chunk of composite keys
      */
-    private static String buildWhereClause(Set<String> compositeKeys, String[] primaryKeys) {
+    static String buildWhereClause(int keyCount, String[] primaryKeys, boolean rowValues) {
         if (primaryKeys.length == 1) {
             // Single primary key - use simple IN clause
-            String placeholders = compositeKeys.stream()
-                    .map(key -> "?")
-                    .collect(Collectors.joining(","));
-            return primaryKeys[0] + " IN (" + placeholders + ")";
+            return primaryKeys[0] + " IN (" + repeat("?", ",", keyCount) + ")";
+        } else if (rowValues) {
+            // Multiple primary keys - use row-value IN list
+            String tuple = "(" + repeat("?", ", ", primaryKeys.length) + ")";
+            return "(" + String.join(", ", primaryKeys) + ") IN (" + repeat(tuple, ", ", keyCount) + ")";
         } else {
             // Multiple primary keys - use OR conditions
             String condition = Arrays.stream(primaryKeys)
                     .map(key -> key + " = ?")
                     .collect(Collectors.joining(" AND "));
             
-            String orConditions = compositeKeys.stream()
-                    .map(key -> "(" + condition + ")")
-                    .collect(Collectors.joining(" OR "));
-            
-            return orConditions;
+            return repeat("(" + condition + ")", " OR ", keyCount);
         }
     }
     
-    /**
-     * Find differences between CSV and DB records
-     */
-    private static Map<String, Object> findDifferences(Map<String, Object> csvRecord, 
-                                                      Map<String, Object> dbRecord) {
-        Map<String, Object> differences = new HashMap<>();
-        
-        for (Map.Entry<String, Object> entry : csvRecord.entrySet()) {
-            String key = entry.getKey().toLowerCase();
-            Object csvValue = entry.getValue();
-            Object dbValue = dbRecord.get(key);
-            
-            if (!Objects.equals(csvValue, dbValue)) {
-                Map<String, Object> diff = new HashMap<>();
-                diff.put("csv_value", csvValue);
-                diff.put("db_value", dbValue);
-                differences.put(key, diff);
+    private static String repeat(String item, String separator, int count) {
+        StringBuilder sb = new StringBuilder((item.length() + separator.length()) * count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(separator);
             }
+            sb.append(item);
         }
-        
-        return differences;
+        return sb.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,290 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.sql.DataSource;
+
+/**
+ * Range-partitioned reconciliation that fetches the DB side over several connections.
+ *
+ * The first primary key column is split into ranges, either evenly between
+ * MIN and MAX for integer keys or at NTILE quantiles for everything else.
+ * Each range is fetched on its own pooled connection and reconciled against
+ * the CSV records that fall into it; the partial results are then merged.
+ *
+ * CSV records are routed with the order of the partition column's type
+ * ({@link CompositeKey.Layout#comparator()}), so with a binary collation
+ * every record lands in the range that holds its DB row. Under any other
+ * collation a record can still be routed elsewhere; such records come out
+ * of their partition unmatched and their DB rows as db-only, so these
+ * leftovers are held back and paired by key once all partitions are done.
+ */
+public class ParallelDatabaseMatcher {
+
+    /**
+     * Compare CSV records with database records, fetching partitions in parallel
+     * @param csvRecords List of CSV records as Map
+     * @param dataSource Source of connections, one is held per partition
+     * @param tableName Target table name
+     * @param partitions Number of key ranges to fetch concurrently
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
+     */
+    public static DatabaseCSVMatcher.MatchResult compareRecordsParallel(List<Map<String, Object>> csvRecords,
+                                                                      DataSource dataSource,
+                                                                      String tableName,
+                                                                      int partitions,
+                                                                      String... primaryKeys) throws SQLException {
+        DatabaseCSVMatcher.MatchResult result = new DatabaseCSVMatcher.MatchResult();
+        compareRecordsParallel(csvRecords, dataSource, tableName, partitions, result, primaryKeys);
+        return result;
+    }
+
+    /**
+     * Compare over concurrent key ranges, reporting each outcome to the sink.
+     * Partitions report concurrently, so outcomes of different ranges
+     * interleave; calls into the sink are serialised, so it need not be thread-safe.
+     */
+    public static void compareRecordsParallel(List<Map<String, Object>> csvRecords,
+                                              DataSource dataSource,
+                                              String tableName,
+                                              int partitions,
+                                              MatchSink sink,
+                                              String... primaryKeys) throws SQLException {
+
+        if (csvRecords.isEmpty()) {
+            return;
+        }
+
+        MatchSink sharedSink = MatchSink.synchronizedSink(sink);
+
+        ComparisonPlan.Compiled comparison = ComparisonPlan.DEFAULT.compile(RowDigest.columnsOf(csvRecords.get(0)));
+        String partitionColumn = primaryKeys[0];
+        CompositeKey.Layout keyLayout;
+        List<Object> splitPoints;
+        try (Connection connection = dataSource.getConnection()) {
+            keyLayout = CompositeKey.Layout.resolve(connection, tableName, primaryKeys);
+            splitPoints = findSplitPoints(connection, tableName, partitionColumn, partitions);
+        }
+        int partitionType = keyLayout.sqlType(0);
+
+        // Route CSV records to the range that owns their partition key
+        List<List<Map<String, Object>>> csvPartitions = new ArrayList<>();
+        for (int i = 0; i <= splitPoints.size(); i++) {
+            csvPartitions.add(new ArrayList<>());
+        }
+        for (Map<String, Object> csvRecord : csvRecords) {
+            Object value = csvRecord.get(partitionColumn.toLowerCase());
+            csvPartitions.get(partitionOf(value, splitPoints, partitionType)).add(csvRecord);
+        }
+
+        Queue<Map<String, Object>> strayCsv = new ConcurrentLinkedQueue<>();
+        Map<CompositeKey, Map<String, Object>> strayDb = new ConcurrentHashMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(csvPartitions.size());
+        List<Future<Void>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < csvPartitions.size(); i++) {
+                final int partition = i;
+                futures.add(executor.submit(() -> {
+                    reconcilePartition(csvPartitions.get(partition), dataSource, tableName, partitionColumn,
+                        splitPoints, partition, comparison, sharedSink, keyLayout, strayCsv, strayDb);
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while fetching partitions of " + tableName, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Failed to fetch a partition of " + tableName, e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+            executor.shutdownNow();
+        }
+
+        // Records routed to another range than their DB row; empty under a binary collation
+        for (Map<String, Object> csvRecord : strayCsv) {
+            Map<String, Object> dbRecord = strayDb.remove(keyLayout.keyOf(csvRecord));
+
+            if (dbRecord != null) {
+                sink.matched(csvRecord, dbRecord, comparison.differences(csvRecord, dbRecord));
+            } else {
+                sink.unmatched(csvRecord);
+            }
+        }
+        strayDb.values().forEach(sink::dbOnly);
+    }
+
+    /**
+     * Fetch one key range and reconcile it like compareRecords, adding per-column differences.
+     * Unmatched CSV records and db-only rows are not reported but added to the stray collections.
+     */
+    private static void reconcilePartition(List<Map<String, Object>> csvRecords,
+                                           DataSource dataSource,
+                                           String tableName,
+                                           String partitionColumn,
+                                           List<Object> splitPoints,
+                                           int partition,
+                                           ComparisonPlan.Compiled comparison,
+                                           MatchSink sink,
+                                           CompositeKey.Layout keyLayout,
+                                           Queue<Map<String, Object>> strayCsv,
+                                           Map<CompositeKey, Map<String, Object>> strayDb) throws SQLException {
+
+        List<Object> parameters = new ArrayList<>();
+        String whereClause = buildRangeClause(partitionColumn, splitPoints, partition, parameters);
+
+        Map<CompositeKey, Map<String, Object>> dbRecordsMap;
+        try (Connection connection = dataSource.getConnection()) {
+            dbRecordsMap = DatabaseCSVMatcher.fetchDatabaseRecords(
+                connection, tableName, whereClause, parameters, keyLayout);
+        }
+
+        for (Map<String, Object> csvRecord : csvRecords) {
+            Map<String, Object> dbRecord = dbRecordsMap.remove(keyLayout.keyOf(csvRecord));
+
+            if (dbRecord != null) {
+                sink.matched(csvRecord, dbRecord, comparison.differences(csvRecord, dbRecord));
+            } else {
+                strayCsv.add(csvRecord);
+            }
+        }
+
+        strayDb.putAll(dbRecordsMap);
+    }
+
+    /**
+     * Find partitions - 1 split points for the column. Integer keys are split evenly
+     * between MIN and MAX; other types use NTILE quantiles over the column.
+     */
+    static List<Object> findSplitPoints(Connection connection, String tableName,
+                                        String column, int partitions) throws SQLException {
+
+        if (partitions <= 1) {
+            return Collections.emptyList();
+        }
+
+        Object min;
+        Object max;
+        String rangeSql = "SELECT MIN(" + column + "), MAX(" + column + ") FROM " + tableName;
+        try (PreparedStatement stmt = connection.prepareStatement(rangeSql);
+             ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                return Collections.emptyList();
+            }
+            min = rs.getObject(1);
+            max = rs.getObject(2);
+        }
+
+        if (min == null || max == null) {
+            return Collections.emptyList();
+        }
+
+        BigInteger low = toInteger(min);
+        BigInteger high = toInteger(max);
+        if (low != null && high != null) {
+            return evenSplitPoints(low, high, partitions);
+        }
+
+        return quantileSplitPoints(connection, tableName, column, partitions);
+    }
+
+    private static List<Object> evenSplitPoints(BigInteger low, BigInteger high, int partitions) {
+        List<Object> splitPoints = new ArrayList<>();
+        BigInteger width = high.subtract(low).add(BigInteger.ONE);
+
+        for (int i = 1; i < partitions; i++) {
+            BigInteger point = low.add(width.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(partitions)));
+            Object value = point.bitLength() < 64 ? (Object) point.longValue() : new BigDecimal(point);
+            if (point.compareTo(low) > 0 && (splitPoints.isEmpty() || !splitPoints.get(splitPoints.size() - 1).equals(value))) {
+                splitPoints.add(value);
+            }
+        }
+        return splitPoints;
+    }
+
+    private static List<Object> quantileSplitPoints(Connection connection, String tableName,
+                                                    String column, int partitions) throws SQLException {
+
+        String sql = "SELECT MIN(" + column + ") AS lower_bound FROM (SELECT " + column
+                + ", NTILE(" + partitions + ") OVER (ORDER BY " + column + ") AS bucket FROM "
+                + tableName + " WHERE " + column + " IS NOT NULL) q GROUP BY bucket ORDER BY 1";
+
+        List<Object> splitPoints = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            boolean first = true;
+            while (rs.next()) {
+                Object lowerBound = rs.getObject(1);
+                // The lowest bucket starts at MIN, which is not a split point
+                if (!first && !splitPoints.contains(lowerBound)) {
+                    splitPoints.add(lowerBound);
+                }
+                first = false;
+            }
+        }
+        return splitPoints;
+    }
+
+    private static BigInteger toInteger(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigInteger.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof BigInteger) {
+            return (BigInteger) value;
+        }
+        if (value instanceof BigDecimal && ((BigDecimal) value).stripTrailingZeros().scale() <= 0) {
+            return ((BigDecimal) value).toBigInteger();
+        }
+        return null;
+    }
+
+    /**
+     * Index of the range owning the value; nulls belong to the first range
+     * @param sqlType JDBC type of the partition column, which decides how values are ordered
+     */
+    static int partitionOf(Object value, List<Object> splitPoints, int sqlType) {
+        if (value == null) {
+            return 0;
+        }
+        Object normalized = CompositeKey.normalize(value);
+        int low = 0;
+        int high = splitPoints.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (CompositeKey.compareValues(normalized, CompositeKey.normalize(splitPoints.get(mid)), sqlType) >= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String buildRangeClause(String column, List<Object> splitPoints,
+                                           int partition, List<Object> parameters) {
+        if (splitPoints.isEmpty()) {
+            return null;
+        }
+        if (partition == 0) {
+            parameters.add(splitPoints.get(0));
+            return "(" + column + " < ? OR " + column + " IS NULL)";
+        }
+        if (partition == splitPoints.size()) {
+            parameters.add(splitPoints.get(partition - 1));
+            return column + " >= ?";
+        }
+        parameters.add(splitPoints.get(partition - 1));
+        parameters.add(splitPoints.get(partition));
+        return column + " >= ? AND " + column + " < ?";
+    }
+}
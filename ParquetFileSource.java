@@ -0,0 +1,65 @@
+import org.apache.arrow.dataset.file.FileFormat;
+import org.apache.arrow.dataset.file.FileSystemDatasetFactory;
+import org.apache.arrow.dataset.jni.NativeMemoryPool;
+import org.apache.arrow.dataset.scanner.ScanOptions;
+import org.apache.arrow.dataset.scanner.Scanner;
+import org.apache.arrow.dataset.source.Dataset;
+import org.apache.arrow.dataset.source.DatasetFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.ipc.ArrowReader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Reads an exported table from Parquet files.
+ *
+ * The path may name one file or a directory of part files, as written by a
+ * Databricks export. Row groups are read through the Arrow dataset scanner,
+ * which prunes unprojected columns on read, and decoded into {@link Row}s
+ * by {@link ColumnarFileSource}, so values get the same types as from an
+ * Arrow IPC export. Needs arrow-dataset, which bundles a native library.
+ */
+public class ParquetFileSource implements RecordSource {
+
+    /** Rows per scan batch */
+    public static final int DEFAULT_BATCH_SIZE = 32_768;
+
+    private final Path path;
+    private final int batchSize;
+
+    public ParquetFileSource(Path path, int batchSize) {
+        this.path = path;
+        this.batchSize = batchSize;
+    }
+
+    public static ParquetFileSource parquet(Path path) {
+        return new ParquetFileSource(path, DEFAULT_BATCH_SIZE);
+    }
+
+    @Override
+    public void scan(String[] columns, Consumer<? super Row> handler) throws IOException {
+        try (BufferAllocator allocator = new RootAllocator();
+             DatasetFactory factory = new FileSystemDatasetFactory(
+                    allocator, NativeMemoryPool.getDefault(), FileFormat.PARQUET, path.toUri().toString())) {
+
+            Optional<String[]> projection = Optional.empty();
+            if (columns != null) {
+                projection = Optional.of(ColumnarFileSource.resolve(factory.inspect().getFields(), columns));
+            }
+
+            try (Dataset dataset = factory.finish();
+                 Scanner scanner = dataset.newScan(new ScanOptions(batchSize, projection));
+                 ArrowReader reader = scanner.scanBatches()) {
+                ColumnarFileSource.readBatches(reader, null, handler);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to read " + path, e);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.sql.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs SQL queries concurrently against one warehouse.
+ *
+ * Each query borrows its own connection from the data source (normally a
+ * {@link DatabricksConnectionPool}) and streams its rows to a
+ * {@link RowHandler} instead of printing them. A semaphore caps how many
+ * queries run on the warehouse at once; the rest wait in submission order.
+ * Queries run on virtual threads when the JVM has them (Java 21+), and on
+ * a fixed pool of platform threads otherwise. Every query can be cancelled
+ * or given a timeout, and reports its queue time and latency.
+ */
+public class QueryRunner implements Closeable {
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    private final DataSource dataSource;
+    private final Semaphore permits;
+    private final Duration defaultTimeout;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final ScheduledExecutorService watchdog;
+    private final Set<Query> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Receives the rows of one query. Handlers are called from the
+     * query's thread, so a handler shared between queries must be thread-safe.
+     */
+    public interface RowHandler {
+
+        /**
+         * Called once before the first row
+         */
+        default void start(ResultSetMetaData metaData) throws SQLException, IOException {
+        }
+
+        /**
+         * Called with the result set positioned on each row in turn
+         */
+        void row(ResultSet resultSet) throws SQLException, IOException;
+
+        /**
+         * Called after the last row of a query that completed
+         */
+        default void end() throws IOException {
+        }
+
+        /**
+         * Write a header and one delimited line per row. The writer is
+         * buffered here if it is not already, flushed at the end and left open.
+         */
+        static RowHandler delimited(Writer out, char delimiter) {
+            Writer writer = out instanceof BufferedWriter ? out : new BufferedWriter(out, 64 * 1024);
+            return new RowHandler() {
+                private int columnCount;
+
+                @Override
+                public void start(ResultSetMetaData metaData) throws SQLException, IOException {
+                    columnCount = metaData.getColumnCount();
+                    for (int i = 1; i <= columnCount; i++) {
+                        if (i > 1) {
+                            writer.write(delimiter);
+                        }
+                        writer.write(metaData.getColumnName(i));
+                    }
+                    writer.write('\n');
+                }
+
+                @Override
+                public void row(ResultSet resultSet) throws SQLException, IOException {
+                    for (int i = 1; i <= columnCount; i++) {
+                        if (i > 1) {
+                            writer.write(delimiter);
+                        }
+                        writer.write(String.valueOf(resultSet.getString(i)));
+                    }
+                    writer.write('\n');
+                }
+
+                @Override
+                public void end() throws IOException {
+                    writer.flush();
+                }
+            };
+        }
+    }
+
+    /**
+     * Outcome of a completed query
+     */
+    public static final class QueryResult {
+        private final String sql;
+        private final long rowCount;
+        private final Duration queueTime;
+        private final Duration timeToFirstRow;
+        private final Duration latency;
+
+        QueryResult(String sql, long rowCount, Duration queueTime, Duration timeToFirstRow, Duration latency) {
+            this.sql = sql;
+            this.rowCount = rowCount;
+            this.queueTime = queueTime;
+            this.timeToFirstRow = timeToFirstRow;
+            this.latency = latency;
+        }
+
+        public String getSql() { return sql; }
+        public long getRowCount() { return rowCount; }
+
+        /**
+         * @return time spent waiting for a concurrency slot
+         */
+        public Duration getQueueTime() { return queueTime; }
+
+        /**
+         * @return time from starting execution until the first row (or the empty result) arrived
+         */
+        public Duration getTimeToFirstRow() { return timeToFirstRow; }
+
+        /**
+         * @return time from starting execution until the last row was handled
+         */
+        public Duration getLatency() { return latency; }
+
+        @Override
+        public String toString() {
+            return rowCount + " rows in " + latency.toMillis() + " ms (first row " + timeToFirstRow.toMillis()
+                + " ms, queued " + queueTime.toMillis() + " ms): " + sql;
+        }
+    }
+
+    /**
+     * Handle on a submitted query
+     */
+    public final class Query {
+        private final String sql;
+        private final RowHandler handler;
+        private final Duration timeout;
+        private final long submitted = System.nanoTime();
+        private final CompletableFuture<QueryResult> result = new CompletableFuture<>();
+        private volatile Statement statement;
+        private volatile Future<?> task;
+        private volatile boolean aborted;
+
+        Query(String sql, RowHandler handler, Duration timeout) {
+            this.sql = sql;
+            this.handler = handler;
+            this.timeout = timeout;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Stop the query, whether it is still queued or already running
+         * @return true if this call cancelled it, false if it had already finished
+         */
+        public boolean cancel() {
+            return abort(new CancellationException("Query cancelled: " + sql));
+        }
+
+        public boolean isDone() {
+            return result.isDone();
+        }
+
+        /**
+         * Wait for the query; a failure is rethrown as the SQLException or IOException it was
+         */
+        public QueryResult get() throws SQLException, IOException, InterruptedException {
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new SQLException("Query failed: " + sql, cause);
+            }
+        }
+
+        /**
+         * @return the result as a future, for composing with other work
+         */
+        public CompletableFuture<QueryResult> future() {
+            return result;
+        }
+
+        private boolean abort(Throwable reason) {
+            if (!result.completeExceptionally(reason)) {
+                return false;
+            }
+            aborted = true;
+            Statement current = statement;
+            if (current != null) {
+                try {
+                    current.cancel();
+                } catch (SQLException e) {
+                    // The statement is finishing anyway; the interrupt below covers the rest
+                }
+            }
+            Future<?> runningTask = task;
+            if (runningTask != null) {
+                runningTask.cancel(true);
+            }
+            running.remove(this);
+            return true;
+        }
+
+        private void run() {
+            try {
+                result.complete(execute(this));
+            } catch (Throwable e) {
+                result.completeExceptionally(e); // Ignored if the query was cancelled or timed out
+            } finally {
+                running.remove(this);
+            }
+        }
+    }
+
+    /**
+     * @param dataSource Source of connections; each running query holds one
+     * @param maxConcurrency Most queries running on the warehouse at once
+     * @param defaultTimeout Timeout for queries submitted without one; null for none
+     */
+    public QueryRunner(DataSource dataSource, int maxConcurrency, Duration defaultTimeout) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.dataSource = dataSource;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.defaultTimeout = defaultTimeout;
+
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(maxConcurrency, daemonThreads("query-runner"));
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("query-runner-timeout"));
+    }
+
+    public QueryRunner(DataSource dataSource, int maxConcurrency) {
+        this(dataSource, maxConcurrency, null);
+    }
+
+    /**
+     * @return true when queries run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public Query submit(String sql, RowHandler handler) {
+        return submit(sql, handler, defaultTimeout);
+    }
+
+    /**
+     * Queue a query
+     * @param timeout Limit on execution and row handling, not counting queue time; null for none
+     */
+    public Query submit(String sql, RowHandler handler, Duration timeout) {
+        Query query = new Query(sql, handler, timeout);
+        running.add(query);
+        try {
+            query.task = executor.submit(query::run);
+        } catch (RejectedExecutionException e) {
+            running.remove(query);
+            query.result.completeExceptionally(new SQLException("Query runner is closed", e));
+        }
+        return query;
+    }
+
+    /**
+     * Queue several queries, each with its own handler
+     * @return handles in the order of the statements
+     */
+    public List<Query> submitAll(List<String> sqls, Function<String, RowHandler> handlers) {
+        List<Query> queries = new ArrayList<>(sqls.size());
+        for (String sql : sqls) {
+            queries.add(submit(sql, handlers.apply(sql)));
+        }
+        return queries;
+    }
+
+    /**
+     * Cancel every queued and running query and stop the worker threads
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        for (Query query : running) {
+            query.cancel();
+        }
+        watchdog.shutdownNow();
+    }
+
+    private QueryResult execute(Query query) throws Exception {
+        permits.acquire();
+        try {
+            long started = System.nanoTime();
+            Duration queueTime = Duration.ofNanos(started - query.submitted);
+
+            ScheduledFuture<?> deadline = null;
+            if (query.timeout != null) {
+                deadline = watchdog.schedule(() -> query.abort(new SQLTimeoutException(
+                        "Query exceeded " + query.timeout.toMillis() + " ms: " + query.sql)),
+                        query.timeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
+
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+
+                query.statement = statement;
+                if (query.aborted) {
+                    throw new CancellationException();
+                }
+                if (query.timeout != null) {
+                    // Let the server enforce the limit too; rounded up to whole seconds
+                    statement.setQueryTimeout((int) Math.max(1, (query.timeout.toMillis() + 999) / 1000));
+                }
+
+                long rowCount = 0;
+                long firstRow;
+                try (ResultSet resultSet = ReconciliationMetrics.execute(statement, query.sql)) {
+                    try (ReconciliationMetrics.Timer fetch = ReconciliationMetrics.start(
+                            ReconciliationMetrics.Phase.FETCH, null)) {
+                        query.handler.start(resultSet.getMetaData());
+                        boolean hasRow = resultSet.next();
+                        firstRow = System.nanoTime();
+                        while (hasRow) {
+                            if (query.aborted) {
+                                throw new CancellationException();
+                            }
+                            query.handler.row(resultSet);
+                            rowCount++;
+                            hasRow = resultSet.next();
+                        }
+                        fetch.rows(rowCount);
+                    }
+                }
+                query.handler.end();
+
+                long finished = System.nanoTime();
+                return new QueryResult(query.sql, rowCount, queueTime,
+                        Duration.ofNanos(firstRow - started), Duration.ofNanos(finished - started));
+            } finally {
+                query.statement = null;
+                if (deadline != null) {
+                    deadline.cancel(false);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() where the JVM has it (Java 21+), else null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
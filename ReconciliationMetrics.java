@@ -0,0 +1,439 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.PrintStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of a reconciliation run goes, phase by phase.
+ *
+ * Matchers and the query runner wrap each phase in a {@link Timer}. A
+ * closed timer adds its time, row count and estimated byte count to the
+ * process-wide totals for its {@link Phase} and commits a JDK Flight
+ * Recorder event, one per query and per phase. Totals can be read with
+ * {@link #get} for export or printed with {@link #print} at the end of a
+ * run.
+ *
+ * Instrumentation is off unless -Dreconciliation.metrics=true is set or
+ * {@link #setEnabled} is called. While it is off every timer is the same
+ * no-op instance, so an instrumented phase costs one volatile read and
+ * per-row calls inline to nothing.
+ */
+public final class ReconciliationMetrics {
+
+    public enum Phase {
+        /** Statement execution up to the first row */
+        QUERY,
+        /** ResultSet iteration and row materialization */
+        FETCH,
+        /** Composite keys for the CSV side */
+        KEY_BUILD,
+        /** Pairing records and comparing columns; includes ASSEMBLE */
+        COMPARE,
+        /** Handing outcomes to the MatchSink */
+        ASSEMBLE
+    }
+
+    private static volatile boolean enabled = Boolean.getBoolean("reconciliation.metrics");
+
+    private static final PhaseStats[] PHASES = new PhaseStats[Phase.values().length];
+
+    static {
+        for (Phase phase : Phase.values()) {
+            PHASES[phase.ordinal()] = new PhaseStats(phase);
+        }
+    }
+
+    private ReconciliationMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Start timing a phase
+     * @param table Table the phase works on, for the JFR event; may be null
+     */
+    public static Timer start(Phase phase, String table) {
+        return enabled ? new ActiveTimer(phase, table, null) : Timer.NOOP;
+    }
+
+    /**
+     * Start timing the execution of a query
+     */
+    public static Timer startQuery(String sql) {
+        return enabled ? new ActiveTimer(Phase.QUERY, null, sql) : Timer.NOOP;
+    }
+
+    /**
+     * Execute a prepared query, timed as QUERY
+     * @param sql Query text for the JFR event; may be null
+     */
+    public static ResultSet executePrepared(PreparedStatement stmt, String sql) throws SQLException {
+        Timer query = startQuery(sql);
+        try {
+            return stmt.executeQuery();
+        } finally {
+            query.close();
+        }
+    }
+
+    /**
+     * Execute a query, timed as QUERY
+     */
+    public static ResultSet execute(Statement stmt, String sql) throws SQLException {
+        Timer query = startQuery(sql);
+        try {
+            return stmt.executeQuery(sql);
+        } finally {
+            query.close();
+        }
+    }
+
+    public static PhaseStats get(Phase phase) {
+        return PHASES[phase.ordinal()];
+    }
+
+    /**
+     * @return totals of every phase, in phase order
+     */
+    public static Map<Phase, PhaseStats> phases() {
+        Map<Phase, PhaseStats> phases = new EnumMap<>(Phase.class);
+        for (PhaseStats stats : PHASES) {
+            phases.put(stats.phase, stats);
+        }
+        return phases;
+    }
+
+    public static void reset() {
+        for (PhaseStats stats : PHASES) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * Print one line per phase that ran
+     */
+    public static void print(PrintStream out) {
+        out.println(String.format("%-10s %8s %12s %12s %14s %12s %12s",
+            "phase", "calls", "total ms", "max ms", "rows", "rows/s", "MB"));
+        for (PhaseStats stats : PHASES) {
+            if (stats.getCalls() > 0) {
+                out.println(String.format("%-10s %8d %12.1f %12.1f %14d %12.0f %12.1f",
+                    stats.phase, stats.getCalls(), stats.getTotalTime().toNanos() / 1e6,
+                    stats.getMaxTime().toNanos() / 1e6, stats.getRows(), stats.getRowsPerSecond(),
+                    stats.getBytes() / (1024.0 * 1024.0)));
+            }
+        }
+    }
+
+    /**
+     * Rough in-memory payload of a record's values; used for the bytes-fetched estimate
+     */
+    public static long estimateBytes(Map<String, Object> record) {
+        long bytes = 0;
+        for (Object value : record.values()) {
+            bytes += estimateBytes(value);
+        }
+        return bytes;
+    }
+
+    static long estimateBytes(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length();
+        }
+        if (value instanceof Long || value instanceof Double || value instanceof java.util.Date) {
+            return 8;
+        }
+        if (value instanceof Integer || value instanceof Float) {
+            return 4;
+        }
+        if (value instanceof Short) {
+            return 2;
+        }
+        if (value instanceof Byte || value instanceof Boolean) {
+            return 1;
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).unscaledValue().bitLength() / 8 + 1;
+        }
+        if (value instanceof BigInteger) {
+            return ((BigInteger) value).bitLength() / 8 + 1;
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        return value.toString().length();
+    }
+
+    /**
+     * Measures one run of a phase. Not thread-safe; each thread uses its own timer.
+     * Closing more than once has no further effect.
+     */
+    public abstract static class Timer implements AutoCloseable {
+
+        static final Timer NOOP = new Timer() {
+            @Override
+            public void row(Map<String, Object> record) {
+            }
+
+            @Override
+            public void rows(long count) {
+            }
+
+            @Override
+            public MatchSink assembling(MatchSink sink) {
+                return sink;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        /**
+         * Count a fetched row and its estimated size
+         */
+        public abstract void row(Map<String, Object> record);
+
+        /**
+         * Count rows processed without estimating their size
+         */
+        public abstract void rows(long count);
+
+        /**
+         * @return the sink, timed as the ASSEMBLE phase when instrumentation is on
+         */
+        public abstract MatchSink assembling(MatchSink sink);
+
+        @Override
+        public abstract void close();
+    }
+
+    private static final class ActiveTimer extends Timer {
+        private final Phase phase;
+        private final String table;
+        private final String sql;
+        private final long started = System.nanoTime();
+        private final Event event;
+        private long rows;
+        private long bytes;
+        private AssemblingSink assembling;
+        private boolean closed;
+
+        ActiveTimer(Phase phase, String table, String sql) {
+            this.phase = phase;
+            this.table = table;
+            this.sql = sql;
+            this.event = phase == Phase.QUERY ? new QueryEvent() : new PhaseEvent();
+            event.begin();
+        }
+
+        @Override
+        public void row(Map<String, Object> record) {
+            rows++;
+            bytes += estimateBytes(record);
+        }
+
+        @Override
+        public void rows(long count) {
+            rows += count;
+        }
+
+        @Override
+        public MatchSink assembling(MatchSink sink) {
+            assembling = new AssemblingSink(sink);
+            return assembling;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long elapsed = System.nanoTime() - started;
+            get(phase).add(elapsed, rows, bytes);
+            if (assembling != null) {
+                get(Phase.ASSEMBLE).add(assembling.nanos, assembling.outcomes, 0);
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                if (event instanceof QueryEvent) {
+                    QueryEvent query = (QueryEvent) event;
+                    query.sql = sql;
+                    query.rows = rows;
+                    query.bytes = bytes;
+                } else {
+                    PhaseEvent phaseEvent = (PhaseEvent) event;
+                    phaseEvent.phase = phase.name();
+                    phaseEvent.table = table;
+                    phaseEvent.rows = rows;
+                    phaseEvent.bytes = bytes;
+                    phaseEvent.assembleTime = assembling == null ? 0 : assembling.nanos;
+                }
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Times the calls into the wrapped sink; used from the timer's thread only
+     */
+    private static final class AssemblingSink implements MatchSink {
+        private final MatchSink sink;
+        private long nanos;
+        private long outcomes;
+
+        AssemblingSink(MatchSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void matched(Map<String, Object> csvRecord, Map<String, Object> dbRecord,
+                            Map<String, Object> differences) {
+            long started = System.nanoTime();
+            sink.matched(csvRecord, dbRecord, differences);
+            nanos += System.nanoTime() - started;
+            outcomes++;
+        }
+
+        @Override
+        public void unmatched(Map<String, Object> csvRecord) {
+            long started = System.nanoTime();
+            sink.unmatched(csvRecord);
+            nanos += System.nanoTime() - started;
+            outcomes++;
+        }
+
+        @Override
+        public void dbOnly(Map<String, Object> dbRecord) {
+            long started = System.nanoTime();
+            sink.dbOnly(dbRecord);
+            nanos += System.nanoTime() - started;
+            outcomes++;
+        }
+    }
+
+    /**
+     * Process-wide totals of one phase
+     */
+    public static final class PhaseStats {
+        private final Phase phase;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        PhaseStats(Phase phase) {
+            this.phase = phase;
+        }
+
+        void add(long elapsed, long rowCount, long byteCount) {
+            calls.increment();
+            nanos.add(elapsed);
+            maxNanos.accumulateAndGet(elapsed, Math::max);
+            rows.add(rowCount);
+            bytes.add(byteCount);
+        }
+
+        void reset() {
+            calls.reset();
+            nanos.reset();
+            maxNanos.set(0);
+            rows.reset();
+            bytes.reset();
+        }
+
+        public Phase getPhase() { return phase; }
+        public long getCalls() { return calls.sum(); }
+        public long getRows() { return rows.sum(); }
+
+        /**
+         * @return estimated bytes of the values fetched; zero for phases that fetch nothing
+         */
+        public long getBytes() { return bytes.sum(); }
+
+        public Duration getTotalTime() { return Duration.ofNanos(nanos.sum()); }
+        public Duration getMaxTime() { return Duration.ofNanos(maxNanos.get()); }
+
+        /**
+         * @return rows per second of time spent in the phase
+         */
+        public double getRowsPerSecond() {
+            long total = nanos.sum();
+            return total == 0 ? 0.0 : rows.sum() * 1e9 / total;
+        }
+
+        @Override
+        public String toString() {
+            return phase + ": calls=" + getCalls() + ", total=" + getTotalTime().toMillis() + "ms"
+                + ", max=" + getMaxTime().toMillis() + "ms, rows=" + getRows()
+                + ", rowsPerSecond=" + Math.round(getRowsPerSecond()) + ", bytes=" + getBytes();
+        }
+    }
+
+    @Name("reconciliation.Query")
+    @Label("Reconciliation Query")
+    @Category("Reconciliation")
+    @Description("Execution of one query, up to the first row")
+    static final class QueryEvent extends Event {
+        @Label("SQL")
+        String sql;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("reconciliation.Phase")
+    @Label("Reconciliation Phase")
+    @Category("Reconciliation")
+    @Description("One phase of a reconciliation run")
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Table")
+        String table;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Assemble Time")
+        @Description("Time spent in the MatchSink, included in the duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long assembleTime;
+    }
+}
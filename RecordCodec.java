@@ -0,0 +1,292 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Compact binary format for spilling records to local disk.
+ *
+ * A stream starts with a magic number and version, followed by records.
+ * Column names are written once per stream and then referenced by index,
+ * and values carry a one-byte type tag followed by a varint or raw payload.
+ * Values of unsupported types are written as their string form; callers
+ * that must read back what they wrote check {@link #canEncode} first.
+ */
+public final class RecordCodec {
+
+    private static final int MAGIC = 0x43535652; // "CSVR"
+    private static final int VERSION = 2;
+
+    private static final byte END = 0;
+    private static final byte RECORD = 1;
+
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_LONG = 2;
+    private static final byte T_INT = 3;
+    private static final byte T_DOUBLE = 4;
+    private static final byte T_DECIMAL = 5;
+    private static final byte T_BOOLEAN = 6;
+    private static final byte T_TIMESTAMP = 7;
+    private static final byte T_DATE = 8;
+    // Version 2
+    private static final byte T_FLOAT = 9;
+    private static final byte T_BYTES = 10;
+    private static final byte T_TIME = 11;
+    private static final byte T_OFFSET_DATE_TIME = 12;
+
+    private RecordCodec() {
+    }
+
+    /**
+     * Writes records to an output stream. Call {@link #close()} to write the end marker.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final Map<String, Integer> names = new HashMap<>();
+        private long recordCount;
+
+        public Writer(OutputStream output) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(output, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        public void write(Map<String, Object> record) throws IOException {
+            out.writeByte(RECORD);
+            writeVarInt(out, record.size());
+
+            for (Map.Entry<String, Object> entry : record.entrySet()) {
+                Integer nameId = names.get(entry.getKey());
+                if (nameId == null) {
+                    // New names are announced inline with the next free index
+                    nameId = names.size();
+                    names.put(entry.getKey(), nameId);
+                    writeVarInt(out, nameId);
+                    writeString(out, entry.getKey());
+                } else {
+                    writeVarInt(out, nameId);
+                }
+                writeValue(out, entry.getValue());
+            }
+            recordCount++;
+        }
+
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(END);
+            out.close();
+        }
+    }
+
+    /**
+     * Reads records written by {@link Writer}, one at a time.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final List<String> names = new ArrayList<>();
+
+        public Reader(InputStream input) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a record stream");
+            }
+            byte version = in.readByte();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Not a record stream or unsupported version");
+            }
+        }
+
+        /**
+         * @return the next record, or null at the end of the stream
+         */
+        public Map<String, Object> read() throws IOException {
+            byte marker = in.readByte();
+            if (marker == END) {
+                return null;
+            }
+            if (marker != RECORD) {
+                throw new IOException("Corrupt record stream, unexpected marker " + marker);
+            }
+
+            int fieldCount = readVarInt(in);
+            Map<String, Object> record = new LinkedHashMap<>(fieldCount * 4 / 3 + 1);
+            for (int i = 0; i < fieldCount; i++) {
+                int nameId = readVarInt(in);
+                if (nameId == names.size()) {
+                    names.add(readString(in));
+                }
+                record.put(names.get(nameId), readValue(in));
+            }
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * @return true if the value reads back equal and of the same type; Short
+     *         and Byte values read back as Integer with the same value
+     */
+    public static boolean canEncode(Object value) {
+        return value == null || value instanceof String || value instanceof Long || value instanceof Integer
+            || value instanceof Short || value instanceof Byte || value instanceof Double || value instanceof Float
+            || value instanceof BigDecimal || value instanceof Boolean || value instanceof byte[]
+            || value instanceof java.sql.Timestamp || value instanceof java.sql.Date || value instanceof java.sql.Time
+            || value instanceof OffsetDateTime;
+    }
+
+    static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(T_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Long) {
+            out.writeByte(T_LONG);
+            writeVarLong(out, (Long) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(T_INT);
+            writeVarLong(out, ((Number) value).longValue());
+        } else if (value instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(T_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(T_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof java.sql.Timestamp) {
+            java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+            out.writeByte(T_TIMESTAMP);
+            writeVarLong(out, timestamp.getTime());
+            writeVarInt(out, timestamp.getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(T_DATE);
+            writeVarLong(out, ((java.sql.Date) value).getTime());
+        } else if (value instanceof java.sql.Time) {
+            out.writeByte(T_TIME);
+            writeVarLong(out, ((java.sql.Time) value).getTime());
+        } else if (value instanceof OffsetDateTime) {
+            OffsetDateTime dateTime = (OffsetDateTime) value;
+            out.writeByte(T_OFFSET_DATE_TIME);
+            writeVarLong(out, dateTime.toEpochSecond());
+            writeVarInt(out, dateTime.getNano());
+            writeVarLong(out, dateTime.getOffset().getTotalSeconds());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(T_BYTES);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        } else {
+            out.writeByte(T_STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case T_NULL:
+                return null;
+            case T_STRING:
+                return readString(in);
+            case T_LONG:
+                return readVarLong(in);
+            case T_INT:
+                return (int) readVarLong(in);
+            case T_DOUBLE:
+                return in.readDouble();
+            case T_DECIMAL:
+                return new BigDecimal(readString(in));
+            case T_BOOLEAN:
+                return in.readBoolean();
+            case T_TIMESTAMP:
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(readVarLong(in));
+                timestamp.setNanos(readVarInt(in));
+                return timestamp;
+            case T_DATE:
+                return new java.sql.Date(readVarLong(in));
+            case T_FLOAT:
+                return in.readFloat();
+            case T_TIME:
+                return new java.sql.Time(readVarLong(in));
+            case T_OFFSET_DATE_TIME:
+                Instant instant = Instant.ofEpochSecond(readVarLong(in), readVarInt(in));
+                return OffsetDateTime.ofInstant(instant, ZoneOffset.ofTotalSeconds((int) readVarLong(in)));
+            case T_BYTES:
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                return bytes;
+            default:
+                throw new IOException("Corrupt record stream, unknown type tag " + tag);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed varlong");
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Where the matchers read the database side of a reconciliation from.
+ *
+ * {@link #jdbc} reads a live table; {@link ColumnarFileSource} and
+ * {@link ParquetFileSource} read an Arrow IPC or Parquet export of it, so a
+ * reconciliation can run against a local snapshot without holding a
+ * warehouse connection. Records are {@link Row}s either way, so comparison
+ * plans and composite keys behave the same for all of them.
+ */
+public interface RecordSource {
+
+    /**
+     * Stream every record to the handler
+     * @param columns Columns to read, case-insensitive; null reads all of them.
+     *                Columns the source does not have are skipped.
+     * @param handler Receives each record in source order
+     */
+    void scan(String[] columns, Consumer<? super Row> handler) throws SQLException, IOException;
+
+    /**
+     * Fetch the records with the given keys. The default scans the whole
+     * source and keeps the wanted rows; sources with an index override it.
+     * Like the JDBC fetches, the last row wins when a key repeats.
+     * @param columns Columns to read, as for {@link #scan}; must include the key columns
+     * @return records by composite key; keys without a record are absent
+     */
+    default Map<CompositeKey, Map<String, Object>> lookup(Collection<CompositeKey> keys,
+                                                        CompositeKey.Layout keyLayout,
+                                                        String[] columns) throws SQLException, IOException {
+        Set<CompositeKey> wanted = keys instanceof Set ? (Set<CompositeKey>) keys : new HashSet<>(keys);
+        Map<CompositeKey, Map<String, Object>> records = new HashMap<>(wanted.size() * 4 / 3 + 1);
+        if (wanted.isEmpty()) {
+            return records;
+        }
+        scan(columns, record -> {
+            CompositeKey key = keyLayout.keyOf(record);
+            if (wanted.contains(key)) {
+                records.put(key, record);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Read a table through a JDBC connection; the connection stays open after use
+     */
+    static RecordSource jdbc(Connection connection, String tableName) {
+        return new Jdbc(connection, tableName);
+    }
+
+    /**
+     * Table read with SELECT; lookups use the chunked IN queries of {@link OptimizedDatabaseMatcher}
+     */
+    final class Jdbc implements RecordSource {
+        private static final int FETCH_SIZE = 10_000;
+
+        private final Connection connection;
+        private final String tableName;
+
+        Jdbc(Connection connection, String tableName) {
+            this.connection = connection;
+            this.tableName = tableName;
+        }
+
+        @Override
+        public void scan(String[] columns, Consumer<? super Row> handler) throws SQLException {
+            String projection = columns == null ? "*" : String.join(", ", existingColumns(columns));
+            String sql = "SELECT " + projection + " FROM " + tableName;
+
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(FETCH_SIZE);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    Row.Schema schema = Row.Schema.of(rs.getMetaData());
+                    while (rs.next()) {
+                        handler.accept(Row.read(rs, schema));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Keyed fetches read whole rows; the IN lists already keep them to the wanted keys
+         */
+        @Override
+        public Map<CompositeKey, Map<String, Object>> lookup(Collection<CompositeKey> keys,
+                                                           CompositeKey.Layout keyLayout,
+                                                           String[] columns) throws SQLException {
+            // Resolve the key column types so the IN lists bind typed parameters
+            CompositeKey.Layout typedLayout = CompositeKey.Layout.resolve(connection, tableName, keyLayout.columns());
+            return OptimizedDatabaseMatcher.fetchRecordsByKeys(
+                    connection, tableName, keys, typedLayout, OptimizedDatabaseMatcher.DEFAULT_MAX_PARAMETERS);
+        }
+
+        /**
+         * @return the requested columns the table has, by their table names
+         */
+        private List<String> existingColumns(String[] columns) throws SQLException {
+            Map<String, String> byLowerName = new HashMap<>();
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT * FROM " + tableName + " WHERE 1 = 0");
+                 ResultSet rs = stmt.executeQuery()) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    byLowerName.putIfAbsent(metaData.getColumnLabel(i).toLowerCase(), metaData.getColumnLabel(i));
+                }
+            }
+
+            List<String> existing = new ArrayList<>(columns.length);
+            for (String column : columns) {
+                String name = byLowerName.get(column.toLowerCase());
+                if (name != null) {
+                    existing.add(name);
+                }
+            }
+            if (existing.isEmpty()) {
+                throw new SQLException("None of " + Arrays.toString(columns) + " is in " + tableName);
+            }
+            return existing;
+        }
+    }
+}
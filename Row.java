@@ -0,0 +1,263 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Database row stored as a value array against a shared {@link Schema}.
+ *
+ * Column names are resolved and lowercased once per result set instead of
+ * once per row, and each row costs one Object[] rather than a HashMap with
+ * an entry per column. Row is also a read/write Map view keyed by column
+ * name, so code written against Map records keeps working; lookups accept
+ * the lowercase name or the name as reported by the driver.
+ */
+public final class Row extends AbstractMap<String, Object> {
+
+    private final Schema schema;
+    private final Object[] values;
+
+    public Row(Schema schema, Object[] values) {
+        if (values.length != schema.size()) {
+            throw new IllegalArgumentException("Expected " + schema.size() + " values, got " + values.length);
+        }
+        this.schema = schema;
+        this.values = values;
+    }
+
+    /**
+     * Read the current row of a result set
+     */
+    public static Row read(ResultSet rs, Schema schema) throws SQLException {
+        Object[] values = new Object[schema.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rs.getObject(i + 1);
+        }
+        return new Row(schema, values);
+    }
+
+    public Schema schema() {
+        return schema;
+    }
+
+    /**
+     * @return value at the column index, or null for a negative index
+     */
+    public Object get(int index) {
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public Object get(Object column) {
+        return get(schema.indexOf(column));
+    }
+
+    @Override
+    public boolean containsKey(Object column) {
+        return schema.indexOf(column) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Replace the value of an existing column; rows cannot gain columns
+     */
+    @Override
+    public Object put(String column, Object value) {
+        int index = schema.indexOf(column);
+        if (index < 0) {
+            throw new UnsupportedOperationException("Column " + column + " is not part of the row schema");
+        }
+        Object previous = values[index];
+        values[index] = value;
+        return previous;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (next >= values.length) {
+                            throw new NoSuchElementException();
+                        }
+                        return new ColumnEntry(next++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    private final class ColumnEntry implements Entry<String, Object> {
+        private final int index;
+
+        ColumnEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return schema.name(index);
+        }
+
+        @Override
+        public Object getValue() {
+            return values[index];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            return getKey().equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * Column names and SQL types of a result set, shared by all of its rows.
+     * Schemas with the same columns and types are equal.
+     */
+    public static final class Schema {
+        private final String[] names;
+        private final int[] types;
+        private final Map<String, Integer> indexes;
+        private final int hash;
+
+        private Schema(String[] names, String[] reportedNames, int[] types) {
+            this.names = names;
+            this.types = types;
+            this.hash = 31 * Arrays.hashCode(names) + Arrays.hashCode(types);
+            this.indexes = new HashMap<>(names.length * 3);
+            for (int i = 0; i < names.length; i++) {
+                // Later columns win when names repeat, as with the HashMap rows this replaces
+                indexes.put(names[i], i);
+            }
+            for (int i = 0; i < reportedNames.length; i++) {
+                indexes.putIfAbsent(reportedNames[i], i);
+            }
+        }
+
+        /**
+         * Schema of a result set, with lowercase column names
+         */
+        public static Schema of(ResultSetMetaData metaData) throws SQLException {
+            String[] reported = new String[metaData.getColumnCount()];
+            String[] names = new String[reported.length];
+            int[] types = new int[reported.length];
+            for (int i = 0; i < reported.length; i++) {
+                reported[i] = metaData.getColumnName(i + 1);
+                names[i] = reported[i].toLowerCase();
+                types[i] = metaData.getColumnType(i + 1);
+            }
+            return new Schema(names, reported, types);
+        }
+
+        /**
+         * Schema without type information; every column is {@link Types#OTHER}
+         */
+        public static Schema of(String... columnNames) {
+            String[] names = new String[columnNames.length];
+            int[] types = new int[columnNames.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = columnNames[i].toLowerCase();
+                types[i] = Types.OTHER;
+            }
+            return new Schema(names, columnNames, types);
+        }
+
+        /**
+         * Schema with explicit java.sql.Types codes, for rows that do not come from JDBC
+         */
+        public static Schema of(String[] columnNames, int[] types) {
+            if (columnNames.length != types.length) {
+                throw new IllegalArgumentException("Expected " + columnNames.length + " types, got " + types.length);
+            }
+            String[] names = new String[columnNames.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = columnNames[i].toLowerCase();
+            }
+            return new Schema(names, columnNames, types.clone());
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * @return lowercase name of the column
+         */
+        public String name(int index) {
+            return names[index];
+        }
+
+        /**
+         * @return java.sql.Types code of the column
+         */
+        public int type(int index) {
+            return types[index];
+        }
+
+        /**
+         * @return index of the column, or -1 if the schema does not have it
+         */
+        public int indexOf(Object column) {
+            Integer index = indexes.get(column);
+            if (index == null && column instanceof String) {
+                index = indexes.get(((String) column).toLowerCase());
+            }
+            return index == null ? -1 : index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Schema)) {
+                return false;
+            }
+            Schema other = (Schema) o;
+            return hash == other.hash && Arrays.equals(names, other.names) && Arrays.equals(types, other.types);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
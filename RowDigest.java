@@ -0,0 +1,167 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Canonical per-row MD5 digest that can be computed both in SQL and in Java.
+ *
+ * A row's compared columns are rendered as text, nulls replaced by the
+ * record separator character (0x1E), joined with the unit separator (0x1F)
+ * and hashed with MD5 into lowercase hex. The SQL side casts each column
+ * to its string type, so digests agree when the CSV holds the same text
+ * the warehouse prints for the value.
+ */
+public final class RowDigest {
+
+    static final char NULL_MARKER = '\u001e';
+    static final char SEPARATOR = '\u001f';
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private RowDigest() {
+    }
+
+    /**
+     * SQL spelling of the digest for the databases we reconcile against
+     */
+    public enum Dialect {
+        DATABRICKS("coalesce(cast(%s as string), chr(30))", "concat_ws(chr(31), %s)", "md5(%s)",
+            "cast(conv(substr(md5(%1$s), %2$d, 8), 16, 10) as bigint)"),
+        POSTGRES("coalesce(cast(%s as text), chr(30))", "concat_ws(chr(31), %s)", "md5(%s)",
+            "('x' || substr(md5(%1$s), %2$d, 8))::bit(32)::bigint"),
+        H2("coalesce(cast(%s as varchar), char(30))", "concat_ws(char(31), %s)", "lower(rawtohex(hash('MD5', %s)))",
+            "bitand(cast(cast(substring(hash('MD5', %1$s) from %3$d for 4) as int) as bigint), 4294967295)");
+
+        private final String columnTemplate;
+        private final String concatTemplate;
+        private final String digestTemplate;
+        private final String wordTemplate;
+
+        Dialect(String columnTemplate, String concatTemplate, String digestTemplate, String wordTemplate) {
+            this.columnTemplate = columnTemplate;
+            this.concatTemplate = concatTemplate;
+            this.digestTemplate = digestTemplate;
+            this.wordTemplate = wordTemplate;
+        }
+
+        /**
+         * @return expression producing the lowercase hex MD5 of the columns
+         */
+        public String digestExpression(List<String> columns) {
+            return String.format(digestTemplate, concatExpression(columns));
+        }
+
+        /**
+         * @return expression producing {@link RowDigest#word} of the columns as a BIGINT
+         */
+        public String wordExpression(List<String> columns, int word) {
+            return String.format(wordTemplate, concatExpression(columns), word * 8 + 1, word * 4 + 1);
+        }
+
+        /**
+         * @return expression rendering one column as digest text, nulls as the null marker
+         */
+        public String textExpression(String column) {
+            return String.format(columnTemplate, column);
+        }
+
+        private String concatExpression(List<String> columns) {
+            StringJoiner parts = new StringJoiner(", ");
+            for (String column : columns) {
+                parts.add(String.format(columnTemplate, column));
+            }
+            return String.format(concatTemplate, parts);
+        }
+
+        public static Dialect detect(Connection connection) throws SQLException {
+            String product = String.valueOf(connection.getMetaData().getDatabaseProductName()).toLowerCase();
+            if (product.contains("postgres")) {
+                return POSTGRES;
+            }
+            if (product.contains("h2")) {
+                return H2;
+            }
+            if (product.contains("spark") || product.contains("databricks")) {
+                return DATABRICKS;
+            }
+            throw new SQLException("No row digest dialect for " + product);
+        }
+    }
+
+    /**
+     * Digest of the given columns of a record, matching {@link Dialect#digestExpression}
+     */
+    public static String digest(Map<String, Object> record, List<String> columns) {
+        return toHex(md5(record, columns));
+    }
+
+    /**
+     * First eight bytes of the digest as a long, for compact indexes
+     */
+    public static long digest64(Map<String, Object> record, List<String> columns) {
+        byte[] md5 = md5(record, columns);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (md5[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Unsigned 32-bit word of the digest; word 0 is the first four bytes
+     */
+    public static long word(Map<String, Object> record, List<String> columns, int word) {
+        return word(md5(record, columns), word);
+    }
+
+    static long word(byte[] md5, int word) {
+        long value = 0;
+        for (int i = word * 4; i < word * 4 + 4; i++) {
+            value = (value << 8) | (md5[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * @return the column list as written in the CSV header; SQL identifiers are
+     *         case-insensitive and {@link Row} lookups accept either case
+     */
+    public static List<String> columnsOf(Map<String, Object> csvRecord) {
+        return new ArrayList<>(csvRecord.keySet());
+    }
+
+    static byte[] md5(Map<String, Object> record, List<String> columns) {
+        StringBuilder text = new StringBuilder(columns.size() * 16);
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                text.append(SEPARATOR);
+            }
+            Object value = record.get(columns.get(i));
+            if (value == null) {
+                text.append(NULL_MARKER);
+            } else {
+                text.append(value);
+            }
+        }
+        return newMd5().digest(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is required on every Java platform", e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Memory-mapped index of (key hash, row hash) pairs saved by a reconciliation run.
+ *
+ * The file is a 32-byte header (magic, version, fingerprint, entry count)
+ * followed by pairs of longs sorted by key hash. Opening it is a single
+ * mmap; lookups binary-search the mapped buffer, so nothing is rebuilt on
+ * the heap. The fingerprint covers the table, key columns and compared
+ * column types, and an index whose fingerprint differs is treated as absent.
+ * A single mapping holds up to about 134 million entries.
+ */
+public final class SnapshotIndex implements Closeable {
+
+    private static final long MAGIC = 0x5245434F4E534E50L; // "RECONSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    private final FileChannel channel;
+    private final LongBuffer entries;
+    private final int size;
+
+    private SnapshotIndex(FileChannel channel, LongBuffer entries, int size) {
+        this.channel = channel;
+        this.entries = entries;
+        this.size = size;
+    }
+
+    /**
+     * Open a snapshot if it exists and was written for the same fingerprint
+     * @return the index, or null when there is no usable snapshot
+     */
+    public static SnapshotIndex open(Path file, long expectedFingerprint) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.capacity() < HEADER_BYTES || mapped.getLong(0) != MAGIC || mapped.getInt(8) != VERSION
+                    || mapped.getLong(16) != expectedFingerprint) {
+                channel.close();
+                return null;
+            }
+
+            long count = mapped.getLong(24);
+            if (count * 16 + HEADER_BYTES != mapped.capacity()) {
+                throw new IOException("Truncated snapshot index " + file);
+            }
+
+            mapped.position(HEADER_BYTES);
+            return new SnapshotIndex(channel, mapped.slice().asLongBuffer(), (int) count);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write a snapshot, replacing any previous one atomically. The arrays are sorted in place.
+     */
+    public static void write(Path file, long fingerprint, long[] keyHashes, long[] rowHashes, int count) throws IOException {
+        sort(keyHashes, rowHashes, 0, count - 1);
+
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+            buffer.putLong(MAGIC).putInt(VERSION).putInt(0).putLong(fingerprint).putLong(count);
+
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < 16) {
+                    drain(channel, buffer);
+                }
+                buffer.putLong(keyHashes[i]).putLong(rowHashes[i]);
+            }
+            drain(channel, buffer);
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return position of the key hash, or -1 if the snapshot does not have it
+     */
+    public int indexOf(long keyHash) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = entries.get(mid * 2);
+            if (value < keyHash) {
+                low = mid + 1;
+            } else if (value > keyHash) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public long keyHash(int index) {
+        return entries.get(index * 2);
+    }
+
+    public long rowHash(int index) {
+        return entries.get(index * 2 + 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Quicksort of the key array that moves the row hashes along with it
+     */
+    private static void sort(long[] keys, long[] values, int from, int to) {
+        while (from < to) {
+            long pivot = keys[(from + to) >>> 1];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, i, j);
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller side to bound stack depth
+            if (j - from < to - i) {
+                sort(keys, values, from, j);
+                from = i;
+            } else {
+                sort(keys, values, i, to);
+                to = j;
+            }
+        }
+    }
+
+    private static void swap(long[] array, int i, int j) {
+        long t = array[i];
+        array[i] = array[j];
+        array[j] = t;
+    }
+}
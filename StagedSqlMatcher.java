@@ -0,0 +1,283 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Server-side reconciliation: load the CSV into a staging table and diff in SQL.
+ *
+ * CSV records are bulk-inserted as text with multi-row batched INSERTs,
+ * then a single outer join on the primary keys returns only the rows that
+ * exist on one side or whose compared columns differ. Columns are compared
+ * in their digest text form (see {@link RowDigest}), so the warehouse
+ * settles exactly the rows the digest strategy would settle. Returned pairs
+ * go through the comparison plan, and agreeing rows are reported as
+ * matched without a db_record and with an empty differences map.
+ */
+public class StagedSqlMatcher {
+
+    /** Bind parameters per INSERT statement; rows per statement follow from the column count */
+    static final int MAX_PARAMETERS_PER_INSERT = 1000;
+
+    private static final int INSERTS_PER_BATCH = 50;
+    private static final int RESULT_FETCH_SIZE = 10_000;
+    private static final String ROW_COLUMN = "csv_row__";
+    private static final String PRESENT_COLUMN = "db_present__";
+
+    /**
+     * Compare CSV records with database records inside the database
+     * @param csvRecords List of CSV records as Map; the first record's columns are compared
+     * @param connection Database connection; needs permission to create a staging table
+     * @param tableName Target table name
+     * @param primaryKeys Array of primary key column names
+     * @return MatchResult containing matched, unmatched, and db-only records
+     */
+    public static DatabaseCSVMatcher.MatchResult compareRecordsStaged(List<Map<String, Object>> csvRecords,
+                                                                    Connection connection,
+                                                                    String tableName,
+                                                                    String... primaryKeys) throws SQLException {
+        return compareRecordsStaged(csvRecords, connection, tableName,
+            RowDigest.Dialect.detect(connection), primaryKeys);
+    }
+
+    public static DatabaseCSVMatcher.MatchResult compareRecordsStaged(List<Map<String, Object>> csvRecords,
+                                                                    Connection connection,
+                                                                    String tableName,
+                                                                    RowDigest.Dialect dialect,
+                                                                    String... primaryKeys) throws SQLException {
+        DatabaseCSVMatcher.MatchResult result = new DatabaseCSVMatcher.MatchResult();
+        compareRecordsStaged(csvRecords, connection, tableName, dialect, result, primaryKeys);
+        return result;
+    }
+
+    /**
+     * Compare inside the database, reporting each outcome to the sink
+     */
+    public static void compareRecordsStaged(List<Map<String, Object>> csvRecords,
+                                            Connection connection,
+                                            String tableName,
+                                            RowDigest.Dialect dialect,
+                                            MatchSink sink,
+                                            String... primaryKeys) throws SQLException {
+
+        if (csvRecords.isEmpty()) {
+            return;
+        }
+
+        List<String> columns = RowDigest.columnsOf(csvRecords.get(0));
+        ComparisonPlan.Compiled comparison = ComparisonPlan.DEFAULT.compile(columns);
+        CompositeKey.Layout keyLayout = CompositeKey.Layout.of(primaryKeys);
+
+        // Step 1: Stage one record per key; later duplicates of a key stay unmatched
+        List<Map<String, Object>> staged = new ArrayList<>(csvRecords.size());
+        Set<CompositeKey> seenKeys = new HashSet<>(csvRecords.size() * 4 / 3 + 1);
+        for (Map<String, Object> csvRecord : csvRecords) {
+            if (seenKeys.add(keyLayout.keyOf(csvRecord))) {
+                staged.add(csvRecord);
+            } else {
+                sink.unmatched(csvRecord);
+            }
+        }
+
+        String stagingTable = "reconcile_stage_" + UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+
+        try (Statement ddl = connection.createStatement()) {
+            ddl.execute(createStagingTable(dialect, stagingTable, columns));
+        }
+
+        try {
+            loadStagingTable(connection, stagingTable, columns, staged);
+
+            // Step 2: Stream back only one-sided and differing rows
+            BitSet reported = new BitSet(staged.size());
+            String sql = diffQuery(dialect, stagingTable, tableName, columns, primaryKeys);
+
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+                stmt.setFetchSize(RESULT_FETCH_SIZE);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    Row.Schema dbSchema = tableSchema(rs.getMetaData());
+
+                    while (rs.next()) {
+                        long csvRow = rs.getLong(1);
+                        boolean csvPresent = !rs.wasNull();
+                        boolean dbPresent = rs.getInt(2) == 1;
+
+                        Row dbRecord = null;
+                        if (dbPresent) {
+                            Object[] values = new Object[dbSchema.size()];
+                            for (int i = 0; i < values.length; i++) {
+                                values[i] = rs.getObject(i + 3);
+                            }
+                            dbRecord = new Row(dbSchema, values);
+                        }
+
+                        if (!csvPresent) {
+                            sink.dbOnly(dbRecord);
+                            continue;
+                        }
+
+                        Map<String, Object> csvRecord = staged.get((int) csvRow);
+                        reported.set((int) csvRow);
+                        if (dbRecord == null) {
+                            sink.unmatched(csvRecord);
+                        } else {
+                            sink.matched(csvRecord, dbRecord, comparison.differences(csvRecord, dbRecord));
+                        }
+                    }
+                }
+            }
+
+            // Step 3: Everything the join did not return agrees
+            for (int i = reported.nextClearBit(0); i < staged.size(); i = reported.nextClearBit(i + 1)) {
+                sink.matched(staged.get(i), null, Collections.emptyMap());
+            }
+        } finally {
+            try (Statement ddl = connection.createStatement()) {
+                ddl.execute("DROP TABLE IF EXISTS " + stagingTable);
+            }
+        }
+    }
+
+    /**
+     * Text columns plus the CSV row index; temporary where the dialect allows it
+     */
+    static String createStagingTable(RowDigest.Dialect dialect, String stagingTable, List<String> columns) {
+        String textType;
+        String create;
+        switch (dialect) {
+            case POSTGRES:
+                textType = "text";
+                create = "CREATE TEMPORARY TABLE ";
+                break;
+            case H2:
+                textType = "varchar";
+                create = "CREATE LOCAL TEMPORARY TABLE ";
+                break;
+            default:
+                // SQL warehouses have no session temp tables; the table is dropped after the run
+                textType = "string";
+                create = "CREATE TABLE ";
+        }
+
+        StringJoiner definition = new StringJoiner(", ", "(", ")");
+        definition.add(ROW_COLUMN + " bigint");
+        for (String column : columns) {
+            definition.add(column + " " + textType);
+        }
+        return create + stagingTable + " " + definition;
+    }
+
+    /**
+     * Insert the records with multi-row VALUES lists, executing the statements in batches
+     */
+    private static void loadStagingTable(Connection connection, String stagingTable, List<String> columns,
+                                         List<Map<String, Object>> staged) throws SQLException {
+
+        int rowsPerInsert = Math.max(1, MAX_PARAMETERS_PER_INSERT / (columns.size() + 1));
+        int fullInserts = staged.size() / rowsPerInsert;
+        int remainder = staged.size() % rowsPerInsert;
+
+        if (fullInserts > 0) {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    insertStatement(stagingTable, columns, rowsPerInsert))) {
+                for (int insert = 0; insert < fullInserts; insert++) {
+                    bindRows(stmt, columns, staged, insert * rowsPerInsert, rowsPerInsert);
+                    stmt.addBatch();
+                    if ((insert + 1) % INSERTS_PER_BATCH == 0) {
+                        stmt.executeBatch();
+                    }
+                }
+                if (fullInserts % INSERTS_PER_BATCH != 0) {
+                    stmt.executeBatch();
+                }
+            }
+        }
+
+        if (remainder > 0) {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    insertStatement(stagingTable, columns, remainder))) {
+                bindRows(stmt, columns, staged, fullInserts * rowsPerInsert, remainder);
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    static String insertStatement(String stagingTable, List<String> columns, int rows) {
+        StringJoiner placeholders = new StringJoiner(", ", "(", ")");
+        for (int i = 0; i <= columns.size(); i++) {
+            placeholders.add("?");
+        }
+        StringJoiner values = new StringJoiner(", ");
+        for (int i = 0; i < rows; i++) {
+            values.add(placeholders.toString());
+        }
+        return "INSERT INTO " + stagingTable + " (" + ROW_COLUMN + ", " + String.join(", ", columns)
+            + ") VALUES " + values;
+    }
+
+    private static void bindRows(PreparedStatement stmt, List<String> columns, List<Map<String, Object>> staged,
+                                 int first, int rows) throws SQLException {
+        int index = 1;
+        for (int row = first; row < first + rows; row++) {
+            Map<String, Object> csvRecord = staged.get(row);
+            stmt.setLong(index++, row);
+            for (String column : columns) {
+                Object value = csvRecord.get(column);
+                stmt.setString(index++, value == null ? null : value.toString());
+            }
+        }
+    }
+
+    /**
+     * Outer join on the keys keeping one-sided rows and rows with a differing
+     * column. Result columns: CSV row index (null for DB-only rows), 1 if the
+     * DB row exists else 0, then every column of the table.
+     */
+    static String diffQuery(RowDigest.Dialect dialect, String stagingTable, String tableName,
+                            List<String> columns, String... primaryKeys) {
+
+        StringJoiner join = new StringJoiner(" AND ");
+        Set<String> keyColumns = new HashSet<>();
+        for (String primaryKey : primaryKeys) {
+            join.add(dialect.textExpression("s." + primaryKey) + " = " + dialect.textExpression("d." + primaryKey));
+            keyColumns.add(primaryKey.toLowerCase());
+        }
+
+        StringJoiner differs = new StringJoiner(" OR ");
+        for (String column : columns) {
+            if (!keyColumns.contains(column.toLowerCase())) {
+                differs.add(dialect.textExpression("s." + column) + " <> " + dialect.textExpression("d." + column));
+            }
+        }
+
+        String dbMissing = "d." + primaryKeys[0] + " IS NULL";
+        String select = "SELECT s." + ROW_COLUMN + ", CASE WHEN " + dbMissing + " THEN 0 ELSE 1 END AS "
+            + PRESENT_COLUMN + ", d.*";
+        String changed = differs.length() == 0 ? "" : " OR " + differs;
+
+        if (dialect != RowDigest.Dialect.H2) {
+            return select + " FROM " + stagingTable + " s FULL OUTER JOIN " + tableName + " d ON " + join
+                + " WHERE s." + ROW_COLUMN + " IS NULL OR " + dbMissing + changed;
+        }
+
+        // H2 has no FULL OUTER JOIN: left join for the CSV side, anti-join for DB-only rows
+        return select + " FROM " + stagingTable + " s LEFT JOIN " + tableName + " d ON " + join
+            + " WHERE " + dbMissing + changed
+            + " UNION ALL SELECT CAST(NULL AS BIGINT), 1, d.* FROM " + tableName + " d"
+            + " WHERE NOT EXISTS (SELECT 1 FROM " + stagingTable + " s WHERE " + join + ")";
+    }
+
+    /**
+     * Schema of the table columns, which follow the row index and presence flag
+     */
+    private static Row.Schema tableSchema(ResultSetMetaData metaData) throws SQLException {
+        String[] names = new String[metaData.getColumnCount() - 2];
+        int[] types = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = metaData.getColumnName(i + 3);
+            types[i] = metaData.getColumnType(i + 3);
+        }
+        return Row.Schema.of(names, types);
+    }
+}
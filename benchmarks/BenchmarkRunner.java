@@ -0,0 +1,68 @@
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Runs the benchmarks with the GC/allocation profiler and saves the results as JSON.
+ *
+ * Each run writes benchmarks/results/jmh-yyyyMMdd-HHmmss.json, which can be
+ * compared between runs with any JMH result viewer. Arguments are regular
+ * JMH options, e.g. a benchmark regex or -p rows=10000 to skip the large
+ * matcher sizes.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            // Listing and help need nothing from this runner, so JMH's own entry point handles them
+            try {
+                Main.main(args);
+            } catch (IOException e) {
+                throw new RunnerException(e);
+            }
+            return;
+        }
+
+        File results = new File("benchmarks/results");
+        results.mkdirs();
+        String file = new File(results,
+            "jmh-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json").getPath();
+
+        Options options = new OptionsBuilder()
+            .parent(commandLine)
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result(file)
+            .build();
+
+        new Runner(options).run();
+        System.out.println("Results written to " + file);
+    }
+}
+
+/*
+Building (see benchmarks/pom.xml; run from the repository root so results land in benchmarks/results):
+   mvn -B -f benchmarks/pom.xml package
+
+The pom copies the root sources and these benchmark classes into the package
+"benchmarks", because JMH does not accept benchmarks in the default package.
+
+Running:
+   java -jar benchmarks/target/benchmarks.jar                       # everything
+   java -jar benchmarks/target/benchmarks.jar -l                    # list the benchmarks
+   java -jar benchmarks/target/benchmarks.jar KeyComparison         # one class
+   java -jar benchmarks/target/benchmarks.jar Matcher -p rows=10000,1000000
+*/
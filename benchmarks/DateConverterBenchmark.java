@@ -0,0 +1,83 @@
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Date conversion throughput: the string API {@link DateFormatConverter#convertDateFormat},
+ * a compiled converter on its fixed-width fast path and on the formatter
+ * fallback, and whole-column conversion with {@link DateColumnConverter}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DateConverterBenchmark {
+
+    private static final int VALUES = 4096;
+    private static final String INPUT = "yyyy-MM-dd HH:mm:ss";
+    private static final String OUTPUT = "dd/MM/yyyy";
+    private static final String TEXT_INPUT = "d MMM yyyy HH:mm";
+
+    @Param({"false", "true"})
+    boolean resetTime;
+
+    private String[] values;
+    private String[] textValues;
+    private List<String> column;
+    private DateFormatConverter.Converter fastPath;
+    private DateFormatConverter.Converter formatterPath;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        DateTimeFormatter fixed = DateTimeFormatter.ofPattern(INPUT);
+        DateTimeFormatter text = DateTimeFormatter.ofPattern(TEXT_INPUT);
+        values = new String[VALUES];
+        textValues = new String[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            LocalDateTime dateTime = LocalDateTime.of(2000, 1, 1, 0, 0).plusSeconds(random.nextInt(900_000_000));
+            values[i] = fixed.format(dateTime);
+            textValues[i] = text.format(dateTime);
+        }
+        column = new ArrayList<>(100_000);
+        for (int i = 0; i < 100_000; i++) {
+            column.add(values[i % VALUES]);
+        }
+        fastPath = DateFormatConverter.compile(INPUT, OUTPUT, resetTime);
+        formatterPath = DateFormatConverter.compile(TEXT_INPUT, OUTPUT, resetTime);
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (VALUES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public String convertDateFormat() {
+        return DateFormatConverter.convertDateFormat(values[nextIndex()], INPUT, OUTPUT, resetTime);
+    }
+
+    @Benchmark
+    public String compiledFastPath() {
+        return fastPath.convert(values[nextIndex()]);
+    }
+
+    @Benchmark
+    public String compiledFormatterPath() {
+        return formatterPath.convert(textValues[nextIndex()]);
+    }
+
+    /** One operation converts 100k values */
+    @Benchmark
+    @OperationsPerInvocation(100_000)
+    public void convertColumn(Blackhole blackhole) {
+        blackhole.consume(DateColumnConverter.convert(column, INPUT, OUTPUT, resetTime));
+    }
+}
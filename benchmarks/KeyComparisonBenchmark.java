@@ -0,0 +1,119 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record hot paths of the matchers: building a composite key, comparing a
+ * CSV record with its database row, collecting differences and building the
+ * chunked WHERE clause, on synthetic rows of several widths and key counts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyComparisonBenchmark {
+
+    @Param({"8", "32", "128"})
+    int width;
+
+    @Param({"1", "2", "4"})
+    int keyCount;
+
+    private CompositeKey.Layout layout;
+    private ComparisonPlan.Compiled comparison;
+    private String[] keyColumns;
+    private Map<String, Object> csvRecord;
+    private Map<String, Object> dbMap;
+    private Row dbRow;
+    private Row dbRowDiffering;
+
+    @Setup
+    public void setUp() {
+        String[] names = new String[width];
+        int[] types = new int[width];
+        Object[] dbValues = new Object[width];
+        csvRecord = new LinkedHashMap<>();
+        for (int i = 0; i < width; i++) {
+            names[i] = i < keyCount ? "key_" + i : "col_" + i;
+            // Keys are numeric; the other columns cycle through the common warehouse types
+            switch (i < keyCount ? 0 : i % 4) {
+                case 0:
+                    types[i] = Types.BIGINT;
+                    dbValues[i] = 1_000_000L + i;
+                    break;
+                case 1:
+                    types[i] = Types.VARCHAR;
+                    dbValues[i] = "value-" + i;
+                    break;
+                case 2:
+                    types[i] = Types.DECIMAL;
+                    dbValues[i] = new BigDecimal(i + ".25");
+                    break;
+                default:
+                    types[i] = Types.TIMESTAMP;
+                    dbValues[i] = Timestamp.valueOf("2024-03-0" + (1 + i % 9) + " 10:15:30");
+            }
+            csvRecord.put(names[i], dbValues[i].toString());
+        }
+
+        Row.Schema schema = Row.Schema.of(names, types);
+        dbRow = new Row(schema, dbValues);
+        dbMap = new LinkedHashMap<>(dbRow);
+
+        Object[] differing = dbValues.clone();
+        differing[width - 1] = types[width - 1] == Types.BIGINT ? (Object) (-1L) : "different";
+        dbRowDiffering = new Row(schema, differing);
+
+        keyColumns = Arrays.copyOf(names, keyCount);
+        layout = CompositeKey.Layout.of(keyColumns);
+        comparison = ComparisonPlan.DEFAULT.compile(RowDigest.columnsOf(csvRecord));
+    }
+
+    @Benchmark
+    public CompositeKey keyOfCsvRecord() {
+        return layout.keyOf(csvRecord);
+    }
+
+    @Benchmark
+    public CompositeKey keyOfRow() {
+        return layout.keyOf(dbRow);
+    }
+
+    @Benchmark
+    public boolean matchesRow() {
+        return comparison.matches(csvRecord, dbRow);
+    }
+
+    @Benchmark
+    public boolean matchesMap() {
+        return comparison.matches(csvRecord, dbMap);
+    }
+
+    @Benchmark
+    public Map<String, Object> differencesNone() {
+        return comparison.differences(csvRecord, dbRow);
+    }
+
+    @Benchmark
+    public Map<String, Object> differencesLastColumn() {
+        return comparison.differences(csvRecord, dbRowDiffering);
+    }
+
+    @Benchmark
+    public String whereClauseChunk() {
+        return OptimizedDatabaseMatcher.buildWhereClause(
+            OptimizedDatabaseMatcher.DEFAULT_MAX_PARAMETERS / keyColumns.length, keyColumns, true);
+    }
+
+    @Benchmark
+    public String whereClauseChunkOrConditions() {
+        return OptimizedDatabaseMatcher.buildWhereClause(
+            OptimizedDatabaseMatcher.DEFAULT_MAX_PARAMETERS / keyColumns.length, keyColumns, false);
+    }
+}
@@ -0,0 +1,85 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end reconciliation against an embedded H2 database: the full-table
+ * fetch of {@link DatabaseCSVMatcher#compareRecords} against the chunked key
+ * lookups of {@link OptimizedDatabaseMatcher#compareRecordsOptimized}.
+ *
+ * The CSV side is generated to agree with the table except for 1% of rows
+ * with a changed name, 0.1% missing from the CSV and 0.1% missing from the
+ * table. The 10M row case needs a large heap; lower -Xmx with
+ * -jvmArgsAppend when running only the smaller sizes.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx24g"})
+public class MatcherBenchmark {
+
+    private static final String TABLE = "recon_bench";
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Param({"10000", "1000000", "10000000"})
+    int rows;
+
+    private Connection connection;
+    private List<Map<String, Object>> csvRecords;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:matcher_bench_" + rows + ";DB_CLOSE_DELAY=-1");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + TABLE);
+            stmt.execute("CREATE TABLE " + TABLE + " (id BIGINT PRIMARY KEY, name VARCHAR(40), "
+                + "amount DECIMAL(12,2), updated_at TIMESTAMP)");
+            stmt.execute("INSERT INTO " + TABLE + " SELECT X, CONCAT('name-', X), "
+                + "CAST(MOD(X, 100000) AS DECIMAL(12,2)) / 100, "
+                + "DATEADD('SECOND', X, TIMESTAMP '2024-01-01 00:00:00') FROM SYSTEM_RANGE(1, " + rows + ")");
+        }
+
+        int extra = Math.max(1, rows / 1000);
+        csvRecords = new ArrayList<>(rows + extra);
+        for (long id = 1; id <= rows + extra; id++) {
+            if (id % 1000 == 500) {
+                continue; // Only in the table
+            }
+            Map<String, Object> csvRecord = new LinkedHashMap<>(8);
+            csvRecord.put("id", Long.toString(id));
+            csvRecord.put("name", id % 100 == 7 ? "renamed-" + id : "name-" + id);
+            csvRecord.put("amount", BigDecimal.valueOf(id % 100000, 2).toPlainString());
+            csvRecord.put("updated_at", Timestamp.valueOf(EPOCH.plusSeconds(id)).toString());
+            csvRecords.add(csvRecord);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE " + TABLE);
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public MatchSink.Counting compareRecords() throws SQLException {
+        MatchSink.Counting sink = new MatchSink.Counting();
+        DatabaseCSVMatcher.compareRecords(csvRecords, connection, TABLE, ComparisonPlan.DEFAULT, sink, "id");
+        return sink;
+    }
+
+    @Benchmark
+    public MatchSink.Counting compareRecordsOptimized() throws SQLException {
+        MatchSink.Counting sink = new MatchSink.Counting();
+        OptimizedDatabaseMatcher.compareRecordsOptimized(csvRecords, connection, TABLE, ComparisonPlan.DEFAULT,
+            sink, "id");
+        return sink;
+    }
+}
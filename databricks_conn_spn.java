@@ -1,5 +1,8 @@
+import javax.sql.DataSource;
+import java.io.*;
 import java.sql.*;
-import java.util.Properties;
+import java.time.Duration;
+import java.util.*;
 
 public class DatabricksConnection {
     
@@ -9,8 +12,10 @@ public class DatabricksConnection {
     private static final String CLIENT_ID = "your-service-principal-client-id";
     private static final String CLIENT_SECRET = "your-service-principal-secret";
     private static final String TENANT_ID = "your-azure-tenant-id";
+    private static final Duration QUERY_TIMEOUT = Duration.ofMinutes(5);
     
     public static void main(String[] args) {
+        DatabricksConnectionPool pool = null;
         Connection connection = null;
         
         try {
@@ -31,7 +36,7 @@ public class DatabricksConnection {
             props.setProperty("OAuth2TenantId", TENANT_ID);
             props.setProperty("HTTPPath", HTTP_PATH);
             props.setProperty("SSL", "1");
-            props.setProperty("EnableTokenCache", "0"); // Disable token caching
+            props.setProperty("EnableTokenCache", "1"); // Reuse the OAuth token across connections
             
             // Explicitly disable interactive flows
             props.setProperty("OAuth2RedirectUri", ""); // Empty to prevent browser redirect
@@ -49,7 +54,12 @@ public class DatabricksConnection {
             System.out.println("HTTP Path: " + HTTP_PATH);
             System.out.println("Tenant ID: " + TENANT_ID);
             
-            connection = DriverManager.getConnection(baseUrl, props);
+            // Pre-warm the connections up front; the keepalive stops the warehouse suspending mid-job
+            pool = DatabricksConnectionPool.builder(baseUrl)
+                .properties(props)
+                .size(4)
+                .build();
+            connection = pool.getConnection();
             System.out.println("Connected to Databricks successfully!");
             
             // Alternative Method 2: Direct Azure AD authentication (non-interactive)
@@ -62,7 +72,7 @@ public class DatabricksConnection {
             directProps.setProperty("OAuth2TenantId", TENANT_ID);
             directProps.setProperty("HTTPPath", HTTP_PATH);
             directProps.setProperty("SSL", "1");
-            directProps.setProperty("EnableTokenCache", "0");
+            directProps.setProperty("EnableTokenCache", "1");
             directProps.setProperty("OAuth2GrantType", "client_credentials");
             
             connection = DriverManager.getConnection(baseUrl, directProps);
@@ -93,7 +103,7 @@ public class DatabricksConnection {
             System.out.println("Connected to Databricks successfully!");
             
             // Query tables
-            queryTables(connection);
+            queryTables(pool);
             
         } catch (ClassNotFoundException e) {
             System.err.println("Databricks JDBC driver not found: " + e.getMessage());
@@ -109,48 +119,47 @@ public class DatabricksConnection {
                     System.err.println("Error closing connection: " + e.getMessage());
                 }
             }
+            if (pool != null) {
+                System.out.println("Pool: " + pool.getMetrics());
+                pool.close();
+            }
         }
     }
     
-    private static void queryTables(Connection connection) throws SQLException {
+    private static void queryTables(DataSource dataSource) throws SQLException {
+        Map<String, String> queries = new LinkedHashMap<>();
         // Example 1: List all tables in default database
-        System.out.println("\n=== Available Tables ===");
-        String showTablesQuery = "SHOW TABLES";
-        executeQuery(connection, showTablesQuery);
-        
+        queries.put("Available Tables", "SHOW TABLES");
         // Example 2: Query specific table
-        System.out.println("\n=== Sample Data Query ===");
-        String dataQuery = "SELECT * FROM your_table_name LIMIT 10";
-        executeQuery(connection, dataQuery);
-        
+        queries.put("Sample Data Query", "SELECT * FROM your_table_name LIMIT 10");
         // Example 3: Count records in a table
-        System.out.println("\n=== Record Count ===");
-        String countQuery = "SELECT COUNT(*) as total_records FROM your_table_name";
-        executeQuery(connection, countQuery);
-    }
-    
-    private static void executeQuery(Connection connection, String sql) throws SQLException {
-        try (Statement statement = connection.createStatement();
-             ResultSet resultSet = statement.executeQuery(sql)) {
-            
-            // Get column metadata
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-            
-            // Print column headers
-            for (int i = 1; i <= columnCount; i++) {
-                System.out.print(metaData.getColumnName(i) + "\t");
+        queries.put("Record Count", "SELECT COUNT(*) as total_records FROM your_table_name");
+        
+        // The queries run concurrently; each buffers its own output so the sections do not interleave
+        Map<String, StringWriter> outputs = new LinkedHashMap<>();
+        Map<String, QueryRunner.Query> submitted = new LinkedHashMap<>();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        
+        try (QueryRunner runner = new QueryRunner(dataSource, queries.size(), QUERY_TIMEOUT)) {
+            for (Map.Entry<String, String> query : queries.entrySet()) {
+                StringWriter output = new StringWriter();
+                outputs.put(query.getKey(), output);
+                submitted.put(query.getKey(), runner.submit(query.getValue(), QueryRunner.RowHandler.delimited(output, '\t')));
             }
-            System.out.println();
             
-            // Print data rows
-            while (resultSet.next()) {
-                for (int i = 1; i <= columnCount; i++) {
-                    System.out.print(resultSet.getString(i) + "\t");
-                }
-                System.out.println();
+            for (Map.Entry<String, QueryRunner.Query> query : submitted.entrySet()) {
+                QueryRunner.QueryResult result = query.getValue().get();
+                out.println("\n=== " + query.getKey() + " ===");
+                out.print(outputs.get(query.getKey()));
+                out.println("Query executed successfully: " + result + "\n");
             }
-            System.out.println("Query executed successfully.\n");
+        } catch (IOException e) {
+            throw new SQLException("Failed to write query output", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for queries", e);
+        } finally {
+            out.flush();
         }
     }
 }
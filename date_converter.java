@@ -1,9 +1,24 @@
+import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DateFormatConverter {
     
+    // Input patterns seen in our extracts, most specific first
+    public static final String[] KNOWN_INPUT_PATTERNS = {
+        "yyyy-MM-dd HH:mm:ss.SSS",
+        "yyyy-MM-dd HH:mm:ss",
+        "yyyy-MM-dd HH:mm",
+        "yyyy-MM-dd",
+        "dd/MM/yyyy HH:mm:ss.SSS",
+        "MM-dd-yy"
+    };
+    
     public static void main(String[] args) {
         // Example 1: Convert mm-dd-yy to yyyy-mm-dd
         convertSimpleDate();
@@ -97,37 +112,350 @@ public class DateFormatConverter {
     // Utility method for flexible conversion
     public static String convertDateFormat(String inputDate, String inputPattern, String outputPattern, boolean resetTime) {
         try {
-            if (inputPattern.contains("HH") || inputPattern.contains("mm") || inputPattern.contains("ss")) {
-                // Input has time components
-                DateTimeFormatter inputFormatter = DateTimeFormatter.ofPattern(inputPattern);
-                DateTimeFormatter outputFormatter = DateTimeFormatter.ofPattern(outputPattern);
-                
-                LocalDateTime dateTime = LocalDateTime.parse(inputDate, inputFormatter);
-                
+            return compile(inputPattern, outputPattern, resetTime).convertOrThrow(inputDate);
+        } catch (Exception e) {
+            return "Error: " + e.getMessage();
+        }
+    }
+    
+    private static final Map<String, Converter> CONVERTERS = new ConcurrentHashMap<>();
+    
+    /**
+     * Converter for a pattern pair, built once and cached
+     * @param resetTime Whether times are reset to 00:00:00 in the output
+     * @return shared, thread-safe converter
+     */
+    public static Converter compile(String inputPattern, String outputPattern, boolean resetTime) {
+        String key = inputPattern + '\u0000' + outputPattern + '\u0000' + resetTime;
+        Converter converter = CONVERTERS.get(key);
+        if (converter == null) {
+            converter = CONVERTERS.computeIfAbsent(key, k -> new Converter(inputPattern, outputPattern, resetTime));
+        }
+        return converter;
+    }
+    
+    /**
+     * Converts dates from one pattern to another with the same results as
+     * {@link #convertDateFormat}. Fixed-width numeric patterns such as
+     * MM-dd-yy, yyyy-MM-dd and dd/MM/yyyy HH:mm:ss.SSS are parsed and
+     * formatted by hand, straight from the CharSequence. Other patterns, and
+     * inputs the fast path cannot vouch for (wrong length, out-of-range
+     * fields), go through DateTimeFormatter.
+     */
+    public static final class Converter {
+        private final DateTimeFormatter inputFormatter;
+        private final DateTimeFormatter outputFormatter;
+        private final boolean inputHasTime;
+        private final boolean outputHasTime;
+        private final boolean resetTime;
+        private final FixedLayout fastInput;
+        private final FixedLayout fastOutput;
+        
+        Converter(String inputPattern, String outputPattern, boolean resetTime) {
+            this.inputFormatter = DateTimeFormatter.ofPattern(inputPattern);
+            this.outputFormatter = DateTimeFormatter.ofPattern(outputPattern);
+            this.inputHasTime = hasTime(inputPattern);
+            this.outputHasTime = hasTime(outputPattern);
+            this.resetTime = resetTime;
+            
+            FixedLayout input = FixedLayout.of(inputPattern);
+            FixedLayout output = FixedLayout.of(outputPattern);
+            // A date-only input formatted with SSS but no HH/mm/ss is an error in the general path
+            boolean sameOutcome = inputHasTime || outputHasTime || output == null || !output.hasTime();
+            boolean parsesDate = input != null && input.hasDate() && (inputHasTime || !input.hasTime());
+            this.fastInput = parsesDate && sameOutcome ? input : null;
+            this.fastOutput = parsesDate && sameOutcome ? output : null;
+        }
+        
+        /**
+         * @return true when both patterns use the hand-written parser and formatter
+         */
+        public boolean isFastPath() {
+            return fastInput != null && fastOutput != null;
+        }
+        
+        /**
+         * @return the converted date, or null if the input does not match the pattern
+         */
+        public String convert(CharSequence input) {
+            StringBuilder out = new StringBuilder(fastOutput != null ? fastOutput.width : 32);
+            return appendTo(input, out) ? out.toString() : null;
+        }
+        
+        /**
+         * Append the converted date; nothing is appended if the input does not match the pattern
+         * @return whether the input matched
+         */
+        public boolean appendTo(CharSequence input, StringBuilder out) {
+            if (input == null) {
+                return false;
+            }
+            if (fastInput != null && fastOutput != null) {
+                long fields = fastInput.parse(input);
+                if (fields >= 0) {
+                    fastOutput.format(resetTime ? FixedLayout.dateOnly(fields) : fields, out);
+                    return true;
+                }
+            }
+            try {
+                out.append(convertSlow(input));
+                return true;
+            } catch (DateTimeException e) {
+                return false;
+            }
+        }
+        
+        String convertOrThrow(String input) {
+            if (fastInput != null && fastOutput != null && input != null) {
+                long fields = fastInput.parse(input);
+                if (fields >= 0) {
+                    StringBuilder out = new StringBuilder(fastOutput.width);
+                    fastOutput.format(resetTime ? FixedLayout.dateOnly(fields) : fields, out);
+                    return out.toString();
+                }
+            }
+            return convertSlow(input);
+        }
+        
+        private String convertSlow(CharSequence input) {
+            if (inputHasTime) {
+                LocalDateTime dateTime = LocalDateTime.parse(input, inputFormatter);
                 if (resetTime) {
-                    // Reset time to 00:00:00
                     dateTime = dateTime.toLocalDate().atStartOfDay();
                 }
-                
                 return dateTime.format(outputFormatter);
-            } else {
-                // Input is date-only
-                DateTimeFormatter inputFormatter = DateTimeFormatter.ofPattern(inputPattern);
-                LocalDate date = LocalDate.parse(inputDate, inputFormatter);
+            }
+            LocalDate date = LocalDate.parse(input, inputFormatter);
+            return outputHasTime ? date.atStartOfDay().format(outputFormatter) : date.format(outputFormatter);
+        }
+        
+        private static boolean hasTime(String pattern) {
+            return pattern.contains("HH") || pattern.contains("mm") || pattern.contains("ss");
+        }
+    }
+    
+    /**
+     * Fixed-width pattern of numeric fields (yyyy, yy, MM, dd, HH, mm, ss, SSS)
+     * and single-character literals. Parsed values are packed into one long so
+     * that no objects are created per date.
+     */
+    static final class FixedLayout {
+        private static final byte LITERAL = 0;
+        private static final byte YEAR = 1;
+        private static final byte YEAR_OF_CENTURY = 2;
+        private static final byte MONTH = 3;
+        private static final byte DAY = 4;
+        private static final byte HOUR = 5;
+        private static final byte MINUTE = 6;
+        private static final byte SECOND = 7;
+        private static final byte MILLIS = 8;
+        
+        // Bit offsets of the packed fields
+        private static final int YEAR_SHIFT = 36;
+        private static final int MONTH_SHIFT = 32;
+        private static final int DAY_SHIFT = 27;
+        private static final int HOUR_SHIFT = 22;
+        private static final int MINUTE_SHIFT = 16;
+        private static final int SECOND_SHIFT = 10;
+        private static final long TIME_MASK = (1L << DAY_SHIFT) - 1;
+        
+        private final byte[] kinds;
+        private final char[] literals;
+        private final int[] widths;
+        final int width;
+        private final int fieldMask;
+        
+        private FixedLayout(byte[] kinds, char[] literals, int[] widths, int fieldMask) {
+            this.kinds = kinds;
+            this.literals = literals;
+            this.widths = widths;
+            this.fieldMask = fieldMask;
+            int total = 0;
+            for (int w : widths) {
+                total += w;
+            }
+            this.width = total;
+        }
+        
+        /**
+         * @return the layout, or null if the pattern is not fixed-width numeric
+         */
+        static FixedLayout of(String pattern) {
+            List<Byte> kinds = new ArrayList<>();
+            List<Character> literals = new ArrayList<>();
+            List<Integer> widths = new ArrayList<>();
+            int fieldMask = 0;
+            
+            for (int i = 0; i < pattern.length(); ) {
+                char c = pattern.charAt(i);
+                int run = 1;
+                while (i + run < pattern.length() && pattern.charAt(i + run) == c) {
+                    run++;
+                }
                 
-                if (outputPattern.contains("HH") || outputPattern.contains("mm") || outputPattern.contains("ss")) {
-                    // Output needs time, so convert to LocalDateTime with 00:00
-                    DateTimeFormatter outputFormatter = DateTimeFormatter.ofPattern(outputPattern);
-                    LocalDateTime dateTime = date.atStartOfDay();
-                    return dateTime.format(outputFormatter);
-                } else {
-                    // Both input and output are date-only
-                    DateTimeFormatter outputFormatter = DateTimeFormatter.ofPattern(outputPattern);
-                    return date.format(outputFormatter);
+                if (!Character.isLetter(c)) {
+                    if (c == '\'' || c == '[' || c == ']' || c == '#' || c == '{' || c == '}') {
+                        return null; // Quoting and optional sections need the real formatter
+                    }
+                    for (int j = 0; j < run; j++) {
+                        kinds.add(LITERAL);
+                        literals.add(c);
+                        widths.add(1);
+                    }
+                    i += run;
+                    continue;
+                }
+                
+                byte kind = fieldKind(c, run);
+                if (kind == LITERAL || (fieldMask & (1 << kind)) != 0) {
+                    return null;
                 }
+                fieldMask |= 1 << kind;
+                kinds.add(kind);
+                literals.add('\0');
+                widths.add(run);
+                i += run;
+            }
+            
+            if ((fieldMask & (1 << YEAR)) != 0 && (fieldMask & (1 << YEAR_OF_CENTURY)) != 0) {
+                return null;
+            }
+            
+            byte[] kindArray = new byte[kinds.size()];
+            char[] literalArray = new char[kinds.size()];
+            int[] widthArray = new int[kinds.size()];
+            for (int i = 0; i < kindArray.length; i++) {
+                kindArray[i] = kinds.get(i);
+                literalArray[i] = literals.get(i);
+                widthArray[i] = widths.get(i);
+            }
+            return new FixedLayout(kindArray, literalArray, widthArray, fieldMask);
+        }
+        
+        private static byte fieldKind(char letter, int count) {
+            switch (letter) {
+                case 'y':
+                    return count == 4 ? YEAR : count == 2 ? YEAR_OF_CENTURY : LITERAL;
+                case 'M':
+                    return count == 2 ? MONTH : LITERAL;
+                case 'd':
+                    return count == 2 ? DAY : LITERAL;
+                case 'H':
+                    return count == 2 ? HOUR : LITERAL;
+                case 'm':
+                    return count == 2 ? MINUTE : LITERAL;
+                case 's':
+                    return count == 2 ? SECOND : LITERAL;
+                case 'S':
+                    return count == 3 ? MILLIS : LITERAL;
+                default:
+                    return LITERAL;
+            }
+        }
+        
+        /**
+         * @return whether the pattern has a year, month and day
+         */
+        boolean hasDate() {
+            boolean year = (fieldMask & ((1 << YEAR) | (1 << YEAR_OF_CENTURY))) != 0;
+            return year && (fieldMask & (1 << MONTH)) != 0 && (fieldMask & (1 << DAY)) != 0;
+        }
+        
+        boolean hasTime() {
+            return (fieldMask & ((1 << HOUR) | (1 << MINUTE) | (1 << SECOND) | (1 << MILLIS))) != 0;
+        }
+        
+        /**
+         * @return packed fields, or -1 if the text does not fit the layout or a field is out of range
+         */
+        long parse(CharSequence text) {
+            if (text.length() != width) {
+                return -1;
+            }
+            int year = 0;
+            int month = 0;
+            int day = 0;
+            int hour = 0;
+            int minute = 0;
+            int second = 0;
+            int millis = 0;
+            
+            int pos = 0;
+            for (int i = 0; i < kinds.length; i++) {
+                if (kinds[i] == LITERAL) {
+                    if (text.charAt(pos++) != literals[i]) {
+                        return -1;
+                    }
+                    continue;
+                }
+                int value = 0;
+                for (int end = pos + widths[i]; pos < end; pos++) {
+                    int digit = text.charAt(pos) - '0';
+                    if (digit < 0 || digit > 9) {
+                        return -1;
+                    }
+                    value = value * 10 + digit;
+                }
+                switch (kinds[i]) {
+                    case YEAR: year = value; break;
+                    case YEAR_OF_CENTURY: year = 2000 + value; break;
+                    case MONTH: month = value; break;
+                    case DAY: day = value; break;
+                    case HOUR: hour = value; break;
+                    case MINUTE: minute = value; break;
+                    case SECOND: second = value; break;
+                    default: millis = value;
+                }
+            }
+            
+            // Anything the lenient SMART resolver would adjust is left to DateTimeFormatter
+            if (year < 1 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                    || hour > 23 || minute > 59 || second > 59) {
+                return -1;
+            }
+            return (long) year << YEAR_SHIFT | (long) month << MONTH_SHIFT | (long) day << DAY_SHIFT
+                    | (long) hour << HOUR_SHIFT | (long) minute << MINUTE_SHIFT | (long) second << SECOND_SHIFT | millis;
+        }
+        
+        static long dateOnly(long fields) {
+            return fields & ~TIME_MASK;
+        }
+        
+        void format(long fields, StringBuilder out) {
+            for (int i = 0; i < kinds.length; i++) {
+                switch (kinds[i]) {
+                    case LITERAL: out.append(literals[i]); break;
+                    case YEAR: appendPadded(out, (int) (fields >>> YEAR_SHIFT), 4); break;
+                    case YEAR_OF_CENTURY: appendPadded(out, (int) (fields >>> YEAR_SHIFT) % 100, 2); break;
+                    case MONTH: appendPadded(out, (int) (fields >>> MONTH_SHIFT) & 0xF, 2); break;
+                    case DAY: appendPadded(out, (int) (fields >>> DAY_SHIFT) & 0x1F, 2); break;
+                    case HOUR: appendPadded(out, (int) (fields >>> HOUR_SHIFT) & 0x1F, 2); break;
+                    case MINUTE: appendPadded(out, (int) (fields >>> MINUTE_SHIFT) & 0x3F, 2); break;
+                    case SECOND: appendPadded(out, (int) (fields >>> SECOND_SHIFT) & 0x3F, 2); break;
+                    default: appendPadded(out, (int) fields & 0x3FF, 3);
+                }
+            }
+        }
+        
+        private static void appendPadded(StringBuilder out, int value, int digits) {
+            for (int divisor = digits == 4 ? 1000 : digits == 3 ? 100 : 10; divisor > 0; divisor /= 10) {
+                out.append((char) ('0' + value / divisor % 10));
+            }
+        }
+        
+        private static int lengthOfMonth(int year, int month) {
+            switch (month) {
+                case 2:
+                    boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                    return leap ? 29 : 28;
+                case 4:
+                case 6:
+                case 9:
+                case 11:
+                    return 30;
+                default:
+                    return 31;
             }
-        } catch (Exception e) {
-            return "Error: " + e.getMessage();
         }
     }
 }
\ No newline at end of file
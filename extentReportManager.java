@@ -1,10 +1,50 @@
+import com.aventstack.extentreports.ExtentReports;
+import com.aventstack.extentreports.ExtentTest;
+import com.aventstack.extentreports.Status;
+import com.aventstack.extentreports.reporter.ExtentSparkReporter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Extent report shared by tests running in parallel.
+ *
+ * Each thread (platform or virtual) logs to its own test, started with
+ * {@link #startTest}. Log calls only append to a lock-free queue; a single
+ * background writer applies them to the ExtentReports model in order, so
+ * neither ExtentReports nor ExtentTest is ever touched by two threads.
+ * The writer also flushes the report periodically while tests run, so the
+ * final {@link #flushReport} only has the tail left to write.
+ */
 public class ExtentReportManager {
     private static ExtentReports extent;
-    private static ExtentTest test;
+    
+    static final String REPORT_FILE = "test-output/ExtentReport.html";
+    
+    private static final ThreadLocal<TestContext> CURRENT = new ThreadLocal<>();
+    private static final Queue<Runnable> PENDING = new ConcurrentLinkedQueue<>();
+    private static final long WRITER_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long WRITER_CHECK_MILLIS = 200;
+    private static volatile Thread writer;
+    private static volatile boolean writerIdle;
+    private static volatile long autoFlushNanos = Duration.ofSeconds(30).toNanos();
+    
+    // Only used on the writer thread
+    private static boolean unflushed;
+    private static long lastFlushNanos = System.nanoTime();
     
     public static void initReport() {
         extent = new ExtentReports();
-        ExtentSparkReporter spark = new ExtentSparkReporter("test-output/ExtentReport.html");
+        ExtentSparkReporter spark = new ExtentSparkReporter(REPORT_FILE);
         
         // Configure to show scrollbars
         spark.config().setCss(
@@ -44,9 +84,210 @@ public class ExtentReportManager {
         spark.config().setReportName("Regression Test Report");
         
         extent.attachReporter(spark);
+        startWriter();
     }
     
+    /**
+     * Write everything logged so far to the report; waits for the writer to catch up
+     * and rethrows a failure of the flush itself
+     * @throws IllegalStateException before {@link #initReport}, when called from a
+     *         report update, which runs on the writer and would wait for itself, or
+     *         when the writer thread has died
+     */
     public static void flushReport() {
+        Thread reportWriter = writer;
+        if (reportWriter == null) {
+            throw new IllegalStateException("Report not initialized; call initReport() first");
+        }
+        if (Thread.currentThread() == reportWriter) {
+            throw new IllegalStateException("flushReport() called from a report update on the writer thread");
+        }
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        enqueue(() -> {
+            try {
+                flushNow();
+                flushed.complete(null);
+            } catch (Throwable e) {
+                flushed.completeExceptionally(e);
+            }
+        });
+        try {
+            while (true) {
+                if (!reportWriter.isAlive() && !flushed.isDone()) {
+                    throw new IllegalStateException("Report writer thread has stopped; nothing more can be flushed");
+                }
+                try {
+                    flushed.get(WRITER_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    // Still queued or flushing; check the writer is alive and wait again
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Report flush failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * How often the writer flushes while updates keep arriving; zero or negative disables it
+     */
+    public static void setAutoFlushInterval(Duration interval) {
+        autoFlushNanos = interval.toNanos();
+    }
+    
+    /**
+     * @return directory holding the report, for files the report links to
+     */
+    public static Path reportDirectory() {
+        return Paths.get(REPORT_FILE).toAbsolutePath().getParent();
+    }
+    
+    /**
+     * Start a test and make it the current thread's test
+     */
+    public static TestContext startTest(String name) {
+        TestContext context = new TestContext();
+        enqueue(() -> context.test = extent.createTest(name));
+        CURRENT.set(context);
+        return context;
+    }
+    
+    /**
+     * Make a test current on this thread, e.g. in a worker a test hands work to
+     */
+    public static void bind(TestContext context) {
+        CURRENT.set(context);
+    }
+    
+    /**
+     * Detach the current thread from its test; pooled threads should call this when a test ends
+     */
+    public static void endTest() {
+        CURRENT.remove();
+    }
+    
+    /**
+     * @return the current thread's test
+     * @throws IllegalStateException if no test was started or bound on this thread
+     */
+    public static TestContext currentTest() {
+        TestContext context = CURRENT.get();
+        if (context == null) {
+            throw new IllegalStateException("No test started on " + Thread.currentThread());
+        }
+        return context;
+    }
+    
+    public static void log(Status status, String details) {
+        currentTest().log(status, details);
+    }
+    
+    public static void pass(String details) {
+        currentTest().log(Status.PASS, details);
+    }
+    
+    public static void fail(String details) {
+        currentTest().log(Status.FAIL, details);
+    }
+    
+    public static void info(String details) {
+        currentTest().log(Status.INFO, details);
+    }
+    
+    /**
+     * Handle on one test. Every call is queued for the report writer and returns at once.
+     */
+    public static final class TestContext {
+        private ExtentTest test; // Only read and written on the writer thread
+        
+        TestContext() {
+        }
+        
+        public void log(Status status, String details) {
+            enqueue(() -> test.log(status, details));
+        }
+        
+        public void fail(Throwable error) {
+            enqueue(() -> test.fail(error));
+        }
+        
+        public void assignCategory(String... categories) {
+            enqueue(() -> test.assignCategory(categories));
+        }
+        
+        /**
+         * Run an arbitrary update of the ExtentTest on the writer thread
+         */
+        public void withTest(Consumer<ExtentTest> update) {
+            enqueue(() -> update.accept(test));
+        }
+    }
+    
+    private static void enqueue(Runnable update) {
+        PENDING.add(update);
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+    }
+    
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        Thread thread = new Thread(ExtentReportManager::drain, "extent-report-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+    
+    private static void drain() {
+        while (true) {
+            Runnable update = PENDING.poll();
+            if (update != null) {
+                unflushed = true;
+                try {
+                    update.run();
+                } catch (Throwable e) {
+                    // One bad update, even a failed assertion, must not stop the report for every other test
+                    e.printStackTrace();
+                }
+                flushIfDue();
+                continue;
+            }
+            flushIfDue();
+            // Producers unpark us when they see the idle flag; the timeout covers the race
+            writerIdle = true;
+            if (PENDING.isEmpty()) {
+                LockSupport.parkNanos(WRITER_IDLE_NANOS);
+            }
+            writerIdle = false;
+        }
+    }
+    
+    private static void flushIfDue() {
+        long interval = autoFlushNanos;
+        if (unflushed && interval > 0 && System.nanoTime() - lastFlushNanos >= interval) {
+            try {
+                flushNow();
+            } catch (Throwable e) {
+                // Periodic flush; a lasting failure surfaces through flushReport()
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    private static void flushNow() {
+        unflushed = false;
+        lastFlushNanos = System.nanoTime();
         extent.flush();
     }
 }
\ No newline at end of file
@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChecksumBucketMatcherTest {
+
+    @Test
+    void fewDifferingLeavesAgreeWithTheHashPath() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            List<Map<String, Object>> csv = load(db, 2000, 97);
+
+            List<String> prepared = new ArrayList<>();
+            H2Fixture.assertSameResult(DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id", "region"),
+                ChecksumBucketMatcher.compareRecordsByBuckets(csv, OptimizedDatabaseMatcherTest.recording(connection, prepared),
+                    "t", RowDigest.Dialect.H2, 64, 16, "id", "region"));
+            assertEquals(1, prepared.stream().filter(sql -> sql.startsWith("SELECT * FROM t WHERE")).count());
+        }
+    }
+
+    @Test
+    void manyDifferingLeavesAreFetchedInOneScan() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            List<Map<String, Object>> csv = load(db, 6000, 2);
+
+            List<String> prepared = new ArrayList<>();
+            H2Fixture.assertSameResult(DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id", "region"),
+                ChecksumBucketMatcher.compareRecordsByBuckets(csv, OptimizedDatabaseMatcherTest.recording(connection, prepared),
+                    "t", RowDigest.Dialect.H2, 64, 64, "id", "region"));
+            assertEquals(1, prepared.stream().filter(sql -> sql.startsWith("SELECT q.*")).count());
+            assertEquals(0, prepared.stream().filter(sql -> sql.startsWith("SELECT * FROM")).count());
+        }
+    }
+
+    /**
+     * Table and CSV that disagree on every changeEvery-th row, plus a few rows on one side only
+     */
+    private static List<Map<String, Object>> load(H2Fixture db, int rows, int changeEvery) throws Exception {
+        db.execute("CREATE TABLE t (id INT, region VARCHAR(5), v VARCHAR(20), PRIMARY KEY (id, region))");
+        List<Object[]> values = new ArrayList<>();
+        List<Map<String, Object>> csv = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            String region = i % 3 == 0 ? "EU" : "US";
+            if (i % 500 != 1) {
+                values.add(new Object[]{i, region, "v" + i});
+            }
+            if (i % 700 != 2) {
+                csv.add(H2Fixture.csv("id", String.valueOf(i), "region", region,
+                    "v", i % changeEvery == 0 ? "changed" : "v" + i));
+            }
+        }
+        db.insert("t", values);
+        return csv;
+    }
+}
@@ -0,0 +1,131 @@
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.ipc.ArrowWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarFileSourceTest {
+
+    private static final int BATCH_SIZE = 5;
+    private static final int ROWS = 12;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 2, 27);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void arrowFileIsReadBackWithAProjection() throws Exception {
+        Path file = dir.resolve("export.arrow");
+        export(file, true);
+
+        List<Row> rows = new ArrayList<>();
+        RecordSource source = ColumnarFileSource.arrow(file);
+        source.scan(new String[]{"id", "NAME", "missing", "Dt"}, rows::add);
+
+        assertEquals(ROWS, rows.size());
+        for (int i = 0; i < ROWS; i++) {
+            Row row = rows.get(i);
+            // Only the projected columns, with the types JDBC would return
+            assertEquals(List.of("id", "name", "dt"), new ArrayList<>(row.keySet()));
+            assertEquals(i, row.get("id"));
+            assertEquals(i % 4 == 3 ? null : "name" + i, row.get("name"));
+            assertEquals(Date.valueOf(FIRST_DAY.plusDays(i)), row.get("DT"));
+        }
+        Row.Schema schema = rows.get(0).schema();
+        assertEquals(Types.INTEGER, schema.type(0));
+        assertEquals(Types.VARCHAR, schema.type(1));
+        assertEquals(Types.DATE, schema.type(2));
+    }
+
+    @Test
+    void arrowStreamMatchesLikeTheTableItWasExportedFrom() throws Exception {
+        Path stream = dir.resolve("export.arrows");
+        export(stream, false);
+
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(20), dt DATE, payload VARCHAR(100))");
+            List<Object[]> tableRows = new ArrayList<>();
+            for (int i = 0; i < ROWS; i++) {
+                tableRows.add(new Object[]{i, i % 4 == 3 ? null : "name" + i, Date.valueOf(FIRST_DAY.plusDays(i)), "p" + i});
+            }
+            db.insert("t", tableRows);
+
+            // 0..14 against 0..11: every 5th name changed, 12..14 only in the CSV
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (int i = 0; i < 15; i++) {
+                csv.add(H2Fixture.csv("id", String.valueOf(i), "name", i % 5 == 0 ? "changed" : "name" + i));
+            }
+
+            DatabaseCSVMatcher.MatchResult fromFile = DatabaseCSVMatcher.compareRecords(csv, ColumnarFileSource.arrow(stream), "id");
+            DatabaseCSVMatcher.MatchResult fromTable = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id");
+            assertEquals(H2Fixture.counts(fromTable), H2Fixture.counts(fromFile));
+            assertEquals(mismatchedIds(fromTable), mismatchedIds(fromFile));
+        }
+    }
+
+    private static Set<Object> mismatchedIds(DatabaseCSVMatcher.MatchResult result) {
+        Set<Object> ids = new TreeSet<>();
+        for (Map<String, Object> match : result.getMatched()) {
+            if (!((Map<?, ?>) match.get("differences")).isEmpty()) {
+                ids.add(((Map<?, ?>) match.get("csv_record")).get("id"));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Write rows 0..11 in batches of 5 as an Arrow IPC file or stream. Every 4th name is null.
+     */
+    private static void export(Path path, boolean file) throws Exception {
+        try (BufferAllocator allocator = new RootAllocator();
+             IntVector id = new IntVector("ID", allocator);
+             VarCharVector name = new VarCharVector("Name", allocator);
+             DateDayVector day = new DateDayVector("dt", allocator);
+             VarCharVector payload = new VarCharVector("payload", allocator);
+             VectorSchemaRoot root = VectorSchemaRoot.of(id, name, day, payload)) {
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 ArrowWriter writer = file
+                     ? new ArrowFileWriter(root, null, channel)
+                     : new ArrowStreamWriter(root, null, channel)) {
+                writer.start();
+                for (int start = 0; start < ROWS; start += BATCH_SIZE) {
+                    int count = Math.min(BATCH_SIZE, ROWS - start);
+                    root.allocateNew();
+                    for (int row = 0; row < count; row++) {
+                        int i = start + row;
+                        id.setSafe(row, i);
+                        if (i % 4 == 3) {
+                            name.setNull(row);
+                        } else {
+                            name.setSafe(row, ("name" + i).getBytes(StandardCharsets.UTF_8));
+                        }
+                        day.setSafe(row, (int) FIRST_DAY.plusDays(i).toEpochDay());
+                        payload.setSafe(row, ("p" + i).getBytes(StandardCharsets.UTF_8));
+                    }
+                    root.setRowCount(count);
+                    writer.writeBatch();
+                }
+                writer.end();
+            }
+        }
+    }
+}
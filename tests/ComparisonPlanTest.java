@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComparisonPlanTest {
+
+    @Test
+    void realColumnsCompareAtFloatPrecision() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id INT PRIMARY KEY, r REAL, d DOUBLE PRECISION)");
+            db.insert("t", List.of(
+                new Object[]{1, 0.1f, 0.1},
+                new Object[]{2, 3.14159f, 3.14159},
+                new Object[]{3, 16777217f, 0.3},
+                new Object[]{4, 0.2f, 0.1}));
+
+            List<Map<String, Object>> csv = List.of(
+                H2Fixture.csv("id", "1", "r", "0.1", "d", "0.1"),
+                H2Fixture.csv("id", "2", "r", "3.14159", "d", "3.14159"),
+                H2Fixture.csv("id", "3", "r", "16777216", "d", "0.3"),
+                H2Fixture.csv("id", "4", "r", "0.1", "d", "0.1000000001"));
+
+            DatabaseCSVMatcher.MatchResult result = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id");
+
+            assertEquals("4/0/0", H2Fixture.counts(result));
+            Map<Object, Map<?, ?>> differences = new HashMap<>();
+            for (Map<String, Object> match : result.getMatched()) {
+                differences.put(((Map<?, ?>) match.get("csv_record")).get("id"), (Map<?, ?>) match.get("differences"));
+            }
+            assertEquals(Set.of(), differences.get("1").keySet());
+            assertEquals(Set.of(), differences.get("2").keySet());
+            assertEquals(Set.of(), differences.get("3").keySet());
+            assertEquals(Set.of("r", "d"), differences.get("4").keySet());
+        }
+    }
+
+    @Test
+    void untypedFloatValuesCompareAtFloatPrecision() {
+        assertTrue(ComparisonPlan.LENIENT.matches("0.1", 0.1f));
+        assertTrue(ComparisonPlan.LENIENT.matches("1.0E-5", 1.0E-5f));
+        assertFalse(ComparisonPlan.LENIENT.matches("0.2", 0.1f));
+        assertFalse(ComparisonPlan.LENIENT.matches("abc", 0.1f));
+        assertFalse(ComparisonPlan.LENIENT.matches("0.1000000001", 0.1));
+        assertTrue(new ComparisonPlan.NumericComparator(2).matches("0.10", 0.1f));
+    }
+}
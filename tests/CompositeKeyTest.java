@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompositeKeyTest {
+
+    @Test
+    void csvTextAndTypedValuesGiveEqualKeys() {
+        CompositeKey.Layout single = CompositeKey.Layout.of("id");
+        assertKeysEqual(single.keyOf(H2Fixture.csv("id", "7")), single.keyOf(Map.of("id", 7)));
+        assertKeysEqual(single.keyOf(H2Fixture.csv("id", "-42")), single.keyOf(Map.of("id", -42L)));
+        assertNotEquals(single.keyOf(H2Fixture.csv("id", "007")), single.keyOf(Map.of("id", 7)));
+
+        CompositeKey.Layout composite = CompositeKey.Layout.of("region", "seq");
+        assertKeysEqual(composite.keyOf(H2Fixture.csv("region", "EU", "seq", "3")),
+            composite.keyOf(Map.of("region", "EU", "seq", (short) 3)));
+    }
+
+    @Test
+    void partsAreNeverJoined() {
+        CompositeKey.Layout layout = CompositeKey.Layout.of("a", "b");
+        CompositeKey left = layout.keyOf(H2Fixture.csv("a", "x||y", "b", "z"));
+        CompositeKey right = layout.keyOf(H2Fixture.csv("a", "x", "b", "y||z"));
+        assertNotEquals(left, right);
+        assertNotEquals(0, left.compareTo(right));
+
+        Map<String, Object> withNull = new HashMap<>();
+        withNull.put("a", null);
+        withNull.put("b", "null");
+        assertNotEquals(layout.keyOf(withNull), layout.keyOf(H2Fixture.csv("a", "null", "b", "null")));
+    }
+
+    @Test
+    void naturalOrderIsATotalOrder() {
+        CompositeKey.Layout layout = CompositeKey.Layout.of("id");
+        List<CompositeKey> keys = new ArrayList<>();
+        for (String value : new String[]{"10", "9", "-1", "007", "abc", "", "9.5", "1e3", "Z"}) {
+            keys.add(layout.keyOf(H2Fixture.csv("id", value)));
+        }
+        keys.add(layout.keyOf(new HashMap<>(Collections.singletonMap("id", null))));
+
+        for (CompositeKey a : keys) {
+            for (CompositeKey b : keys) {
+                assertEquals(Integer.signum(a.compareTo(b)), -Integer.signum(b.compareTo(a)), a + " vs " + b);
+                for (CompositeKey c : keys) {
+                    if (a.compareTo(b) <= 0 && b.compareTo(c) <= 0) {
+                        assertTrue(a.compareTo(c) <= 0, a + " <= " + b + " <= " + c);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void typedLayoutBindsAndReadsKeysByColumnType() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (code VARCHAR(10), seq BIGINT, v VARCHAR(10), PRIMARY KEY (code, seq))");
+            db.insert("t", List.of(
+                new Object[]{"007", 1L, "padded"},
+                new Object[]{"7", 1L, "plain"},
+                new Object[]{"a||b", 2L, "joined"}));
+
+            CompositeKey.Layout layout = CompositeKey.Layout.resolve(connection, "t", "code", "seq");
+            List<CompositeKey> wanted = List.of(
+                layout.keyOf(H2Fixture.csv("code", "007", "seq", "1")),
+                layout.keyOf(H2Fixture.csv("code", "a||b", "seq", "2")));
+
+            Map<CompositeKey, Map<String, Object>> fetched = OptimizedDatabaseMatcher.fetchRecordsByKeys(
+                connection, "t", wanted, layout, OptimizedDatabaseMatcher.DEFAULT_MAX_PARAMETERS);
+            assertEquals(new HashSet<>(wanted), fetched.keySet());
+            assertEquals("padded", fetched.get(wanted.get(0)).get("v"));
+            assertEquals("joined", fetched.get(wanted.get(1)).get("v"));
+
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT code, seq FROM t WHERE code = ? AND seq = ?")) {
+                layout.bind(stmt, 1, wanted.get(0));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertKeysEqual(wanted.get(0), layout.keyOf(rs));
+                    assertFalse(rs.next());
+                }
+            }
+        }
+    }
+
+    private static void assertKeysEqual(CompositeKey expected, CompositeKey actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        assertEquals(0, expected.compareTo(actual));
+    }
+}
@@ -0,0 +1,294 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabricksConnectionPoolTest {
+
+    @Test
+    void everyConnectionIsOpenedUpFront() throws Exception {
+        try (H2Fixture db = new H2Fixture();
+             DatabricksConnectionPool pool = DatabricksConnectionPool.builder(db.dataSource.getURL()).size(3).build()) {
+            assertEquals(3, pool.getMetrics().getCreated());
+            assertEquals(3, pool.getIdleCount());
+        }
+    }
+
+    @Test
+    void closingTheProxyReturnsTheConnection() throws Exception {
+        try (H2Fixture db = new H2Fixture();
+             DatabricksConnectionPool pool = DatabricksConnectionPool.builder(db.dataSource.getURL()).size(2).build()) {
+            db.execute("CREATE TABLE t (id INT)");
+
+            Connection connection = pool.getConnection();
+            assertEquals(1, pool.getIdleCount());
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("INSERT INTO t VALUES (1)");
+            }
+            connection.close();
+            connection.close();
+
+            assertEquals(2, pool.getIdleCount());
+            assertTrue(connection.isClosed());
+            assertThrows(SQLException.class, connection::createStatement);
+
+            // The uncommitted insert was rolled back and autocommit restored on return
+            try (Connection again = pool.getConnection(); Statement statement = again.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM t")) {
+                assertTrue(again.getAutoCommit());
+                assertTrue(rs.next());
+                assertEquals(0, rs.getInt(1));
+            }
+            assertEquals(2, pool.getMetrics().getBorrows());
+            assertEquals(2, pool.getMetrics().getCreated());
+        }
+    }
+
+    @Test
+    void staleConnectionsAreReplacedByTheKeepalive() throws Exception {
+        try (H2Fixture db = new H2Fixture();
+             DatabricksConnectionPool pool = DatabricksConnectionPool.builder(db.dataSource.getURL())
+                 .size(2).keepAliveInterval(Duration.ofMillis(100)).build()) {
+            int session;
+            try (Connection connection = pool.getConnection()) {
+                session = sessionId(connection);
+            }
+            db.execute("CALL ABORT_SESSION(" + session + ")");
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (pool.getMetrics().getReplaced() == 0) {
+                assertTrue(System.nanoTime() < deadline, "stale connection was not replaced");
+                Thread.sleep(20);
+            }
+
+            Connection first = pool.getConnection();
+            Connection second = pool.getConnection();
+            assertNotEquals(sessionId(first), sessionId(second));
+            first.close();
+            second.close();
+            assertEquals(3, pool.getMetrics().getCreated());
+            assertTrue(pool.getMetrics().getKeepAlives() > 0);
+        }
+    }
+
+    @Test
+    void aFailedReplacementKeepsItsSlot() throws Exception {
+        String url = "jdbc:h2:mem:pool" + System.nanoTime();
+        Connection holder = DriverManager.getConnection(url + ";DB_CLOSE_DELAY=-1");
+        try (DatabricksConnectionPool pool = DatabricksConnectionPool.builder(url + ";IFEXISTS=TRUE")
+                .size(1).keepAliveInterval(Duration.ofHours(1)).build()) {
+
+            // Shut the database down under the pool; new connections now fail
+            try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+                statement.execute("SHUTDOWN");
+            }
+            assertEquals(1, pool.getIdleCount());
+            assertThrows(SQLException.class, pool::getConnection);
+            assertEquals(1, pool.getIdleCount());
+            assertEquals(2, pool.getMetrics().getFailedReplacements());
+
+            // Once the database is back the slot's replacement succeeds
+            holder = DriverManager.getConnection(url + ";DB_CLOSE_DELAY=-1");
+            try (Connection connection = pool.getConnection()) {
+                assertTrue(connection.isValid(1));
+            }
+            assertEquals(1, pool.getMetrics().getReplaced());
+        } finally {
+            holder.close();
+        }
+    }
+
+    @Test
+    void waitsAreMeasuredAndTimeOut() throws Exception {
+        try (H2Fixture db = new H2Fixture();
+             DatabricksConnectionPool pool = DatabricksConnectionPool.builder(db.dataSource.getURL())
+                 .size(1).maxWait(Duration.ofMillis(300)).build()) {
+            Connection held = pool.getConnection();
+            assertThrows(SQLTimeoutException.class, pool::getConnection);
+            assertEquals(1, pool.getMetrics().getTimeouts());
+
+            ScheduledExecutorService returner = Executors.newSingleThreadScheduledExecutor();
+            returner.schedule(() -> {
+                held.close();
+                return null;
+            }, 100, TimeUnit.MILLISECONDS);
+            try (Connection waitedFor = pool.getConnection()) {
+                assertFalse(waitedFor.isClosed());
+            }
+            returner.shutdown();
+
+            assertEquals(2, pool.getMetrics().getBorrows());
+            assertTrue(pool.getMetrics().getMaxWait().toMillis() >= 50, pool.getMetrics().toString());
+        }
+    }
+
+    @Test
+    void connectionsAreRenewedOnBorrowBeforeTheirTokenExpires() throws Exception {
+        MutableClock clock = new MutableClock();
+        try (H2Fixture db = new H2Fixture(); TokenServer server = new TokenServer();
+             DatabricksTokenProvider provider = server.provider(clock);
+             DatabricksConnectionPool pool = DatabricksConnectionPool.builder(RecordingDriver.url(db))
+                 .tokenProvider(provider).clock(clock).size(1).keepAliveInterval(Duration.ofHours(1)).build()) {
+            assertEquals(List.of("token-1"), RecordingDriver.passwords(db));
+
+            // Tokens last an hour; the provider refreshes 5 minutes before expiry, the pool 2 minutes before
+            clock.advance(Duration.ofMinutes(50));
+            pool.getConnection().close();
+            assertEquals(0, pool.getMetrics().getReplaced());
+
+            clock.advance(Duration.ofMinutes(8).plusSeconds(30));
+            try (Connection connection = pool.getConnection()) {
+                assertTrue(connection.isValid(1));
+            }
+            assertEquals(1, pool.getMetrics().getTokenRenewals());
+            List<String> passwords = RecordingDriver.passwords(db);
+            assertEquals(2, passwords.size());
+            assertNotEquals("token-1", passwords.get(1));
+
+            // The replacement carries the new token's expiry, so it is not renewed again
+            pool.getConnection().close();
+            assertEquals(1, pool.getMetrics().getTokenRenewals());
+            assertEquals(2, pool.getMetrics().getCreated());
+        }
+    }
+
+    @Test
+    void theKeepaliveRenewsIdleConnectionsBeforeTheirTokenExpires() throws Exception {
+        MutableClock clock = new MutableClock();
+        try (H2Fixture db = new H2Fixture(); TokenServer server = new TokenServer();
+             DatabricksTokenProvider provider = server.provider(clock);
+             DatabricksConnectionPool pool = DatabricksConnectionPool.builder(RecordingDriver.url(db))
+                 .tokenProvider(provider).clock(clock).size(2).keepAliveInterval(Duration.ofMillis(100)).build()) {
+            assertEquals(List.of("token-1", "token-1"), RecordingDriver.passwords(db));
+
+            clock.advance(Duration.ofMinutes(59));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (pool.getMetrics().getTokenRenewals() < 2) {
+                assertTrue(System.nanoTime() < deadline, "idle connections were not renewed: " + pool.getMetrics());
+                Thread.sleep(20);
+            }
+            assertEquals(0, pool.getMetrics().getBorrows());
+            assertFalse(RecordingDriver.passwords(db).subList(2, 4).contains("token-1"));
+        }
+    }
+
+    private static int sessionId(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT SESSION_ID()")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Token endpoint handing out numbered tokens that last an hour
+     */
+    private static final class TokenServer implements AutoCloseable {
+        private final HttpServer server;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        TokenServer() throws Exception {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/token", exchange -> {
+                byte[] body = ("{\"token_type\":\"Bearer\",\"expires_in\":\"3600\",\"access_token\":\"token-"
+                    + requests.incrementAndGet() + "\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+
+        DatabricksTokenProvider provider(MutableClock clock) {
+            URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/token");
+            return new DatabricksTokenProvider(endpoint, "client", "secret", DatabricksTokenProvider.DATABRICKS_RESOURCE,
+                HttpClient.newHttpClient(), clock, Duration.ofMinutes(5));
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Driver for "jdbc:recording:" URLs that notes the PWD each connection is opened with
+     * and connects to the H2 database named after the prefix, ignoring the credentials
+     */
+    private static final class RecordingDriver implements Driver {
+        private static final String PREFIX = "jdbc:recording:";
+        private static final Map<String, List<String>> PASSWORDS = new ConcurrentHashMap<>();
+
+        static {
+            try {
+                DriverManager.registerDriver(new RecordingDriver());
+            } catch (SQLException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        static String url(H2Fixture db) {
+            return PREFIX + db.dataSource.getURL();
+        }
+
+        static List<String> passwords(H2Fixture db) {
+            return new ArrayList<>(PASSWORDS.getOrDefault(db.dataSource.getURL(), List.of()));
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            String target = url.substring(PREFIX.length());
+            PASSWORDS.computeIfAbsent(target, key -> Collections.synchronizedList(new ArrayList<>()))
+                .add(info.getProperty("PWD"));
+            return DriverManager.getConnection(target);
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(PREFIX);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabricksTokenProviderTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long expiresIn = 3600;
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private final MutableClock clock = new MutableClock();
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/token", exchange -> {
+            int n = requests.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = ("{\"token_type\":\"Bearer\",\"expires_in\":\"" + expiresIn
+                + "\",\"access_token\":\"token-" + n + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void tokenIsCachedUntilTheRefreshMargin() throws Exception {
+        try (DatabricksTokenProvider provider = provider(Duration.ofMinutes(5))) {
+            assertEquals("token-1", provider.getToken());
+            clock.advance(Duration.ofMinutes(50));
+            assertEquals("token-1", provider.getToken());
+            assertEquals(1, requests.get());
+        }
+    }
+
+    @Test
+    void concurrentCallersShareOneRequest() throws Exception {
+        release = new CountDownLatch(1);
+        try (DatabricksTokenProvider provider = provider(Duration.ofMinutes(5))) {
+            ExecutorService callers = Executors.newFixedThreadPool(8);
+            List<Future<String>> tokens = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tokens.add(callers.submit(provider::getToken));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<String> token : tokens) {
+                assertEquals("token-1", token.get(10, TimeUnit.SECONDS));
+            }
+            callers.shutdown();
+            assertEquals(1, requests.get());
+        }
+    }
+
+    @Test
+    void tokenIsRenewedInTheBackgroundInsideTheMargin() throws Exception {
+        try (DatabricksTokenProvider provider = provider(Duration.ofMinutes(5))) {
+            assertEquals("token-1", provider.getToken());
+
+            // Inside the margin the cached token is still returned while a new one is fetched
+            clock.advance(Duration.ofMinutes(56));
+            assertEquals("token-1", provider.getToken());
+            awaitToken(provider, "token-2");
+            assertEquals(2, requests.get());
+        }
+    }
+
+    @Test
+    void shortLivedTokensAreNotRenewedInALoop() throws Exception {
+        expiresIn = 60;
+        try (DatabricksTokenProvider provider = provider(Duration.ofMinutes(5))) {
+            for (int i = 0; i < 50; i++) {
+                assertEquals("token-1", provider.getToken());
+            }
+            Thread.sleep(300);
+            assertEquals(1, requests.get());
+
+            // Replaced on first use after expiry
+            clock.advance(Duration.ofSeconds(61));
+            assertEquals("token-2", provider.getToken());
+            assertEquals(2, requests.get());
+        }
+    }
+
+    @Test
+    void renewalWaitsAtLeastHalfTheLifetime() throws Exception {
+        expiresIn = 400;
+        try (DatabricksTokenProvider provider = provider(Duration.ofMinutes(5))) {
+            assertEquals("token-1", provider.getToken());
+            clock.advance(Duration.ofSeconds(150));
+            provider.getToken();
+            assertEquals(1, requests.get());
+
+            clock.advance(Duration.ofSeconds(60));
+            assertEquals("token-1", provider.getToken());
+            awaitToken(provider, "token-2");
+        }
+    }
+
+    private static void awaitToken(DatabricksTokenProvider provider, String expected) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!expected.equals(provider.getToken())) {
+            assertTrue(System.nanoTime() < deadline, "background refresh did not complete");
+            Thread.sleep(10);
+        }
+    }
+
+    private DatabricksTokenProvider provider(Duration margin) {
+        URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/token");
+        return new DatabricksTokenProvider(endpoint, "client", "secret", DatabricksTokenProvider.DATABRICKS_RESOURCE,
+            HttpClient.newHttpClient(), clock, margin);
+    }
+}
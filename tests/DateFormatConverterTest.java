@@ -0,0 +1,139 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DateFormatConverterTest {
+
+    /** Input pattern, output pattern; each pair runs with and without resetTime */
+    private static final String[][] PATTERNS = {
+        {"MM-dd-yy", "yyyy-MM-dd"},
+        {"yyyy-MM-dd", "dd/MM/yyyy"},
+        {"yyyy-MM-dd", "dd/MM/yyyy HH:mm:ss"},
+        {"dd/MM/yyyy HH:mm:ss.SSS", "yyyy-MM-dd HH:mm:ss"},
+        {"yyyy-MM-dd HH:mm:ss", "MM/dd/yyyy"},
+        {"yyyyMMddHHmmss", "yyyy/MM/dd HH:mm"},
+    };
+
+    @Test
+    void fastPathMatchesTheFormatterFallback() {
+        for (String[] patterns : PATTERNS) {
+            for (boolean resetTime : new boolean[]{false, true}) {
+                DateFormatConverter.Converter converter = DateFormatConverter.compile(patterns[0], patterns[1], resetTime);
+                assertTrue(converter.isFastPath(), Arrays.toString(patterns));
+
+                for (String input : inputs(patterns[0])) {
+                    String expected = reference(input, patterns[0], patterns[1], resetTime);
+                    String context = input + " " + Arrays.toString(patterns) + " resetTime=" + resetTime;
+                    assertEquals(expected, DateFormatConverter.convertDateFormat(input, patterns[0], patterns[1], resetTime), context);
+                    assertEquals(expected.startsWith("Error: ") ? null : expected, converter.convert(input), context);
+
+                    StringBuilder out = new StringBuilder("> ");
+                    assertEquals(!expected.startsWith("Error: "), converter.appendTo(input, out), context);
+                    assertEquals(expected.startsWith("Error: ") ? "> " : "> " + expected, out.toString(), context);
+                }
+            }
+        }
+    }
+
+    @Test
+    void nullInputIsRejectedWithoutAnException() {
+        DateFormatConverter.Converter converter = DateFormatConverter.compile("yyyy-MM-dd", "dd/MM/yyyy", false);
+        StringBuilder out = new StringBuilder();
+        assertFalse(converter.appendTo(null, out));
+        assertEquals("", out.toString());
+        assertNull(converter.convert(null));
+        assertEquals(reference(null, "yyyy-MM-dd", "dd/MM/yyyy", false),
+            DateFormatConverter.convertDateFormat(null, "yyyy-MM-dd", "dd/MM/yyyy", false));
+    }
+
+    /**
+     * Ordinary dates and times, leap days, Feb 30, hour 24, out-of-range fields and wrong lengths
+     */
+    private static List<String> inputs(String pattern) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern);
+        List<String> inputs = new ArrayList<>();
+        LocalDateTime[] samples = {
+            LocalDateTime.of(2024, 1, 1, 0, 0, 0),
+            LocalDateTime.of(2024, 2, 29, 23, 59, 59, 999_000_000),
+            LocalDateTime.of(2023, 2, 28, 12, 30, 5, 7_000_000),
+            LocalDateTime.of(2000, 12, 31, 9, 5, 0),
+            LocalDateTime.of(2099, 6, 15, 18, 45, 30, 120_000_000),
+        };
+        for (LocalDateTime sample : samples) {
+            String text = sample.format(formatter);
+            inputs.add(text);
+            inputs.add(text + "0");
+            inputs.add(text.substring(0, text.length() - 1));
+            inputs.add(" " + text.substring(1));
+        }
+
+        // Leap day in a leap and a common year, Feb 30, day 31 of a 30-day month, month 13
+        LocalDateTime base = LocalDateTime.of(2024, 3, 10, 10, 20, 30, 400_000_000);
+        String text = base.format(formatter);
+        for (String date : new String[]{"2024-02-29", "2023-02-29", "2024-02-30", "2023-04-31", "2023-13-01", "2023-00-10"}) {
+            inputs.add(withDate(text, pattern, date));
+        }
+        // Hour 24, minute 60 and second 60 where the pattern has them
+        for (String field : new String[]{"HH", "mm", "ss"}) {
+            int at = pattern.indexOf(field);
+            if (at >= 0) {
+                inputs.add(text.substring(0, at) + (field.equals("HH") ? "24" : "60") + text.substring(at + 2));
+            }
+        }
+        inputs.add("");
+        return inputs;
+    }
+
+    /**
+     * Replace the year, month and day of a formatted value with the digits of an ISO date
+     */
+    private static String withDate(String text, String pattern, String isoDate) {
+        char[] chars = text.toCharArray();
+        String year = isoDate.substring(0, 4);
+        String month = isoDate.substring(5, 7);
+        String day = isoDate.substring(8, 10);
+        replace(chars, pattern, "yyyy", year);
+        if (!pattern.contains("yyyy")) {
+            replace(chars, pattern, "yy", year.substring(2));
+        }
+        replace(chars, pattern, "MM", month);
+        replace(chars, pattern, "dd", day);
+        return new String(chars);
+    }
+
+    private static void replace(char[] chars, String pattern, String field, String digits) {
+        int at = pattern.indexOf(field);
+        if (at >= 0) {
+            digits.getChars(0, digits.length(), chars, at);
+        }
+    }
+
+    /**
+     * convertDateFormat as it was before the fast path: DateTimeFormatter for every call
+     */
+    private static String reference(String inputDate, String inputPattern, String outputPattern, boolean resetTime) {
+        try {
+            DateTimeFormatter inputFormatter = DateTimeFormatter.ofPattern(inputPattern);
+            DateTimeFormatter outputFormatter = DateTimeFormatter.ofPattern(outputPattern);
+            if (inputPattern.contains("HH") || inputPattern.contains("mm") || inputPattern.contains("ss")) {
+                LocalDateTime dateTime = LocalDateTime.parse(inputDate, inputFormatter);
+                if (resetTime) {
+                    dateTime = dateTime.toLocalDate().atStartOfDay();
+                }
+                return dateTime.format(outputFormatter);
+            }
+            LocalDate date = LocalDate.parse(inputDate, inputFormatter);
+            if (outputPattern.contains("HH") || outputPattern.contains("mm") || outputPattern.contains("ss")) {
+                return date.atStartOfDay().format(outputFormatter);
+            }
+            return date.format(outputFormatter);
+        } catch (Exception e) {
+            return "Error: " + e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DigestDatabaseMatcherTest {
+
+    @Test
+    void agreesWithTheHashPath() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(20), amount DECIMAL(10, 2), note VARCHAR(20))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                String note = i % 4 == 0 ? null : "n" + i;
+                if (i % 9 != 0) {
+                    rows.add(new Object[]{i, "name" + i, new BigDecimal(i + ".25"), note});
+                }
+                if (i % 7 != 0) {
+                    Map<String, Object> record = H2Fixture.csv("id", String.valueOf(i), "name", "name" + i,
+                        "amount", i % 11 == 0 ? i + ".250" : i + ".25");
+                    record.put("note", i % 13 == 0 ? "other" : note);
+                    csv.add(record);
+                }
+            }
+            csv.add(H2Fixture.csv("id", "1", "name", "duplicate", "amount", "1.25", "note", "n1"));
+            db.insert("t", rows);
+
+            H2Fixture.assertSameResult(DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id"),
+                DigestDatabaseMatcher.compareRecordsByDigest(csv, connection, "t", "id"));
+        }
+    }
+
+    @Test
+    void equalRowsAreNeverFetched() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id VARCHAR(10), seq INT, v VARCHAR(10), PRIMARY KEY (id, seq))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                rows.add(new Object[]{"k" + i, i % 3, "v" + i});
+                csv.add(H2Fixture.csv("id", "k" + i, "seq", String.valueOf(i % 3), "v", "v" + i));
+            }
+            db.insert("t", rows);
+
+            List<String> prepared = new ArrayList<>();
+            DatabaseCSVMatcher.MatchResult result = DigestDatabaseMatcher.compareRecordsByDigest(
+                csv, OptimizedDatabaseMatcherTest.recording(connection, prepared), "t", "id", "seq");
+
+            assertEquals("100/0/0", H2Fixture.counts(result));
+            for (String sql : prepared) {
+                assertFalse(sql.startsWith("SELECT *"), "full rows fetched: " + sql);
+            }
+        }
+    }
+
+    @Test
+    void repeatedKeysWithoutPrimaryKeyFollowTheHashPath() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id INT, v VARCHAR(10))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                rows.add(new Object[]{i, "v" + i});
+                csv.add(H2Fixture.csv("id", String.valueOf(i), "v", "v" + i));
+            }
+            // The last row of a key wins: 5 ends equal to the CSV, 8 ends different
+            rows.add(new Object[]{5, "v5"});
+            rows.set(5, new Object[]{5, "old"});
+            rows.add(new Object[]{8, "changed"});
+            rows.add(new Object[]{30, "v30"});
+            rows.add(new Object[]{30, "v30"});
+            db.insert("t", rows);
+
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id");
+            assertEquals("20/0/1", H2Fixture.counts(expected));
+
+            DatabaseCSVMatcher.MatchResult result = DigestDatabaseMatcher.compareRecordsByDigest(
+                csv, connection, "t", "id");
+            H2Fixture.assertSameResult(expected, result);
+            assertEquals(List.of("8"), result.getMatched().stream()
+                .filter(m -> !(Boolean) m.get("matches"))
+                .map(m -> ((Map<?, ?>) m.get("csv_record")).get("id"))
+                .toList());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import com.aventstack.extentreports.observer.ReportObserver;
+import com.aventstack.extentreports.observer.entity.ReportEntity;
+import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.disposables.Disposable;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ExtentReportManagerTest {
+
+    @Test
+    @Order(1)
+    void flushFailsFastWhereItWouldBlock() throws Exception {
+        // Runs first, and no other test class initializes the report, so the writer is not running yet
+        assertThrows(IllegalStateException.class, ExtentReportManager::flushReport);
+
+        ExtentReportManager.initReport();
+        ExtentReportManager.TestContext context = ExtentReportManager.startTest("flush");
+        CompletableFuture<Throwable> fromWriter = new CompletableFuture<>();
+        context.withTest(test -> {
+            try {
+                ExtentReportManager.flushReport();
+                fromWriter.complete(null);
+            } catch (Throwable e) {
+                fromWriter.complete(e);
+            }
+        });
+        assertInstanceOf(IllegalStateException.class, fromWriter.get(10, TimeUnit.SECONDS));
+
+        ExtentReportManager.pass("done");
+        ExtentReportManager.endTest();
+        ExtentReportManager.flushReport();
+        assertTrue(Files.size(Paths.get(ExtentReportManager.REPORT_FILE)) > 0);
+    }
+
+    @Test
+    @Order(2)
+    void failedAssertionInAnUpdateDoesNotStopTheWriter() {
+        ExtentReportManager.initReport();
+        ExtentReportManager.TestContext context = ExtentReportManager.startTest("assertion");
+        context.withTest(test -> fail("assertion failed inside a report update"));
+        ExtentReportManager.pass("still logged");
+        ExtentReportManager.endTest();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), ExtentReportManager::flushReport);
+    }
+
+    @Test
+    @Order(3)
+    void flushFailureReachesTheCaller() {
+        ExtentReportManager.initReport();
+        ExtentReportManager.TestContext context = ExtentReportManager.startTest("broken reporter");
+        AtomicBoolean broken = new AtomicBoolean(true);
+        context.withTest(test -> test.getExtent().attachReporter(failingOnce(broken)));
+        ExtentReportManager.endTest();
+
+        IllegalStateException failure = assertThrows(IllegalStateException.class, ExtentReportManager::flushReport);
+        assertEquals("disk full", failure.getMessage());
+        ExtentReportManager.flushReport();
+    }
+
+    /**
+     * Reporter whose first write fails
+     */
+    private static ReportObserver<ReportEntity> failingOnce(AtomicBoolean broken) {
+        return () -> new Observer<ReportEntity>() {
+            @Override
+            public void onSubscribe(Disposable disposable) {
+            }
+
+            @Override
+            public void onNext(ReportEntity report) {
+                if (broken.getAndSet(false)) {
+                    throw new IllegalStateException("disk full");
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+    }
+}
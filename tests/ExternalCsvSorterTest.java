@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExternalCsvSorterTest {
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void spilledRunsMergeIntoTheTableOrder() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (code VARCHAR(10), n INT, v VARCHAR(10), PRIMARY KEY (code, n))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            Random random = new Random(3);
+            for (int i = 0; i < 400; i++) {
+                String code = String.valueOf(random.nextInt(40));
+                int n = random.nextInt(30);
+                if (i % 9 != 0) {
+                    rows.add(new Object[]{code, n, "v" + i});
+                }
+                if (i % 6 != 0) {
+                    csv.add(H2Fixture.csv("code", code, "n", String.valueOf(n), "v", i % 13 == 0 ? "changed" : "v" + i));
+                }
+            }
+            db.execute("CREATE TABLE staging (code VARCHAR(10), n INT, v VARCHAR(10))");
+            db.insert("staging", rows);
+            db.execute("INSERT INTO t SELECT code, n, MAX(v) FROM staging GROUP BY code, n");
+
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "code", "n");
+
+            ExternalCsvSorter sorter = new ExternalCsvSorter(
+                17, spillDirectory, CompositeKey.Layout.resolve(connection, "t", "code", "n"));
+            try (ExternalCsvSorter.SortedRecords sorted = sorter.sort(csv.iterator())) {
+                try (Stream<Path> runs = Files.list(spillDirectory)) {
+                    assertTrue(runs.count() > 1, "input should spill more than one run");
+                }
+                H2Fixture.assertSameResult(expected,
+                    DatabaseCSVMatcher.compareSortedRecords(sorted, connection, "t", "code", "n"));
+            }
+            try (Stream<Path> runs = Files.list(spillDirectory)) {
+                assertEquals(0, runs.count(), "closing deletes the runs");
+            }
+        }
+    }
+
+    @Test
+    void equalKeysKeepInputOrder() throws Exception {
+        List<Map<String, Object>> csv = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            csv.add(H2Fixture.csv("id", String.valueOf(i % 5), "seq", String.valueOf(i)));
+        }
+
+        List<String> order = new ArrayList<>();
+        try (ExternalCsvSorter.SortedRecords sorted = new ExternalCsvSorter(4, spillDirectory, "id").sort(csv.iterator())) {
+            sorted.forEachRemaining(record -> order.add(record.get("id") + ":" + record.get("seq")));
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int id = 0; id < 5; id++) {
+            for (int seq = id; seq < 50; seq += 5) {
+                expected.add(id + ":" + seq);
+            }
+        }
+        assertEquals(expected, order);
+    }
+}
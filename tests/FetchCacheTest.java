@@ -0,0 +1,104 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.OffsetDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FetchCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void diskTierReturnsTheFetchedValues() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id INT PRIMARY KEY, b VARBINARY(8), r REAL, tm TIME, tz TIMESTAMP WITH TIME ZONE,"
+                + " d DATE, ts TIMESTAMP(9), n DECIMAL(10, 3), s VARCHAR(10))",
+                "INSERT INTO t VALUES (1, X'00FF10', 0.1, TIME '13:45:07', TIMESTAMP WITH TIME ZONE '2024-03-01 10:15:30.123456789-05:30',"
+                + " DATE '1969-12-31', TIMESTAMP '2024-03-01 10:15:30.123456789', 12.340, 'a')",
+                "INSERT INTO t VALUES (2, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL)");
+
+            List<Row> fetched = new FetchCache(100, tempDir, 1 << 20).fetch(connection, "t", null, null, "v1");
+            FetchCache reopened = new FetchCache(100, tempDir, 1 << 20);
+            List<Row> cached = reopened.fetch(connection, "t", null, null, "v1");
+
+            assertEquals(1, reopened.getStats().getDiskHits());
+            assertEquals(fetched.size(), cached.size());
+            for (int row = 0; row < fetched.size(); row++) {
+                for (int column = 0; column < fetched.get(row).schema().size(); column++) {
+                    assertSameValue(fetched.get(row).get(column), cached.get(row).get(column));
+                }
+            }
+            assertInstanceOf(Float.class, cached.get(0).get("r"));
+            assertInstanceOf(OffsetDateTime.class, cached.get(0).get("tz"));
+        }
+    }
+
+    @Test
+    void entriesTheCodecCannotReadBackStayInMemory() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id INT PRIMARY KEY, u UUID)",
+                "INSERT INTO t VALUES (1, RANDOM_UUID())");
+
+            FetchCache cache = new FetchCache(100, tempDir, 1 << 20);
+            cache.fetch(connection, "t", null, null, "v1");
+            assertEquals(0, cache.getStats().getDiskWrites());
+
+            FetchCache reopened = new FetchCache(100, tempDir, 1 << 20);
+            assertInstanceOf(UUID.class, reopened.fetch(connection, "t", null, null, "v1").get(0).get("u"));
+            assertEquals(1, reopened.getStats().getMisses());
+        }
+    }
+
+    @Test
+    void codecRoundTripsEveryEncodableType() throws Exception {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("float", -3.5e-7f);
+        record.put("bytes", new byte[]{1, -2, 3});
+        record.put("empty", new byte[0]);
+        record.put("time", java.sql.Time.valueOf("23:59:58"));
+        record.put("before_epoch", OffsetDateTime.parse("1901-06-15T08:00:00.000000001-09:30"));
+        record.put("short", (short) 7);
+        record.put("decimal", new BigDecimal("-0.000"));
+        for (Object value : record.values()) {
+            assertTrue(RecordCodec.canEncode(value), value.getClass().getName());
+        }
+        assertFalse(RecordCodec.canEncode(UUID.randomUUID()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (RecordCodec.Writer writer = new RecordCodec.Writer(out)) {
+            writer.write(record);
+        }
+        Map<String, Object> read;
+        try (RecordCodec.Reader reader = new RecordCodec.Reader(new ByteArrayInputStream(out.toByteArray()))) {
+            read = reader.read();
+            assertNull(reader.read());
+        }
+
+        assertEquals(record.keySet(), read.keySet());
+        assertEquals(7, read.get("short"));
+        for (String column : record.keySet()) {
+            if (!column.equals("short")) {
+                assertSameValue(record.get(column), read.get(column));
+            }
+        }
+    }
+
+    private static void assertSameValue(Object expected, Object actual) {
+        if (expected instanceof byte[]) {
+            assertArrayEquals((byte[]) expected, (byte[]) actual);
+            return;
+        }
+        assertEquals(expected, actual);
+        if (expected != null) {
+            assertEquals(expected.getClass(), actual.getClass());
+        }
+    }
+}
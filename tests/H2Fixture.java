@@ -0,0 +1,112 @@
+import org.h2.jdbcx.JdbcDataSource;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * In-memory H2 database for one test, plus helpers to build CSV records and
+ * compare the outcome of a strategy with the hash path of
+ * {@link DatabaseCSVMatcher#compareRecords}.
+ */
+final class H2Fixture implements AutoCloseable {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    final JdbcDataSource dataSource = new JdbcDataSource();
+    private final Connection keepAlive;
+
+    H2Fixture() throws SQLException {
+        dataSource.setURL("jdbc:h2:mem:test" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        keepAlive = dataSource.getConnection();
+    }
+
+    Connection connection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    void execute(String... statements) throws SQLException {
+        try (Statement stmt = keepAlive.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Insert rows given as values in column order
+     */
+    void insert(String table, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(rows.get(0).length, "?"));
+        try (PreparedStatement stmt = keepAlive.prepareStatement("INSERT INTO " + table + " VALUES (" + placeholders + ")")) {
+            for (Object[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    stmt.setObject(i + 1, row[i]);
+                }
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        execute("SHUTDOWN");
+        keepAlive.close();
+    }
+
+    /**
+     * CSV record from alternating lowercase column names and string values
+     */
+    static Map<String, Object> csv(String... namesAndValues) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            record.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return record;
+    }
+
+    /**
+     * Assert both results hold the same outcomes, ignoring order. Matched
+     * records are compared by CSV record, match flag and differences.
+     */
+    static void assertSameResult(DatabaseCSVMatcher.MatchResult expected, DatabaseCSVMatcher.MatchResult actual) {
+        assertEquals(describe(expected.getMatched(), true), describe(actual.getMatched(), true), "matched");
+        assertEquals(describe(expected.getUnmatched(), false), describe(actual.getUnmatched(), false), "unmatched");
+        assertEquals(describe(expected.getDbOnly(), false), describe(actual.getDbOnly(), false), "dbOnly");
+    }
+
+    static String counts(DatabaseCSVMatcher.MatchResult result) {
+        return result.getMatched().size() + "/" + result.getUnmatched().size() + "/" + result.getDbOnly().size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> describe(List<Map<String, Object>> records, boolean matched) {
+        List<String> described = new ArrayList<>();
+        for (Map<String, Object> record : records) {
+            if (matched) {
+                described.add(sorted((Map<String, Object>) record.get("csv_record")) + " matches=" + record.get("matches")
+                    + " differences=" + sorted((Map<String, Object>) record.get("differences")));
+            } else {
+                described.add(sorted(record).toString());
+            }
+        }
+        Collections.sort(described);
+        return described;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> sorted(Map<String, Object> record) {
+        Map<String, Object> sorted = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : record.entrySet()) {
+            Object value = entry.getValue();
+            sorted.put(entry.getKey(), value instanceof Map ? sorted((Map<String, Object>) value) : value);
+        }
+        return sorted;
+    }
+}
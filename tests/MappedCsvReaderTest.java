@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Field;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedCsvReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rowsReadAcrossSmallWindowsKeepTheirValues() throws Exception {
+        StringBuilder text = new StringBuilder("id,name,note\r\n");
+        for (int i = 0; i < 200; i++) {
+            text.append(i).append(",\"name, ").append(i).append("\",\"say \"\"").append(i).append("\"\"\nend\"\r\n");
+        }
+        Path file = tempDir.resolve("rows.csv");
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<Map<String, Object>> rows;
+        try (MappedCsvReader reader = new MappedCsvReader(file, ',', 64, "note", "id")) {
+            rows = reader.readAll();
+        }
+
+        assertEquals(200, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, Object> row = rows.get(i);
+            assertEquals(String.valueOf(i), row.get("id"));
+            assertEquals("say \"" + i + "\"\nend", row.get("note"));
+            assertNull(row.get("name"));
+        }
+    }
+
+    @Test
+    void rowsLeftBehindDoNotHoldTheMappedWindow() throws Exception {
+        Path file = tempDir.resolve("rows.csv");
+        Files.write(file, "id,v\n1,a\n2,\n3\n".getBytes(StandardCharsets.UTF_8));
+
+        try (MappedCsvReader reader = new MappedCsvReader(file)) {
+            Iterator<Map<String, Object>> it = reader.iterator();
+            Map<String, Object> first = it.next();
+            assertTrue(holdsMappedWindow(first));
+
+            Map<String, Object> second = it.next();
+            assertFalse(holdsMappedWindow(first));
+            assertTrue(holdsMappedWindow(second));
+
+            Map<String, Object> third = it.next();
+            assertFalse(it.hasNext());
+            assertFalse(holdsMappedWindow(second));
+            assertFalse(holdsMappedWindow(third));
+
+            assertEquals(Map.of("id", "1", "v", "a"), first);
+            assertEquals("", second.get("v"));
+            assertEquals("3", third.get("id"));
+            assertNull(third.get("v"));
+        }
+    }
+
+    private static boolean holdsMappedWindow(Map<String, Object> row) throws Exception {
+        Field fields = row.getClass().getDeclaredField("fields");
+        fields.setAccessible(true);
+        Object value = fields.get(row);
+        Field window = value.getClass().getDeclaredField("window");
+        window.setAccessible(true);
+        return window.get(value) instanceof MappedByteBuffer;
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchSinkTest {
+
+    @Test
+    void streamingSinksAgreeWithTheCollectedResult() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            List<Map<String, Object>> csv = load(db);
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id");
+            assertEquals("299/3/2", H2Fixture.counts(expected));
+            long mismatched = expected.getMatched().stream().filter(m -> !(Boolean) m.get("matches")).count();
+
+            MatchSink.Counting counting = new MatchSink.Counting();
+            MatchSink.FirstDifferences first = new MatchSink.FirstDifferences(4);
+            ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            try (MatchSink.NdjsonWriter json = new MatchSink.NdjsonWriter(ndjson, false);
+                 MatchSink.BinaryWriter codec = new MatchSink.BinaryWriter(binary, false)) {
+                for (MatchSink sink : List.of(counting, first, json, codec)) {
+                    OptimizedDatabaseMatcher.compareRecordsComplete(csv, connection, "t", ComparisonPlan.DEFAULT, sink, "id");
+                }
+            }
+
+            assertEquals(299 - mismatched, counting.getMatching());
+            assertEquals(mismatched, counting.getMismatched());
+            assertEquals(3, counting.getUnmatched());
+            assertEquals(2, counting.getDbOnly());
+            assertFalse(counting.isClean());
+
+            assertEquals(counting.toString(), first.toString());
+            assertEquals(4, first.getDifferences().size());
+
+            // Only discrepancies are streamed when matches are not requested
+            long discrepancies = mismatched + 3 + 2;
+            List<String> lines = Arrays.asList(ndjson.toString(StandardCharsets.UTF_8).split("\n"));
+            assertEquals(discrepancies, lines.size());
+            assertEquals(mismatched, lines.stream().filter(l -> l.startsWith("{\"type\":\"mismatch\"")).count());
+            assertEquals(3, lines.stream().filter(l -> l.startsWith("{\"type\":\"csv_only\"")).count());
+            assertTrue(lines.stream().anyMatch(l -> l.equals("{\"type\":\"db_only\",\"db\":{\"id\":1000,\"v\":\"v1000\"}}")));
+
+            Map<String, Integer> types = new HashMap<>();
+            try (RecordCodec.Reader reader = new RecordCodec.Reader(new ByteArrayInputStream(binary.toByteArray()))) {
+                for (Map<String, Object> event = reader.read(); event != null; event = reader.read()) {
+                    types.merge((String) event.get("_type"), 1, Integer::sum);
+                    if ("mismatch".equals(event.get("_type"))) {
+                        assertEquals("v", event.get("_differences"));
+                    }
+                }
+            }
+            assertEquals(Map.of("mismatch", (int) mismatched, "csv_only", 3, "db_only", 2), types);
+        }
+    }
+
+    @Test
+    void parallelPartitionsReportIntoAPlainSink() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            List<Map<String, Object>> csv = load(db);
+            MatchSink.Counting counting = new MatchSink.Counting();
+            ParallelDatabaseMatcher.compareRecordsParallel(csv, db.dataSource, "t", 4, counting, "id");
+
+            assertEquals(302, counting.getMatching() + counting.getMismatched() + counting.getUnmatched());
+            assertEquals(2, counting.getDbOnly());
+        }
+    }
+
+    /**
+     * Rows 0..298 plus 1000 and 1001 in the table; the CSV has 0..299 with every
+     * 37th value changed, plus 5000 and 5001
+     */
+    private static List<Map<String, Object>> load(H2Fixture db) throws Exception {
+        db.execute("CREATE TABLE t (id INT PRIMARY KEY, v VARCHAR(10))");
+        List<Object[]> rows = new ArrayList<>();
+        List<Map<String, Object>> csv = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            if (i < 299) {
+                rows.add(new Object[]{i, "v" + i});
+            }
+            csv.add(H2Fixture.csv("id", String.valueOf(i), "v", i % 37 == 0 ? "changed" : "v" + i));
+        }
+        rows.add(new Object[]{1000, "v1000"});
+        rows.add(new Object[]{1001, "v1001"});
+        csv.add(H2Fixture.csv("id", "5000", "v", "x"));
+        csv.add(H2Fixture.csv("id", "5001", "v", "y"));
+        db.insert("t", rows);
+        return csv;
+    }
+}
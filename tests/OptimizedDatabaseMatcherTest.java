@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptimizedDatabaseMatcherTest {
+
+    @Test
+    void chunksAreBoundedByParameterCount() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (a INT, b VARCHAR(10), c BIGINT, v VARCHAR(10), PRIMARY KEY (a, b, c))");
+            List<Object[]> rows = new ArrayList<>();
+            Set<CompositeKey> keys = new LinkedHashSet<>();
+            CompositeKey.Layout keyLayout = CompositeKey.Layout.resolve(connection, "t", "a", "b", "c");
+            for (int i = 0; i < 250; i++) {
+                rows.add(new Object[]{i % 7, "k" + i, (long) i, "v"});
+                keys.add(keyLayout.keyOf(H2Fixture.csv("a", String.valueOf(i % 7), "b", "k" + i, "c", String.valueOf(i))));
+            }
+            db.insert("t", rows);
+
+            List<String> prepared = new ArrayList<>();
+            Map<CompositeKey, Map<String, Object>> fetched = OptimizedDatabaseMatcher.fetchRecordsByKeys(
+                recording(connection, prepared), "t", keys, keyLayout, 30);
+
+            assertEquals(keys, fetched.keySet());
+            assertFalse(prepared.isEmpty());
+            for (String sql : prepared) {
+                long parameters = sql.chars().filter(c -> c == '?').count();
+                assertTrue(parameters <= 30, parameters + " parameters in " + sql);
+            }
+            assertEquals(30, prepared.get(0).chars().filter(c -> c == '?').count());
+        }
+    }
+
+    @Test
+    void optimizedAndCompleteAgreeWithTheHashPath() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id BIGINT, region VARCHAR(5), amount DECIMAL(10, 2), PRIMARY KEY (id, region))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (int i = 0; i < 2500; i++) {
+                String region = i % 2 == 0 ? "EU" : "US";
+                if (i % 10 != 0) {
+                    rows.add(new Object[]{(long) i, region, new java.math.BigDecimal(i + ".50")});
+                }
+                if (i % 8 != 0) {
+                    csv.add(H2Fixture.csv("id", String.valueOf(i), "region", region,
+                        "amount", i % 17 == 0 ? "0.01" : i + ".5"));
+                }
+            }
+            db.insert("t", rows);
+
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id", "region");
+            H2Fixture.assertSameResult(expected, OptimizedDatabaseMatcher.compareRecordsComplete(
+                csv, connection, "t", "id", "region"));
+
+            DatabaseCSVMatcher.MatchResult optimized = OptimizedDatabaseMatcher.compareRecordsOptimized(
+                csv, connection, "t", "id", "region");
+            expected.getDbOnly().clear();
+            H2Fixture.assertSameResult(expected, optimized);
+        }
+    }
+
+    @Test
+    void repeatedDbOnlyKeyIsReportedOnce() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            // No primary key, so the table may hold a key more than once
+            db.execute("CREATE TABLE t (id INT, v VARCHAR(10))");
+            db.insert("t", Arrays.asList(
+                new Object[]{1, "a"}, new Object[]{2, "b"}, new Object[]{7, "first"},
+                new Object[]{8, "c"}, new Object[]{7, "second"}, new Object[]{2, "b"}));
+            List<Map<String, Object>> csv = List.of(H2Fixture.csv("id", "1", "v", "a"), H2Fixture.csv("id", "2", "v", "b"));
+
+            DatabaseCSVMatcher.MatchResult result = OptimizedDatabaseMatcher.compareRecordsComplete(csv, connection, "t", "id");
+
+            List<Object> dbOnlyIds = new ArrayList<>();
+            for (Map<String, Object> record : result.getDbOnly()) {
+                dbOnlyIds.add(record.get("id"));
+            }
+            assertEquals(List.of(7, 8), dbOnlyIds);
+            assertEquals("2/0/2", H2Fixture.counts(result));
+        }
+    }
+
+    /**
+     * Connection that records the SQL of every prepared statement
+     */
+    static Connection recording(Connection connection, List<String> prepared) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("prepareStatement")) {
+                    prepared.add((String) args[0]);
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+    }
+}
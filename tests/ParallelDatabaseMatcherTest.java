@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Types;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelDatabaseMatcherTest {
+
+    @Test
+    void varcharKeysLandInTheRangeOfTheirRow() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id VARCHAR(10) PRIMARY KEY, v VARCHAR(10))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (String id : new String[]{"1", "2", "9", "10", "11", "20", "100", "abc"}) {
+                rows.add(new Object[]{id, "x"});
+                csv.add(H2Fixture.csv("id", id, "v", "x"));
+            }
+            db.insert("t", rows);
+
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id");
+            assertEquals("8/0/0", H2Fixture.counts(expected));
+            for (int partitions = 1; partitions <= 5; partitions++) {
+                H2Fixture.assertSameResult(expected, ParallelDatabaseMatcher.compareRecordsParallel(
+                    csv, db.dataSource, "t", partitions, "id"));
+            }
+        }
+    }
+
+    @Test
+    void caseInsensitiveCollationStillMatchesEveryRow() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id VARCHAR_IGNORECASE(10) PRIMARY KEY, v VARCHAR(10))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (String id : new String[]{"a", "B", "c", "D", "e", "F", "g", "H", "x1", "Y2"}) {
+                rows.add(new Object[]{id, "x"});
+                csv.add(H2Fixture.csv("id", id, "v", "x"));
+            }
+            rows.add(new Object[]{"z9", "x"});
+            csv.add(H2Fixture.csv("id", "Q", "v", "x"));
+            db.insert("t", rows);
+
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id");
+            assertEquals("10/1/1", H2Fixture.counts(expected));
+            H2Fixture.assertSameResult(expected, ParallelDatabaseMatcher.compareRecordsParallel(
+                csv, db.dataSource, "t", 4, "id"));
+        }
+    }
+
+    @Test
+    void integerKeysAgreeWithTheHashPath() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id BIGINT, part INT, v VARCHAR(10), PRIMARY KEY (id, part))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                if (i % 3 != 0) {
+                    rows.add(new Object[]{(long) i, i % 2, "v" + i});
+                }
+                if (i % 4 != 0) {
+                    csv.add(H2Fixture.csv("id", String.valueOf(i), "part", String.valueOf(i % 2),
+                        "v", i % 10 == 1 ? "other" : "v" + i));
+                }
+            }
+            db.insert("t", rows);
+
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id", "part");
+            H2Fixture.assertSameResult(expected, ParallelDatabaseMatcher.compareRecordsParallel(
+                csv, db.dataSource, "t", 4, "id", "part"));
+        }
+    }
+
+    @Test
+    void partitionOfUsesTheColumnOrder() {
+        List<Object> splitPoints = List.of("100", "9");
+        assertEquals(0, ParallelDatabaseMatcher.partitionOf("10", splitPoints, Types.VARCHAR));
+        assertEquals(1, ParallelDatabaseMatcher.partitionOf("20", splitPoints, Types.VARCHAR));
+        assertEquals(2, ParallelDatabaseMatcher.partitionOf("abc", splitPoints, Types.VARCHAR));
+
+        assertEquals(1, ParallelDatabaseMatcher.partitionOf("150", List.of(100L, 200L), Types.BIGINT));
+        assertEquals(0, ParallelDatabaseMatcher.partitionOf(null, List.of(100L, 200L), Types.BIGINT));
+    }
+}
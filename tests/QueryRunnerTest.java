@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryRunnerTest {
+
+    @BeforeEach
+    void resetProbe() {
+        Probe.reset();
+    }
+
+    @Test
+    void noMoreThanMaxConcurrencyQueriesRunAtOnce() throws Exception {
+        try (H2Fixture db = fixture(); QueryRunner runner = new QueryRunner(db.dataSource, 2)) {
+            List<QueryRunner.Query> queries = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                queries.add(runner.submit("SELECT HOLD(" + i + ", 100)", rs -> { }));
+            }
+            for (QueryRunner.Query query : queries) {
+                assertEquals(1, query.get().getRowCount());
+            }
+
+            assertEquals(6, Probe.ran.size());
+            assertEquals(2, Probe.maxRunning.get());
+            // The later queries waited for a slot
+            assertTrue(queries.get(5).get().getQueueTime().toMillis() >= 100, queries.get(5).get().toString());
+        }
+    }
+
+    @Test
+    void cancelledQueuedQueryNeverRuns() throws Exception {
+        try (H2Fixture db = fixture(); QueryRunner runner = new QueryRunner(db.dataSource, 1)) {
+            QueryRunner.Query blocker = runner.submit("SELECT BLOCK()", rs -> { });
+            assertTrue(Probe.blocked.await(10, TimeUnit.SECONDS));
+            QueryRunner.Query queued = runner.submit("SELECT HOLD(1, 0)", rs -> { });
+
+            assertTrue(queued.cancel());
+            assertFalse(queued.cancel());
+            assertTrue(queued.isDone());
+            Probe.release.countDown();
+
+            assertEquals(1, blocker.get().getRowCount());
+            assertThrows(CancellationException.class, queued::get);
+            // The only slot is free again, and the cancelled query never reached the database
+            assertEquals(1, runner.submit("SELECT HOLD(2, 0)", rs -> { }).get().getRowCount());
+            assertEquals(List.of(2), Probe.ran);
+        }
+    }
+
+    @Test
+    void timedOutQueryFailsAndGivesItsSlotBack() throws Exception {
+        try (H2Fixture db = fixture(); QueryRunner runner = new QueryRunner(db.dataSource, 1)) {
+            QueryRunner.Query slow = runner.submit("SELECT HOLD(1, 10000)", rs -> { }, Duration.ofMillis(200));
+            SQLTimeoutException timeout = assertThrows(SQLTimeoutException.class, slow::get);
+            assertTrue(timeout.getMessage().contains("200 ms"), timeout.getMessage());
+
+            QueryRunner.Query next = runner.submit("SELECT HOLD(2, 0)", rs -> { });
+            assertEquals(1, assertTimeoutPreemptively(Duration.ofSeconds(5), next::get).getRowCount());
+            assertTrue(Probe.ran.contains(2));
+        }
+    }
+
+    private static H2Fixture fixture() throws Exception {
+        H2Fixture db = new H2Fixture();
+        db.execute("CREATE ALIAS HOLD FOR 'QueryRunnerTest$Probe.hold'",
+            "CREATE ALIAS BLOCK FOR 'QueryRunnerTest$Probe.block'");
+        return db;
+    }
+
+    /**
+     * SQL functions that record which queries reached the database and how many ran at once
+     */
+    public static final class Probe {
+        static final List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        static final AtomicInteger maxRunning = new AtomicInteger();
+        private static final AtomicInteger runningNow = new AtomicInteger();
+        static volatile CountDownLatch blocked;
+        static volatile CountDownLatch release;
+
+        static void reset() {
+            ran.clear();
+            maxRunning.set(0);
+            runningNow.set(0);
+            blocked = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+        }
+
+        public static int hold(int id, long millis) throws InterruptedException {
+            ran.add(id);
+            maxRunning.accumulateAndGet(runningNow.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(millis);
+            } finally {
+                runningNow.decrementAndGet();
+            }
+            return id;
+        }
+
+        public static int block() throws InterruptedException {
+            blocked.countDown();
+            return release.await(10, TimeUnit.SECONDS) ? 1 : 0;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordSourceTest {
+
+    @Test
+    void scansReadOnlyTheKeyAndComparedColumns() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            List<Map<String, Object>> csv = load(db);
+
+            List<String> prepared = new ArrayList<>();
+            RecordSource source = RecordSource.jdbc(OptimizedDatabaseMatcherTest.recording(connection, prepared), "t");
+            DatabaseCSVMatcher.MatchResult projected = DatabaseCSVMatcher.compareRecords(csv, source, "id");
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id");
+
+            // Same outcomes; db-only rows carry only the projected columns
+            assertEquals(H2Fixture.counts(expected), H2Fixture.counts(projected));
+            assertEquals(describeMatched(expected), describeMatched(projected));
+            assertEquals(Set.of("id", "v"), projected.getDbOnly().get(0).keySet().stream()
+                .map(String::toLowerCase).collect(Collectors.toSet()));
+
+            // The CSV-only column "extra" is skipped, and the wide payload is never read
+            assertTrue(prepared.contains("SELECT ID, V FROM t"), prepared.toString());
+            for (String sql : prepared) {
+                assertFalse(sql.contains("PAYLOAD"), sql);
+            }
+        }
+    }
+
+    @Test
+    void defaultLookupScansWithTheProjection() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            List<Map<String, Object>> csv = load(db);
+            RecordSource jdbc = RecordSource.jdbc(connection, "t");
+            List<String[]> scans = new ArrayList<>();
+            RecordSource scanOnly = (columns, handler) -> {
+                scans.add(columns);
+                jdbc.scan(columns, handler);
+            };
+
+            ComparisonPlan plan = ComparisonPlan.builder().ignore("v").build();
+            DatabaseCSVMatcher.MatchResult result = new DatabaseCSVMatcher.MatchResult();
+            OptimizedDatabaseMatcher.compareRecordsOptimized(csv, scanOnly, plan, result, "id");
+
+            assertEquals(1, scans.size());
+            assertArrayEquals(new String[]{"id", "extra"}, scans.get(0));
+            assertEquals("20/1/0", H2Fixture.counts(result));
+        }
+    }
+
+    private static List<String> describeMatched(DatabaseCSVMatcher.MatchResult result) {
+        List<String> described = new ArrayList<>();
+        for (Map<String, Object> match : result.getMatched()) {
+            described.add(match.get("csv_record") + " " + new TreeMap<>((Map<?, ?>) match.get("differences")));
+        }
+        Collections.sort(described);
+        return described;
+    }
+
+    /**
+     * Rows 0..19 plus 99 in the table; the CSV has 0..19 with every 5th value changed, plus 50
+     */
+    private static List<Map<String, Object>> load(H2Fixture db) throws Exception {
+        db.execute("CREATE TABLE t (id INT PRIMARY KEY, v VARCHAR(10), payload VARCHAR(1000))");
+        List<Object[]> rows = new ArrayList<>();
+        List<Map<String, Object>> csv = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(new Object[]{i, "v" + i, "x".repeat(1000)});
+            Map<String, Object> record = H2Fixture.csv("id", String.valueOf(i), "v", i % 5 == 0 ? "changed" : "v" + i);
+            record.put("extra", null);
+            csv.add(record);
+        }
+        rows.add(new Object[]{99, "v99", "x"});
+        csv.add(H2Fixture.csv("id", "50", "v", "v50", "extra", null));
+        db.insert("t", rows);
+        return csv;
+    }
+}
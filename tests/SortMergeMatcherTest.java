@@ -0,0 +1,158 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Types;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortMergeMatcherTest {
+
+    private static final String[] IDS = {"1", "2", "9", "10", "11", "20", "100", "abc"};
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void varcharKeysMergeInDatabaseOrder() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id VARCHAR(10) PRIMARY KEY, v VARCHAR(10))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (String id : IDS) {
+                rows.add(new Object[]{id, "x"});
+                csv.add(H2Fixture.csv("id", id, "v", id.equals("11") ? "y" : "x"));
+            }
+            rows.add(new Object[]{"5", "x"});
+            csv.add(H2Fixture.csv("id", "7", "v", "x"));
+            db.insert("t", rows);
+
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id");
+            assertEquals("8/1/1", H2Fixture.counts(expected));
+
+            H2Fixture.assertSameResult(expected, DatabaseCSVMatcher.compareRecordsSortMerge(csv, connection, "t", "id"));
+            H2Fixture.assertSameResult(expected, DatabaseCSVMatcher.compareRecordsExternalSort(
+                csv.iterator(), connection, "t", tempDir, "id"));
+        }
+    }
+
+    @Test
+    void integerKeysMergeNumerically() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id BIGINT PRIMARY KEY, v VARCHAR(10))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                if (i % 7 != 0) {
+                    rows.add(new Object[]{(long) i, "v" + i});
+                }
+                if (i % 5 != 0) {
+                    csv.add(H2Fixture.csv("id", String.valueOf(i), "v", i % 11 == 0 ? "changed" : "v" + i));
+                }
+            }
+            db.insert("t", rows);
+            Collections.shuffle(csv, new Random(1));
+
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id");
+            H2Fixture.assertSameResult(expected, DatabaseCSVMatcher.compareRecordsSortMerge(csv, connection, "t", "id"));
+
+            Path csvFile = tempDir.resolve("t.csv");
+            StringBuilder text = new StringBuilder("id,v\n");
+            for (Map<String, Object> record : csv) {
+                text.append(record.get("id")).append(',').append(record.get("v")).append('\n');
+            }
+            Files.writeString(csvFile, text);
+            H2Fixture.assertSameResult(expected, DatabaseCSVMatcher.compareCsvFile(csvFile, connection, "t", tempDir, "id"));
+        }
+    }
+
+    @Test
+    void uppercaseHeaderStillMatchesAfterSpilling() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(10))");
+            List<Object[]> rows = new ArrayList<>();
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 250; i++) {
+                rows.add(new Object[]{i, "n" + i});
+                lines.add(i + "," + (i == 42 ? "changed" : "n" + i));
+            }
+            db.insert("t", rows);
+            Collections.shuffle(lines, new Random(3));
+            Path csvFile = tempDir.resolve("upper.csv");
+            Files.writeString(csvFile, "ID,NAME\n" + String.join("\n", lines) + "\n");
+
+            DatabaseCSVMatcher.MatchResult inMemory = new DatabaseCSVMatcher.MatchResult();
+            DatabaseCSVMatcher.compareCsvFile(csvFile, connection, "t", tempDir, 1000,
+                ComparisonPlan.DEFAULT, inMemory, "ID");
+            assertEquals("250/0/0", H2Fixture.counts(inMemory));
+
+            // 50 records per run: five spilled runs merged back
+            DatabaseCSVMatcher.MatchResult spilled = new DatabaseCSVMatcher.MatchResult();
+            DatabaseCSVMatcher.compareCsvFile(csvFile, connection, "t", tempDir, 50,
+                ComparisonPlan.DEFAULT, spilled, "ID");
+            H2Fixture.assertSameResult(inMemory, spilled);
+            assertEquals(1, spilled.getMatched().stream().filter(m -> !(Boolean) m.get("matches")).count());
+        }
+    }
+
+    @Test
+    void compositeKeyWithMixedColumnTypes() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (region VARCHAR(10), seq INT, v VARCHAR(10), PRIMARY KEY (region, seq))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (String region : new String[]{"10", "9", "a", "B"}) {
+                for (int seq : new int[]{2, 10, 9, 100}) {
+                    rows.add(new Object[]{region, seq, "x"});
+                    csv.add(H2Fixture.csv("region", region, "seq", String.valueOf(seq), "v", "x"));
+                }
+            }
+            db.insert("t", rows);
+            Collections.shuffle(csv, new Random(2));
+
+            DatabaseCSVMatcher.MatchResult expected = DatabaseCSVMatcher.compareRecords(
+                csv, connection, "t", "region", "seq");
+            assertEquals("16/0/0", H2Fixture.counts(expected));
+            H2Fixture.assertSameResult(expected, DatabaseCSVMatcher.compareRecordsSortMerge(
+                csv, connection, "t", "region", "seq"));
+        }
+    }
+
+    @Test
+    void sortedInputInTheWrongOrderIsRejected() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id VARCHAR(10) PRIMARY KEY)");
+            // Numeric order, which is not the order of a VARCHAR column
+            List<Map<String, Object>> csv = List.of(H2Fixture.csv("id", "9"), H2Fixture.csv("id", "10"));
+
+            assertThrows(IllegalArgumentException.class,
+                () -> DatabaseCSVMatcher.compareSortedRecords(csv.iterator(), connection, "t", "id"));
+        }
+    }
+
+    @Test
+    void comparatorFollowsColumnType() {
+        CompositeKey.Layout untyped = CompositeKey.Layout.of("id");
+        Map<String, Object> nine = H2Fixture.csv("id", "9");
+        Map<String, Object> ten = H2Fixture.csv("id", "10");
+        Map<String, Object> text = H2Fixture.csv("id", "abc");
+
+        assertTrue(untyped.comparator().compare(untyped.keyOf(nine), untyped.keyOf(ten)) < 0);
+        assertTrue(CompositeKey.compareValues(9L, 10L, Types.VARCHAR) > 0);
+        assertTrue(CompositeKey.compareValues("1.5", "10", Types.DECIMAL) < 0);
+        assertTrue(CompositeKey.compareValues("abc", "10", Types.DECIMAL) > 0);
+        assertTrue(CompositeKey.compareValues("1.5", "1.50", Types.DECIMAL) != 0);
+
+        // The natural order is transitive across integer and text parts
+        List<CompositeKey> keys = new ArrayList<>();
+        for (String id : new String[]{"abc", "10", "9", "1.5", "-3", "Z"}) {
+            keys.add(untyped.keyOf(H2Fixture.csv("id", id)));
+        }
+        keys.add(untyped.keyOf(text));
+        keys.sort(null);
+        assertEquals("[-3, 9, 10, 1.5, Z, abc, abc]", keys.toString());
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StagedSqlMatcherTest {
+
+    @Test
+    void agreesWithTheHashPath() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(20), amount DECIMAL(10, 2), note VARCHAR(20))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (int i = 0; i < 1500; i++) {
+                String note = i % 4 == 0 ? null : "n" + i;
+                if (i % 9 != 0) {
+                    rows.add(new Object[]{i, "name" + i, new BigDecimal(i + ".25"), note});
+                }
+                if (i % 7 != 0) {
+                    Map<String, Object> record = H2Fixture.csv("id", String.valueOf(i), "name", "name" + i,
+                        "amount", i % 11 == 0 ? i + ".250" : i + ".25");
+                    record.put("note", i % 13 == 0 ? "other" : note);
+                    csv.add(record);
+                }
+            }
+            csv.add(H2Fixture.csv("id", "1", "name", "duplicate", "amount", "1.25", "note", "n1"));
+            db.insert("t", rows);
+
+            DatabaseCSVMatcher.MatchResult staged = StagedSqlMatcher.compareRecordsStaged(csv, connection, "t", "id");
+            H2Fixture.assertSameResult(DatabaseCSVMatcher.compareRecords(csv, connection, "t", "id"), staged);
+            assertEquals(0, stagingTables(connection));
+        }
+    }
+
+    @Test
+    void compositeKeysAgreeWithTheHashPath() throws Exception {
+        try (H2Fixture db = new H2Fixture(); Connection connection = db.connection()) {
+            db.execute("CREATE TABLE t (region VARCHAR(5), seq INT, v VARCHAR(10), PRIMARY KEY (region, seq))");
+            List<Object[]> rows = new ArrayList<>();
+            List<Map<String, Object>> csv = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                String region = i % 3 == 0 ? "EU" : "US";
+                if (i != 17) {
+                    rows.add(new Object[]{region, i, "v" + i});
+                }
+                if (i != 42) {
+                    csv.add(H2Fixture.csv("region", region, "seq", String.valueOf(i), "v", i % 50 == 0 ? "changed" : "v" + i));
+                }
+            }
+            db.insert("t", rows);
+
+            H2Fixture.assertSameResult(DatabaseCSVMatcher.compareRecords(csv, connection, "t", "region", "seq"),
+                StagedSqlMatcher.compareRecordsStaged(csv, connection, "t", RowDigest.Dialect.H2, "region", "seq"));
+        }
+    }
+
+    private static int stagingTables(Connection connection) throws Exception {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES"
+                 + " WHERE LOWER(TABLE_NAME) LIKE 'reconcile_stage_%'")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}